@@ -0,0 +1,62 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+
+/**
+ * A step whose work completes asynchronously, e.g. through a non-blocking HTTP or cloud SDK client.
+ * No thread is held while the returned stage is pending; the step succeeds or fails when it completes,
+ * with the same retry, probe and rewind handling as a regular step.
+ * <p>
+ * Step accessors such as {@link #setData(Object)} only work on threads bound to the run. Wrap callbacks that
+ * run on a client's own threads with {@link #inRun(Consumer)}, or complete the stage and set data afterwards.
+ * <p>
+ * {@link org.beanrunner.core.annotations.StepHedge} is ignored for async steps: the stage is started once per attempt.
+ */
+public abstract class AsyncStep<D> extends Step<D> {
+
+    protected abstract CompletionStage<Void> runAsync();
+
+    protected CompletionStage<Void> rewindAsync() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    protected final void run() {
+        runAsync().toCompletableFuture().join();
+    }
+
+    @Override
+    protected final void rewind() {
+        rewindAsync().toCompletableFuture().join();
+    }
+
+    /**
+     * Returns a callback that runs bound to the run that is current when this method is called.
+     */
+    protected final <T> Consumer<T> inRun(Consumer<T> callback) {
+        return CurrentRun.wrap(callback);
+    }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * A step that collects one item per run into batches and writes each batch in a single call, e.g. to a streaming insert API.
+ * A batch is flushed when it reaches maxItems or maxBytes, or maxDelay after its first item was added. Each run's step succeeds
+ * or fails with the flush of the batch its item was part of.
+ * <p>
+ * Items waiting for or in a flush count against maxQueuedItems; items of runs beyond that are held back, without holding
+ * a thread, until earlier items complete. Flushes are submitted through the engine's step executor on behalf of a run
+ * in the batch, so several batches of the same step may be in flight at once.
+ */
+public abstract class BatchingStep<D, B> extends AsyncStep<D> {
+
+    @Getter
+    private final int maxItems;
+
+    @Getter
+    private final long maxBytes;
+
+    @Getter
+    private final long maxDelayMillis;
+
+    private final int maxQueuedItems;
+
+    private final Object lock = new Object();
+    private List<B> items = new ArrayList<>();
+    private List<CompletableFuture<Void>> completions = new ArrayList<>();
+    private RunState batchRun;
+    private long bytes;
+    private HashedWheelTimer.Timeout timeout;
+
+    /*
+     * Items in the current batch or in a flush, and the items held back until that drops below maxQueuedItems.
+     */
+    private int queuedItems;
+    private final Deque<HeldItem<B>> held = new ArrayDeque<>();
+
+    /**
+     * Batches of up to maxItems items, with up to four batches worth of items queued.
+     */
+    protected BatchingStep(int maxItems, long maxDelay, TimeUnit unit) {
+        this(maxItems, 0, maxDelay, unit, maxItems * 4);
+    }
+
+    /**
+     * @param maxBytes       flush once the items of a batch add up to this many bytes as reported by {@link #sizeOf(Object)}, 0 for no limit
+     * @param maxQueuedItems how many items may be waiting for or in a flush before runs have to wait
+     */
+    protected BatchingStep(int maxItems, long maxBytes, long maxDelay, TimeUnit unit, int maxQueuedItems) {
+        if (maxItems <= 0 || maxQueuedItems < maxItems) {
+            throw new IllegalArgumentException("maxItems must be positive and maxQueuedItems at least maxItems");
+        }
+        this.maxItems = maxItems;
+        this.maxBytes = maxBytes;
+        this.maxDelayMillis = unit.toMillis(maxDelay);
+        this.maxQueuedItems = maxQueuedItems;
+    }
+
+    /**
+     * Creates this run's item; called on a thread bound to the run, so step data is accessible.
+     */
+    protected abstract B createItem();
+
+    /**
+     * Writes the batch. If this throws, all items fail; use {@link Batch#fail(int, Throwable)} to fail single items.
+     */
+    protected abstract void flush(Batch<B> batch) throws Exception;
+
+    protected long sizeOf(B item) {
+        return 0;
+    }
+
+    @Override
+    protected final CompletionStage<Void> runAsync() {
+        B item = createItem();
+        CompletableFuture<Void> completion = new CompletableFuture<>();
+        RunState run = CurrentRun.get();
+        PendingBatch<B> full;
+        synchronized (lock) {
+            if (queuedItems >= maxQueuedItems) {
+                held.add(new HeldItem<>(item, completion, run));
+                return completion;
+            }
+            full = add(item, completion, run);
+        }
+        submit(full);
+        return completion;
+    }
+
+    /*
+     * Adds the item to the current batch and returns the batch if that filled it.
+     */
+    private PendingBatch<B> add(B item, CompletableFuture<Void> completion, RunState run) {
+        queuedItems++;
+        items.add(item);
+        completions.add(completion);
+        if (batchRun == null) {
+            batchRun = run;
+        }
+        bytes += sizeOf(item);
+        completion.whenComplete((result, failure) -> itemDone());
+        if (items.size() >= maxItems || (maxBytes > 0 && bytes >= maxBytes)) {
+            return takeBatch();
+        }
+        if (timeout == null) {
+            timeout = SharedExecutors.TIMER.schedule(this::delayExpired, maxDelayMillis, TimeUnit.MILLISECONDS);
+        }
+        return null;
+    }
+
+    /*
+     * Frees the item's place and lets the oldest held-back item that is still wanted take it.
+     */
+    private void itemDone() {
+        PendingBatch<B> full = null;
+        synchronized (lock) {
+            queuedItems--;
+            HeldItem<B> next;
+            while ((next = held.poll()) != null) {
+                // the run may have been cancelled while its item was held back
+                if (!next.completion.isDone()) {
+                    full = add(next.item, next.completion, next.run);
+                    break;
+                }
+            }
+        }
+        submit(full);
+    }
+
+    private void delayExpired(HashedWheelTimer.Timeout expired) {
+        PendingBatch<B> pending;
+        synchronized (lock) {
+            // the batch this timeout was set for may already have been flushed by size
+            if (timeout != expired) {
+                return;
+            }
+            pending = takeBatch();
+        }
+        submit(pending);
+    }
+
+    private PendingBatch<B> takeBatch() {
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+        }
+        PendingBatch<B> pending = new PendingBatch<>(items, completions, batchRun);
+        items = new ArrayList<>();
+        completions = new ArrayList<>();
+        batchRun = null;
+        bytes = 0;
+        return pending;
+    }
+
+    private void submit(PendingBatch<B> pending) {
+        if (pending == null) {
+            return;
+        }
+        RunTaskExecutor executor = pending.run == null ? null : pending.run.getTaskExecutor();
+        try {
+            if (executor != null) {
+                executor.submit(pending.run.getIdentifier(), () -> write(pending));
+            } else {
+                SharedExecutors.WORKERS.execute(() -> write(pending));
+            }
+        } catch (RejectedExecutionException e) {
+            pending.completions.forEach(completion -> completion.completeExceptionally(e));
+        }
+    }
+
+    private void write(PendingBatch<B> pending) {
+        Batch<B> batch = new Batch<>(pending.items);
+        try {
+            flush(batch);
+        } catch (Throwable t) {
+            pending.completions.forEach(completion -> completion.completeExceptionally(t));
+            return;
+        }
+        for (int i = 0; i < pending.completions.size(); i++) {
+            Throwable failure = batch.failures[i];
+            if (failure != null) {
+                pending.completions.get(i).completeExceptionally(failure);
+            } else {
+                pending.completions.get(i).complete(null);
+            }
+        }
+    }
+
+    private record PendingBatch<B>(List<B> items, List<CompletableFuture<Void>> completions, RunState run) {
+    }
+
+    private record HeldItem<B>(B item, CompletableFuture<Void> completion, RunState run) {
+    }
+
+    /**
+     * The items of a batch, in the order they were added.
+     */
+    public static class Batch<B> {
+
+        @Getter
+        private final List<B> items;
+
+        private final Throwable[] failures;
+
+        Batch(List<B> items) {
+            this.items = Collections.unmodifiableList(items);
+            this.failures = new Throwable[items.size()];
+        }
+
+        /**
+         * Fails the run that added the item at this index, while the rest of the batch succeeds.
+         */
+        public void fail(int index, Throwable cause) {
+            failures[index] = cause;
+        }
+
+        public int size() {
+            return items.size();
+        }
+
+    }
+
+}
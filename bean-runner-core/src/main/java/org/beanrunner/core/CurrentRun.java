@@ -0,0 +1,162 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+/**
+ * The run whose step is executing on the current thread. Bound by the executor around every step task,
+ * so that step accessors like {@link Step#getData()} need neither the MDC nor a registry lookup.
+ */
+public class CurrentRun {
+
+    private static final ThreadLocal<RunState> current = new ThreadLocal<>();
+
+    /*
+     * A context that the accessors of one step use on this thread in place of the run's, see stage.
+     */
+    private static final ThreadLocal<Staged> staged = new ThreadLocal<>();
+
+    private record Staged(Step<?> step, StepRunContext<?> context) {
+    }
+
+    public static RunState get() {
+        return current.get();
+    }
+
+    /*
+     * Binds the given run and returns the previously bound one, to be passed to restore.
+     */
+    public static RunState bind(RunState state) {
+        RunState previous = current.get();
+        current.set(state);
+        return previous;
+    }
+
+    public static void restore(RunState previous) {
+        if (previous == null) {
+            current.remove();
+        } else {
+            current.set(previous);
+        }
+    }
+
+    /**
+     * Makes the accessors of the step on the calling thread, like {@link Step#setData(Object)}, act on the given context
+     * instead of the run's until {@link #unstage()}. Used when several invocations of a step run at once and only one of
+     * them may leave its writes in the run.
+     */
+    public static void stage(Step<?> step, StepRunContext<?> context) {
+        staged.set(new Staged(step, context));
+    }
+
+    public static void unstage() {
+        staged.remove();
+    }
+
+    /*
+     * The context staged for the step on this thread, null if none.
+     */
+    static StepRunContext<?> stagedContext(Step<?> step) {
+        Staged current = staged.get();
+        return current == null || current.step() != step ? null : current.context();
+    }
+
+    /**
+     * Wraps the task so that it runs bound to the run bound to the calling thread, for steps that hand work to threads
+     * of their own and call step accessors from there. A context staged on the calling thread is carried along too.
+     */
+    public static Runnable wrap(Runnable task) {
+        Binding binding = capture();
+        return () -> {
+            Binding previous = binding.apply();
+            try {
+                task.run();
+            } finally {
+                previous.apply();
+            }
+        };
+    }
+
+    /**
+     * Like {@link #wrap(Runnable)}, for tasks that return a result.
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        Binding binding = capture();
+        return () -> {
+            Binding previous = binding.apply();
+            try {
+                return task.call();
+            } finally {
+                previous.apply();
+            }
+        };
+    }
+
+    /**
+     * Like {@link #wrap(Runnable)}, for callbacks that take a value, e.g. of a {@code CompletableFuture}.
+     */
+    public static <T> Consumer<T> wrap(Consumer<T> task) {
+        Binding binding = capture();
+        return value -> {
+            Binding previous = binding.apply();
+            try {
+                task.accept(value);
+            } finally {
+                previous.apply();
+            }
+        };
+    }
+
+    private static Binding capture() {
+        return new Binding(requireBound(), staged.get());
+    }
+
+    /*
+     * The run and staged context bound to a thread, to be bound to another one.
+     */
+    private record Binding(RunState state, Staged context) {
+
+        /*
+         * Binds this to the calling thread and returns what was bound before, to be applied again afterwards.
+         */
+        Binding apply() {
+            Binding previous = new Binding(current.get(), staged.get());
+            restore(state);
+            if (context == null) {
+                staged.remove();
+            } else {
+                staged.set(context);
+            }
+            return previous;
+        }
+    }
+
+    private static RunState requireBound() {
+        RunState state = current.get();
+        if (state == null) {
+            throw new IllegalStateException("No flow run is bound to the current thread");
+        }
+        return state;
+    }
+
+}
@@ -24,6 +24,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
+import org.beanrunner.core.annotations.ExecutionLane;
 
 import java.util.List;
 import java.util.Map;
@@ -54,6 +55,9 @@ public class FlowRunIdentifier {
     @JsonIgnore
     private String taskId;
 
+    @JsonIgnore
+    private ExecutionLane lane;
+
     @JsonIgnore
     private boolean overrideDisplayValues;
 
@@ -66,6 +70,19 @@ public class FlowRunIdentifier {
     @JsonIgnore
     private boolean pauseRequested;
 
+    @JsonIgnore
+    private volatile boolean cancelRequested;
+
+    /*
+     * Epoch millis after which the run is cancelled, 0 for none.
+     */
+    @JsonIgnore
+    private long deadline;
+
+    @JsonIgnore
+    @ToString.Exclude
+    private RunState runState;
+
     public FlowRunIdentifier() {
         id = UUID.randomUUID().toString();
         this.timestamp = System.currentTimeMillis();
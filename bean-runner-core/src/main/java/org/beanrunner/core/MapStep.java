@@ -0,0 +1,257 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A step that maps every element of a list, typically an upstream step's data, with up to parallelism elements in flight.
+ * Its data is the list of results in element order. Failed elements are retried up to maxAttempts times; if an element
+ * still fails, no further elements are started and the step fails once the elements in flight are done.
+ * <p>
+ * Progress is reported as the step's progress, e.g. {@code 120/500 done, 1 failed, 16 running}; the result is left to
+ * the step. Elements run through the run's {@link RunTaskExecutor}, bound to the run, and are interrupted when the step
+ * is cancelled or times out.
+ */
+public abstract class MapStep<I, O> extends AsyncStep<List<O>> {
+
+    @Getter
+    private final int parallelism;
+
+    @Getter
+    private final int maxAttempts;
+
+    @Getter
+    private final long retryDelayMillis;
+
+    protected MapStep(int parallelism) {
+        this(parallelism, 1, 0, TimeUnit.MILLISECONDS);
+    }
+
+    protected MapStep(int parallelism, int maxAttempts, long retryDelay, TimeUnit unit) {
+        if (parallelism <= 0 || maxAttempts <= 0) {
+            throw new IllegalArgumentException("parallelism and maxAttempts must be positive");
+        }
+        this.parallelism = parallelism;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = unit.toMillis(retryDelay);
+    }
+
+    /**
+     * The elements to map, read once when the step runs.
+     */
+    protected abstract List<I> items();
+
+    /**
+     * Maps a single element. Called concurrently for different elements.
+     */
+    protected abstract O map(I item) throws Exception;
+
+    @Override
+    protected final CompletionStage<Void> runAsync() {
+        List<I> items = items();
+        Mapping mapping = new Mapping(CurrentRun.get(), items == null ? List.of() : new ArrayList<>(items));
+        // the engine cancels the returned stage when the step is cancelled or times out
+        mapping.completion.whenComplete((result, error) -> {
+            if (error instanceof CancellationException) {
+                mapping.cancel(error);
+            }
+        });
+        mapping.start();
+        return mapping.completion;
+    }
+
+    /*
+     * The state of one run of the step.
+     */
+    private class Mapping {
+
+        private final RunState runState;
+        private final List<I> items;
+        private final Object[] results;
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+        private final AtomicInteger next = new AtomicInteger();
+        // elements in flight, plus one while start() is still launching
+        private final AtomicInteger active = new AtomicInteger(1);
+        private final AtomicInteger done = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        // threads mapping an element, interrupted on cancel
+        private final Map<Integer, Thread> workers = new ConcurrentHashMap<>();
+
+        Mapping(RunState runState, List<I> items) {
+            this.runState = runState;
+            this.items = items;
+            this.results = new Object[items.size()];
+        }
+
+        void start() {
+            int launched = 0;
+            while (launched < parallelism && launchNext()) {
+                launched++;
+            }
+            release();
+        }
+
+        private boolean launchNext() {
+            if (failure.get() != null) {
+                return false;
+            }
+            int index = next.getAndIncrement();
+            if (index >= items.size()) {
+                return false;
+            }
+            active.incrementAndGet();
+            submit(index, 1);
+            return true;
+        }
+
+        private void submit(int index, int attempt) {
+            RunTaskExecutor executor = runState == null ? null : runState.getTaskExecutor();
+            try {
+                if (executor != null) {
+                    executor.submit(runState.getIdentifier(), () -> attempt(index, attempt));
+                } else {
+                    SharedExecutors.WORKERS.execute(() -> attempt(index, attempt));
+                }
+            } catch (RejectedExecutionException e) {
+                elementFailed(e);
+            }
+        }
+
+        private void retry(int index, int attempt) {
+            RunTaskExecutor executor = runState == null ? null : runState.getTaskExecutor();
+            if (executor != null) {
+                executor.schedule(runState.getIdentifier(), () -> attempt(index, attempt), retryDelayMillis, TimeUnit.MILLISECONDS);
+            } else {
+                SharedExecutors.TIMER.schedule(timeout -> submit(index, attempt), retryDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void attempt(int index, int attempt) {
+            Throwable error = failure.get() instanceof CancellationException cancelled ? cancelled : null;
+            if (error == null) {
+                RunState previous = CurrentRun.bind(runState);
+                workers.put(index, Thread.currentThread());
+                try {
+                    if (failure.get() instanceof CancellationException cancelled) {
+                        // cancelled after the check above, before this thread could be interrupted
+                        throw cancelled;
+                    }
+                    results[index] = map(items.get(index));
+                } catch (Throwable t) {
+                    error = t;
+                } finally {
+                    workers.remove(index);
+                    // clear an interrupt from cancel() aimed at this element
+                    Thread.interrupted();
+                    CurrentRun.restore(previous);
+                }
+            }
+            if (error == null) {
+                done.incrementAndGet();
+                elementDone();
+            } else if (attempt < maxAttempts && failure.get() == null) {
+                retry(index, attempt + 1);
+            } else {
+                elementFailed(error);
+            }
+        }
+
+        /*
+         * Stops launching elements and interrupts the ones being mapped.
+         */
+        void cancel(Throwable reason) {
+            failure.compareAndSet(null, reason);
+            // interrupt under the entry's lock so a thread that already moved on is never hit
+            for (Integer index : workers.keySet()) {
+                workers.computeIfPresent(index, (key, thread) -> {
+                    thread.interrupt();
+                    return thread;
+                });
+            }
+        }
+
+        private void elementFailed(Throwable error) {
+            failed.incrementAndGet();
+            failure.compareAndSet(null, error);
+            elementDone();
+        }
+
+        private void elementDone() {
+            report();
+            launchNext();
+            release();
+        }
+
+        private void release() {
+            if (active.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void finish() {
+            RunState previous = CurrentRun.bind(runState);
+            try {
+                report();
+                Throwable error = failure.get();
+                if (error != null) {
+                    completion.completeExceptionally(error);
+                } else {
+                    setData(new ArrayList<>(Arrays.asList((O[]) results)));
+                    completion.complete(null);
+                }
+            } catch (Throwable t) {
+                completion.completeExceptionally(t);
+            } finally {
+                CurrentRun.restore(previous);
+            }
+        }
+
+        private void report() {
+            int completed = done.get();
+            int failures = failed.get();
+            int running = Math.min(next.get(), items.size()) - completed - failures;
+            RunState previous = CurrentRun.bind(runState);
+            try {
+                setProgress(completed + "/" + items.size() + " done, " + failures + " failed, " + running + " running");
+            } finally {
+                CurrentRun.restore(previous);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Per-run trigger bookkeeping: the current classification of every dependency edge and,
+ * for every step, how many of its edges are blocking, failing or satisfying it.
+ */
+@Getter
+public class ReadinessCounters {
+
+    public static final int BLOCKING = 0;
+    public static final int FAILING = 1;
+    public static final int SATISFIED = 2;
+
+    private static final int COUNTERS_PER_STEP = 3;
+
+    private final AtomicIntegerArray edges;
+    private final AtomicIntegerArray counters;
+
+    public ReadinessCounters(RunLayout layout) {
+        this.edges = new AtomicIntegerArray(layout.getEdgeCount());
+        this.counters = new AtomicIntegerArray(layout.size() * COUNTERS_PER_STEP);
+    }
+
+    /*
+     * Records the new classification of an edge and moves the counters of its downstream step by the difference.
+     */
+    public void updateEdge(int edge, int downstreamSlot, int flags) {
+        int previous = edges.getAndSet(edge, flags);
+        if (previous == flags) {
+            return;
+        }
+        for (int counter = 0; counter < COUNTERS_PER_STEP; counter++) {
+            int mask = 1 << counter;
+            if ((previous & mask) != (flags & mask)) {
+                counters.addAndGet(downstreamSlot * COUNTERS_PER_STEP + counter, (flags & mask) != 0 ? 1 : -1);
+            }
+        }
+    }
+
+    public int get(int slot, int counter) {
+        return counters.get(slot * COUNTERS_PER_STEP + counter);
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import lombok.Getter;
+
+/**
+ * The fixed shape shared by all runs of a flow: which slot of a {@link RunState} holds the context of each step.
+ * The first {@code flowSize} slots are the steps of the flow itself; the rest are upstream steps of shared joins.
+ */
+@Getter
+public class RunLayout {
+
+    private final Step<?> firstStep;
+    private final Step<?>[] steps;
+    private final int flowSize;
+    private final int[] slots;
+    private final int[] edgeOffsets;
+    private final Listener listener;
+
+    public RunLayout(Step<?> firstStep, Step<?>[] steps, int flowSize, int[] slots, int[] edgeOffsets, Listener listener) {
+        this.firstStep = firstStep;
+        this.steps = steps;
+        this.flowSize = flowSize;
+        this.slots = slots;
+        this.edgeOffsets = edgeOffsets;
+        this.listener = listener;
+    }
+
+    public int getEdgeCount() {
+        return edgeOffsets[steps.length];
+    }
+
+    public int size() {
+        return steps.length;
+    }
+
+    public int slotOf(Step<?> step) {
+        int ordinal = step.getOrdinal();
+        if (ordinal < 0 || ordinal >= slots.length) {
+            return -1;
+        }
+        return slots[ordinal];
+    }
+
+    public boolean isInFlow(int slot) {
+        return slot >= 0 && slot < flowSize;
+    }
+
+    public interface Listener {
+        void contextChanged(RunState state, int slot, StepRunContext<?> context);
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the status transitions of a single flow run one at a time, in the order they were posted, without a lock.
+ * <p>
+ * Posting never blocks: if no thread is draining the mailbox, the posting thread becomes the drainer and runs the
+ * transition, along with whatever other threads post meanwhile; otherwise the transition is queued for the current
+ * drainer. Transitions posted by a transition are run after it, not nested in it. A drainer runs at most
+ * {@link #MAX_PASS} transitions and then hands the rest to the run's executor, so a busy run can't hold on to the
+ * thread that happened to post first.
+ */
+@Slf4j
+public class RunMailbox {
+
+    static final int MAX_PASS = 64;
+
+    private final Queue<Runnable> transitions = new ConcurrentLinkedQueue<>();
+
+    /*
+     * Transitions posted and not yet run; the thread that raises it from 0 drains until it is back to 0.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Executor executor;
+
+    /**
+     * @param executor continues draining when a pass is over, or when a transition is {@link #handOff handed off}
+     */
+    public RunMailbox(Executor executor) {
+        this.executor = executor;
+    }
+
+    public void post(Runnable transition) {
+        if (enqueue(transition)) {
+            drain();
+        }
+    }
+
+    /**
+     * Like {@link #post(Runnable)}, but the transition is never run on the calling thread, e.g. the timer thread,
+     * unless the executor rejects it.
+     */
+    public void handOff(Runnable transition) {
+        if (enqueue(transition) && !drainOnExecutor()) {
+            drain();
+        }
+    }
+
+    private boolean enqueue(Runnable transition) {
+        transitions.offer(transition);
+        return pending.getAndIncrement() == 0;
+    }
+
+    private void drain() {
+        while (true) {
+            for (int i = 0; i < MAX_PASS; i++) {
+                Runnable transition = transitions.poll();
+                try {
+                    transition.run();
+                } catch (Throwable t) {
+                    log.error("Run transition failed", t);
+                }
+                if (pending.decrementAndGet() == 0) {
+                    return;
+                }
+            }
+            if (drainOnExecutor()) {
+                return;
+            }
+        }
+    }
+
+    private boolean drainOnExecutor() {
+        try {
+            executor.execute(this::drain);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the runs currently held in memory, by run id and by flow.
+ * <p>
+ * Runs that finished and were persisted are kept in finishing order so that the oldest can be evicted, and runs whose
+ * contexts are in memory are kept in loading order so that the oldest can be unloaded. Running and paused runs are never
+ * evicted or unloaded.
+ */
+public class RunRegistry {
+
+    private static final Map<String, RunState> runs = new ConcurrentHashMap<>();
+    private static final Map<Step<?>, Set<FlowRunIdentifier>> flowRuns = new ConcurrentHashMap<>();
+    private static final Map<Step<?>, Deque<RunState>> finishedRuns = new ConcurrentHashMap<>();
+    private static final Set<RunState> loadedRuns = new LinkedHashSet<>();
+
+    /*
+     * Registers the run unless a run with the same id is already known, and returns the registered state.
+     */
+    public static RunState register(RunState state) {
+        FlowRunIdentifier identifier = state.getIdentifier();
+        RunState existing = runs.putIfAbsent(identifier.getId(), state);
+        if (existing != null) {
+            return existing;
+        }
+        identifier.setRunState(state);
+        flowRuns.computeIfAbsent(state.getFirstStep(), k -> ConcurrentHashMap.newKeySet()).add(identifier);
+        return state;
+    }
+
+    public static RunState get(String runId) {
+        return runId == null ? null : runs.get(runId);
+    }
+
+    public static RunState get(FlowRunIdentifier identifier) {
+        RunState state = identifier.getRunState();
+        return state != null ? state : get(identifier.getId());
+    }
+
+    public static Collection<RunState> getRuns() {
+        return runs.values();
+    }
+
+    public static RunState remove(FlowRunIdentifier identifier) {
+        RunState state = runs.remove(identifier.getId());
+        if (state != null) {
+            unindex(state);
+        }
+        return state;
+    }
+
+    /**
+     * Records that the run has been persisted in a finished state, making it eligible for eviction.
+     */
+    public static void finished(RunState state, long finishedAt) {
+        state.setFinishedAt(finishedAt);
+        Deque<RunState> finished = finishedRuns.computeIfAbsent(state.getFirstStep(), k -> new ArrayDeque<>());
+        synchronized (finished) {
+            finished.add(state);
+        }
+    }
+
+    /**
+     * Removes the oldest finished runs of the flow while it has more than maxRuns of them (0 for no limit),
+     * and all finished runs that finished before minFinishedAt. Returns the removed runs.
+     */
+    public static List<RunState> evict(Step<?> firstStep, int maxRuns, long minFinishedAt) {
+        Deque<RunState> finished = finishedRuns.get(firstStep);
+        if (finished == null) {
+            return List.of();
+        }
+        List<RunState> evicted = new ArrayList<>();
+        synchronized (finished) {
+            while (!finished.isEmpty() && ((maxRuns > 0 && finished.size() > maxRuns) || finished.peek().getFinishedAt() < minFinishedAt)) {
+                RunState state = finished.poll();
+                // runs resumed since they finished are queued again when they finish again
+                if (isIdle(state) && runs.remove(state.getIdentifier().getId(), state)) {
+                    unindex(state);
+                    evicted.add(state);
+                }
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Records that the contexts of the run are in memory, making it the most recently loaded run, and returns the runs
+     * to unload to keep at most maxLoaded runs loaded (0 for no limit).
+     */
+    public static List<RunState> loaded(RunState state, int maxLoaded) {
+        if (maxLoaded <= 0) {
+            return List.of();
+        }
+        List<RunState> unload = new ArrayList<>();
+        synchronized (loadedRuns) {
+            // a reloaded run moves to the tail instead of being listed twice
+            loadedRuns.remove(state);
+            loadedRuns.add(state);
+            Iterator<RunState> iterator = loadedRuns.iterator();
+            while (loadedRuns.size() > maxLoaded) {
+                RunState oldest = iterator.next();
+                iterator.remove();
+                if (oldest != state && isIdle(oldest) && runs.get(oldest.getIdentifier().getId()) == oldest) {
+                    unload.add(oldest);
+                }
+            }
+        }
+        return unload;
+    }
+
+    private static boolean isIdle(RunState state) {
+        FlowRunIdentifier identifier = state.getIdentifier();
+        return !identifier.isRunning() && !identifier.isPaused() && !identifier.isPauseRequested();
+    }
+
+    private static void unindex(RunState state) {
+        FlowRunIdentifier identifier = state.getIdentifier();
+        // a removed run must not be found through its identifier either, e.g. when its last task finishes
+        if (identifier.getRunState() == state) {
+            identifier.setRunState(null);
+        }
+        Set<FlowRunIdentifier> identifiers = flowRuns.get(state.getFirstStep());
+        if (identifiers != null) {
+            identifiers.remove(identifier);
+        }
+    }
+
+    public static Set<FlowRunIdentifier> getIdentifiers(Step<?> firstStep) {
+        return flowRuns.getOrDefault(firstStep, Set.of());
+    }
+
+}
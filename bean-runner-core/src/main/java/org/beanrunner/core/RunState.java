@@ -0,0 +1,218 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.UnaryOperator;
+
+/**
+ * All step contexts of a single flow run, held in a dense array indexed by the slots of the flow's {@link RunLayout}.
+ */
+public class RunState {
+
+    @Getter
+    private final FlowRunIdentifier identifier;
+
+    @Getter
+    private final RunLayout layout;
+
+    private final AtomicReferenceArray<StepRunContext<?>> contexts;
+
+    /*
+     * How many steps of the flow are in each status, indexed by ordinal. Steps without a context count as NOT_STARTED.
+     */
+    private final AtomicIntegerArray statusCounts = new AtomicIntegerArray(StepStatus.values().length);
+
+    @Getter
+    @Setter
+    private volatile ReadinessCounters readiness;
+
+    private final Map<Step<?>, StepExecution> executions = new ConcurrentHashMap<>();
+
+    /*
+     * Status transitions of the run go through here instead of locking on the identifier, see StepManager.transition.
+     */
+    @Getter
+    private final RunMailbox mailbox = new RunMailbox(this::execute);
+
+    /*
+     * Set by the engine when the run is registered; null for runs created outside of it.
+     */
+    @Getter
+    @Setter
+    private volatile RunTaskExecutor taskExecutor;
+
+    private final AtomicReference<LoadedState> loadedState = new AtomicReference<>(LoadedState.NOT_LOADED);
+
+    /*
+     * System.nanoTime() when the run was started or resumed by this process, 0 for runs only loaded from storage.
+     */
+    @Getter
+    @Setter
+    private volatile long startedAt;
+
+    /*
+     * Epoch millis when the run was last persisted as finished, see RunRegistry.finished.
+     */
+    @Getter
+    @Setter
+    private volatile long finishedAt;
+
+    public RunState(FlowRunIdentifier identifier, RunLayout layout) {
+        this.identifier = identifier;
+        this.layout = layout;
+        this.contexts = new AtomicReferenceArray<>(layout.size());
+        this.statusCounts.set(StepStatus.NOT_STARTED.ordinal(), layout.getFlowSize());
+    }
+
+    public int countOf(StepStatus status) {
+        return statusCounts.get(status.ordinal());
+    }
+
+    public LoadedState getLoadedState() {
+        return loadedState.get();
+    }
+
+    public void setLoadedState(LoadedState state) {
+        loadedState.set(state);
+    }
+
+    public LoadedState updateLoadedState(UnaryOperator<LoadedState> update) {
+        return loadedState.updateAndGet(update);
+    }
+
+    public void addExecution(Step<?> step, StepExecution execution) {
+        executions.put(step, execution);
+    }
+
+    public void removeExecution(Step<?> step, StepExecution execution) {
+        executions.remove(step, execution);
+    }
+
+    public StepExecution getExecution(Step<?> step) {
+        return executions.get(step);
+    }
+
+    public Collection<StepExecution> getExecutions() {
+        return executions.values();
+    }
+
+    public Step<?> getFirstStep() {
+        return layout.getFirstStep();
+    }
+
+    @SuppressWarnings("unchecked")
+    public <D> StepRunContext<D> getContext(Step<D> step) {
+        int slot = requireSlot(step);
+        while (true) {
+            StepRunContext<?> context = contexts.get(slot);
+            if (context != null) {
+                return (StepRunContext<D>) context;
+            }
+            StepRunContext<D> created = new StepRunContext<>();
+            created.attach(this, slot);
+            if (contexts.compareAndSet(slot, null, created)) {
+                return created;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <D> StepRunContext<D> peekContext(Step<D> step) {
+        int slot = layout.slotOf(step);
+        return slot < 0 ? null : (StepRunContext<D>) contexts.get(slot);
+    }
+
+    public StepRunContext<?> getContext(int slot) {
+        return contexts.get(slot);
+    }
+
+    public void putContext(Step<?> step, StepRunContext<?> context) {
+        int slot = requireSlot(step);
+        if (context != null) {
+            context.attach(this, slot);
+        }
+        StepRunContext<?> previous = contexts.getAndSet(slot, context);
+        if (previous != null && previous != context) {
+            previous.attach(null, 0);
+        }
+        statusChanged(slot, previous == null ? StepStatus.NOT_STARTED : previous.getStatus(),
+                context == null ? StepStatus.NOT_STARTED : context.getStatus());
+        contextChanged(slot, context);
+    }
+
+    /**
+     * Drops all step contexts of the run; they can be loaded again from storage when needed.
+     */
+    public void unload() {
+        for (int slot = 0; slot < contexts.length(); slot++) {
+            StepRunContext<?> previous = contexts.getAndSet(slot, null);
+            if (previous != null) {
+                previous.attach(null, 0);
+                statusChanged(slot, previous.getStatus(), StepStatus.NOT_STARTED);
+            }
+        }
+        loadedState.set(LoadedState.NOT_LOADED);
+    }
+
+    void statusChanged(int slot, StepStatus previous, StepStatus status) {
+        if (previous != status && layout.isInFlow(slot)) {
+            statusCounts.decrementAndGet(previous.ordinal());
+            statusCounts.incrementAndGet(status.ordinal());
+        }
+    }
+
+    void contextChanged(int slot, StepRunContext<?> context) {
+        RunLayout.Listener listener = layout.getListener();
+        if (listener != null) {
+            listener.contextChanged(this, slot, context);
+        }
+    }
+
+    /*
+     * Runs a task of the run on its executor, or on the calling thread for runs created outside of the engine.
+     */
+    private void execute(Runnable task) {
+        RunTaskExecutor executor = taskExecutor;
+        if (executor == null) {
+            task.run();
+        } else {
+            executor.submit(identifier, task);
+        }
+    }
+
+    private int requireSlot(Step<?> step) {
+        int slot = layout.slotOf(step);
+        if (slot < 0) {
+            throw new IllegalArgumentException("Step " + step.getClass().getSimpleName() + " is not part of flow " + layout.getFirstStep().getClass().getSimpleName());
+        }
+        return slot;
+    }
+
+}
@@ -0,0 +1,36 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes tasks on behalf of a run through the engine's step executor, so they share its executor mode and lanes,
+ * run bound to the run, and keep the run from completing until they are done.
+ * Steps that start work of their own, like {@link BatchingStep} and {@link MapStep}, get it from {@link RunState#getTaskExecutor()}.
+ */
+public interface RunTaskExecutor {
+
+    void submit(FlowRunIdentifier identifier, Runnable task);
+
+    void schedule(FlowRunIdentifier identifier, Runnable task, long delay, TimeUnit unit);
+
+}
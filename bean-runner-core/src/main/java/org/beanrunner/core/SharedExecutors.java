@@ -0,0 +1,41 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Threads shared by steps that do work outside the step executor, such as batch flushes and mapped elements.
+ * Both use daemon threads and are created when first used.
+ */
+public class SharedExecutors {
+
+    public static final HashedWheelTimer TIMER = new HashedWheelTimer("bean-runner-step-timer", 10, TimeUnit.MILLISECONDS, 512);
+
+    public static final ExecutorService WORKERS = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "bean-runner-step-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+}
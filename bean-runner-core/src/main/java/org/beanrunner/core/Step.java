@@ -24,23 +24,31 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.beanrunner.core.settings.ConfigurationSettings;
-import org.slf4j.MDC;
 
 import java.time.Duration;
-import java.util.Map;
+import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * A unit of work in a flow. Steps are singletons shared by all runs of their flows; what they produce for a run is kept
+ * in the run's {@link StepRunContext}.
+ * <p>
+ * The accessors without a run identifier, like {@link #getData()} and {@link #setData(Object)}, act on the run bound to
+ * the calling thread, which is the executing run inside {@link #run()}, {@link #probe()} and {@link #rewind()}. Work that
+ * a step hands to threads of its own must be wrapped with {@link CurrentRun#wrap(Runnable)} to use them.
+ */
 @Slf4j
 public abstract class Step<D> implements ConfigurationSettings {
 
-    protected final Map<FlowRunIdentifier, StepRunContext<D>> contextMap = new ConcurrentHashMap<>();
-
     @Getter
     @Setter
     private int clusterId;
 
+    @Getter
+    @Setter
+    private int ordinal = -1;
+
     protected void run() {
     }
 
@@ -51,73 +59,123 @@ public abstract class Step<D> implements ConfigurationSettings {
     protected void rewind() {
     }
 
+    /**
+     * Key under which a {@code @StepCache} step stores its result. When {@code null} the key is
+     * derived from the data of the upstream steps, or from the run parameter for the first step of a flow.
+     */
+    protected String cacheKey() {
+        return null;
+    }
+
     protected final void setRunProperty(String key, String value) {
-        FlowRunIdentifier flowRunIdentifier = contextMap.keySet().stream().filter(k -> k.getId().equals(MDC.get("runId"))).findFirst().orElse(null);
-        if (flowRunIdentifier != null) {
-            flowRunIdentifier.getRunProperties().put(key, value);
-        }
+        currentRunState().getIdentifier().getRunProperties().put(key, value);
     }
 
     public StepRunContext<D> getContext(FlowRunIdentifier flowRunIdentifier) {
-        return contextMap.computeIfAbsent(flowRunIdentifier, k -> new StepRunContext<>());
+        RunState runState = RunRegistry.get(flowRunIdentifier);
+        if (runState == null) {
+            throw new IllegalStateException("Run " + flowRunIdentifier.getId() + " is not registered");
+        }
+        return runState.getContext(this);
     }
 
     public StepStatus getStatus(FlowRunIdentifier flowRunIdentifier) {
-        StepRunContext<D> context = contextMap.get(flowRunIdentifier);
+        StepRunContext<D> context = peekContext(flowRunIdentifier);
         return context == null ? StepStatus.NOT_STARTED : context.getStatus();
     }
 
     public String getResult(FlowRunIdentifier flowRunIdentifier) {
-        StepRunContext<D> context = contextMap.get(flowRunIdentifier);
+        StepRunContext<D> context = peekContext(flowRunIdentifier);
         return context == null ? "" : context.getResult();
     }
 
+    public String getProgress(FlowRunIdentifier flowRunIdentifier) {
+        StepRunContext<D> context = peekContext(flowRunIdentifier);
+        return context == null ? null : context.getProgress();
+    }
+
     public D getData(FlowRunIdentifier flowRunIdentifier) {
-        StepRunContext<D> context = contextMap.get(flowRunIdentifier);
+        StepRunContext<D> context = peekContext(flowRunIdentifier);
         return context == null ? null : context.getData();
     }
 
+    private StepRunContext<D> peekContext(FlowRunIdentifier flowRunIdentifier) {
+        RunState runState = RunRegistry.get(flowRunIdentifier);
+        return runState == null ? null : runState.peekContext(this);
+    }
+
+    private RunState currentRunState() {
+        RunState runState = CurrentRun.get();
+        if (runState == null) {
+            throw new IllegalStateException("No flow run is bound to the current thread");
+        }
+        return runState;
+    }
+
+    /*
+     * The context the accessors act on: the one staged for this step on the calling thread, if any, otherwise the bound run's.
+     */
+    @SuppressWarnings("unchecked")
+    private StepRunContext<D> currentContext(boolean create) {
+        StepRunContext<?> staged = CurrentRun.stagedContext(this);
+        if (staged != null) {
+            return (StepRunContext<D>) staged;
+        }
+        RunState runState = currentRunState();
+        return create ? runState.getContext(this) : runState.peekContext(this);
+    }
+
     public D getData() {
-        String runId = MDC.get("runId");
-        return contextMap.get(new FlowRunIdentifier(runId)).getData();
+        StepRunContext<D> context = currentContext(false);
+        return context == null ? null : context.getData();
     }
 
     public Throwable getException() {
-        String runId = MDC.get("runId");
-        return contextMap.get(new FlowRunIdentifier(runId)).getException();
+        StepRunContext<D> context = currentContext(false);
+        return context == null ? null : context.getException();
     }
 
     protected void setData(D data) {
-        String runId = MDC.get("runId");
-        contextMap.get(new FlowRunIdentifier(runId)).setData(data);
+        currentContext(true).setData(data);
     }
 
     public String getResult() {
-        String runId = MDC.get("runId");
-        return contextMap.get(new FlowRunIdentifier(runId)).getResult();
+        StepRunContext<D> context = currentContext(false);
+        return context == null ? "" : context.getResult();
     }
 
     protected void setResult(String result) {
-        String runId = MDC.get("runId");
-        contextMap.get(new FlowRunIdentifier(runId)).setResult(result);
+        currentContext(true).setResult(result);
+    }
+
+    protected void setProgress(String progress) {
+        currentContext(true).setProgress(progress);
     }
 
     protected void setProbeInterval(long interval, TimeUnit unit) {
-        String runId = MDC.get("runId");
-        contextMap.get(new FlowRunIdentifier(runId)).setProbeInterval(interval);
-        contextMap.get(new FlowRunIdentifier(runId)).setProbeTimeUnit(unit);
+        StepRunContext<D> context = currentContext(true);
+        context.setProbeInterval(interval);
+        context.setProbeTimeUnit(unit);
     }
 
     protected void setProbeTimeout(Duration timeout) {
-        String runId = MDC.get("runId");
-        contextMap.get(new FlowRunIdentifier(runId)).setTimeout(timeout);
+        currentContext(true).setTimeout(timeout);
     }
 
+    /**
+     * @deprecated contexts are held by the runs now, use {@code StepManager.getIdentifiers(firstStep)} instead.
+     */
+    @Deprecated
     public Set<FlowRunIdentifier> getIdentifiers() {
-        return contextMap.keySet();
+        Set<FlowRunIdentifier> identifiers = new HashSet<>();
+        for (RunState runState : RunRegistry.getRuns()) {
+            if (runState.peekContext(this) != null) {
+                identifiers.add(runState.getIdentifier());
+            }
+        }
+        return identifiers;
     }
 
-
     public long getProbeInterval(FlowRunIdentifier flowRunIdentifier) {
         return getContext(flowRunIdentifier).getProbeInterval();
     }
@@ -131,7 +189,11 @@ public abstract class Step<D> implements ConfigurationSettings {
     }
 
     public void putContext(FlowRunIdentifier flowRunIdentifier, StepRunContext<?> context) {
-        contextMap.put(flowRunIdentifier, (StepRunContext<D>) context);
+        RunState runState = RunRegistry.get(flowRunIdentifier);
+        if (runState == null) {
+            throw new IllegalStateException("Run " + flowRunIdentifier.getId() + " is not registered");
+        }
+        runState.putContext(this, context);
     }
 
 }
@@ -0,0 +1,68 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import lombok.Setter;
+
+/**
+ * A step that is currently executing and can be cancelled, once and from any thread, until it finishes.
+ */
+public class StepExecution {
+
+    private final Runnable interrupt;
+
+    /*
+     * Watchdog enforcing the step's timeout, cancelled when the execution finishes.
+     */
+    @Setter
+    private HashedWheelTimer.Timeout timeout;
+
+    private boolean finished;
+    private Throwable reason;
+
+    public StepExecution(Runnable interrupt) {
+        this.interrupt = interrupt;
+    }
+
+    /**
+     * Interrupts the execution unless it has finished or was already cancelled.
+     */
+    public synchronized boolean cancel(Throwable reason) {
+        if (finished || this.reason != null) {
+            return false;
+        }
+        this.reason = reason;
+        interrupt.run();
+        return true;
+    }
+
+    /**
+     * Marks the execution as finished, after which it is no longer interrupted, and returns why it was cancelled, if it was.
+     */
+    public synchronized Throwable finish() {
+        finished = true;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        return reason;
+    }
+
+}
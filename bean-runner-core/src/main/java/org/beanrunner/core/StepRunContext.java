@@ -22,6 +22,7 @@ package org.beanrunner.core;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -45,11 +46,76 @@ public class StepRunContext<D> {
 
     private Duration timeout = Duration.ofMinutes(5);
 
+    private boolean cached;
+
+    /*
+     * Progress of a long-running step for display, e.g. "120/500 done". Unlike the result it does not route the flow,
+     * and setting it does not notify the run's listeners.
+     */
+    private volatile String progress;
+
+    /*
+     * Set while run() has returned and the step is waiting for probe() to succeed.
+     */
+    @Setter(AccessLevel.NONE)
+    private boolean probing;
+
     @JsonIgnore
     private Throwable exception;
 
+    /*
+     * Key of a @StepCache step's input, taken before the step runs and used to store its result.
+     */
+    @JsonIgnore
+    private String cacheKey;
+
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private RunState runState;
+
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private int slot;
+
     public StepRunContext() {
 
     }
 
+    public void setStatus(StepStatus status) {
+        StepStatus previous;
+        synchronized (this) {
+            previous = this.status;
+            this.status = status;
+        }
+        RunState owner = runState;
+        if (owner != null) {
+            owner.statusChanged(slot, previous, status);
+        }
+        changed();
+    }
+
+    public void setResult(String result) {
+        this.result = result;
+        changed();
+    }
+
+    public void setProbing(boolean probing) {
+        this.probing = probing;
+        changed();
+    }
+
+    void attach(RunState runState, int slot) {
+        this.runState = runState;
+        this.slot = slot;
+    }
+
+    private void changed() {
+        RunState owner = runState;
+        if (owner != null) {
+            owner.contextChanged(slot, this);
+        }
+    }
+
 }
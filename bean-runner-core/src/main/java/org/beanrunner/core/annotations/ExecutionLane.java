@@ -0,0 +1,41 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core.annotations;
+
+import lombok.Getter;
+
+/**
+ * Scheduling classes for step execution. When steps have to wait for a worker, lanes with a higher configured
+ * priority are served first, and lanes of equal priority get a share of the workers proportional to their weight.
+ */
+@Getter
+public enum ExecutionLane {
+    INTERACTIVE(8),
+    SYNC(4),
+    CRON(2),
+    BACKGROUND(1);
+
+    private final int defaultWeight;
+
+    ExecutionLane(int defaultWeight) {
+        this.defaultWeight = defaultWeight;
+    }
+}
@@ -29,4 +29,12 @@ public @interface StepRetry {
     int maxRetries() default 3;
     int delay() default 5;
     TimeUnit unit() default TimeUnit.SECONDS;
+    RetryBackoff backoff() default RetryBackoff.FIXED;
+    double multiplier() default 2;
+    long maxDelay() default 0;
+    double jitter() default 0;
+    Class<? extends Throwable>[] retryOn() default {};
+    Class<? extends Throwable>[] abortOn() default {};
+    double budgetRatio() default 0;
+    int budgetCapacity() default 10;
 }
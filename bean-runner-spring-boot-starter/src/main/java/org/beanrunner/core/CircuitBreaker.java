@@ -0,0 +1,193 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.StepCircuitBreaker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Circuit breaker for a step annotated with {@link StepCircuitBreaker}, shared by all runs that execute the step bean.
+ * Outcomes of the last window calls are kept in a ring, and once enough of them failed the breaker opens and attempts
+ * are refused without calling the step. After the open duration a few trial calls are let through, and the breaker
+ * closes again if they succeed. All state is kept in atomics, so busy steps never contend on a lock.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final int EMPTY = 0;
+    private static final int SUCCESS = 1;
+    private static final int FAILURE = 2;
+
+    private final StepCircuitBreaker config;
+    private final long openNanos;
+
+    private final AtomicIntegerArray outcomes;
+    private final AtomicLong cursor = new AtomicLong();
+
+    /*
+     * The state in the high 32 bits and the trial calls still allowed while half-open in the low 32 bits, so that both
+     * change in a single CAS.
+     */
+    private final AtomicLong status = new AtomicLong(pack(State.CLOSED, 0));
+
+    /*
+     * While open, when trial calls may start; while half-open, when trial calls that never reported back are given up on.
+     */
+    private volatile long openUntil;
+
+    private final AtomicInteger trialSuccesses = new AtomicInteger();
+    private final LongAdder shortCircuited = new LongAdder();
+
+    public CircuitBreaker(StepCircuitBreaker config) {
+        this.config = config;
+        this.openNanos = config.unit().toNanos(config.openDuration());
+        this.outcomes = new AtomicIntegerArray(Math.max(1, config.window()));
+    }
+
+    /**
+     * Returns true if a call may go ahead, false if the breaker is open or all trial calls are taken.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            long current = status.get();
+            State state = stateOf(current);
+            if (state == State.CLOSED) {
+                return true;
+            }
+            if (state == State.HALF_OPEN && permitsOf(current) > 0) {
+                if (status.compareAndSet(current, current - 1)) {
+                    return true;
+                }
+                continue;
+            }
+            long now = System.nanoTime();
+            if (now - openUntil < 0) {
+                shortCircuited.increment();
+                return false;
+            }
+            openUntil = now + openNanos;
+            trialSuccesses.set(0);
+            if (status.compareAndSet(current, pack(State.HALF_OPEN, Math.max(1, config.halfOpenCalls()) - 1))) {
+                return true;
+            }
+        }
+    }
+
+    public void onSuccess() {
+        State state = getState();
+        if (state == State.HALF_OPEN) {
+            if (trialSuccesses.incrementAndGet() >= config.halfOpenCalls()) {
+                close();
+            }
+        } else if (state == State.CLOSED) {
+            record(SUCCESS);
+        }
+    }
+
+    public void onFailure() {
+        State state = getState();
+        if (state == State.HALF_OPEN) {
+            open(State.HALF_OPEN);
+        } else if (state == State.CLOSED) {
+            record(FAILURE);
+            double failureRate = getFailureRate();
+            if (failureRate > 0 && failureRate >= config.failureRateThreshold()) {
+                open(State.CLOSED);
+            }
+        }
+    }
+
+    public State getState() {
+        return stateOf(status.get());
+    }
+
+    /**
+     * The percentage of failed calls in the window, 0 until the window holds the minimum number of calls.
+     */
+    public double getFailureRate() {
+        int calls = 0;
+        int failures = 0;
+        for (int i = 0; i < outcomes.length(); i++) {
+            int outcome = outcomes.get(i);
+            if (outcome != EMPTY) {
+                calls++;
+            }
+            if (outcome == FAILURE) {
+                failures++;
+            }
+        }
+        return calls == 0 || calls < Math.min(config.minimumCalls(), outcomes.length()) ? 0 : failures * 100.0 / calls;
+    }
+
+    public long getShortCircuitedCount() {
+        return shortCircuited.sum();
+    }
+
+    private void record(int outcome) {
+        outcomes.set((int) (cursor.getAndIncrement() % outcomes.length()), outcome);
+    }
+
+    private void open(State from) {
+        long until = System.nanoTime() + openNanos;
+        while (true) {
+            long current = status.get();
+            if (stateOf(current) != from) {
+                return;
+            }
+            openUntil = until;
+            if (status.compareAndSet(current, pack(State.OPEN, 0))) {
+                return;
+            }
+        }
+    }
+
+    private void close() {
+        for (int i = 0; i < outcomes.length(); i++) {
+            outcomes.set(i, EMPTY);
+        }
+        while (true) {
+            long current = status.get();
+            if (stateOf(current) != State.HALF_OPEN || status.compareAndSet(current, pack(State.CLOSED, 0))) {
+                return;
+            }
+        }
+    }
+
+    private static long pack(State state, int permits) {
+        return ((long) state.ordinal() << 32) | permits;
+    }
+
+    private static State stateOf(long status) {
+        return State.values()[(int) (status >>> 32)];
+    }
+
+    private static int permitsOf(long status) {
+        return (int) status;
+    }
+
+}
@@ -31,10 +31,12 @@ public class DynamicBeanRegistrar {
 
     private ConfigurableBeanFactory beanFactory;
     private List<StepGroupGenerator> providers;
+    private QualifierInspector qualifierInspector;
 
-    public DynamicBeanRegistrar(@Autowired ConfigurableBeanFactory beanFactory, @Autowired List<StepGroupGenerator> providers) {
+    public DynamicBeanRegistrar(@Autowired ConfigurableBeanFactory beanFactory, @Autowired List<StepGroupGenerator> providers, @Autowired QualifierInspector qualifierInspector) {
         this.beanFactory = beanFactory;
         this.providers = providers;
+        this.qualifierInspector = qualifierInspector;
         register();
     }
 
@@ -52,6 +54,7 @@ public class DynamicBeanRegistrar {
                 }
             });
         });
+        qualifierInspector.invalidate();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,177 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.FlowConcurrency;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Admission control for a single flow annotated with {@link FlowConcurrency}: at most {@code maxRunning}
+ * runs execute at once and at most {@code maxQueued} wait, in arrival order, for one of them to stop.
+ */
+public class FlowAdmission {
+
+    private final String flowId;
+    private final FlowConcurrency config;
+
+    private final Set<FlowRunIdentifier> running = new HashSet<>();
+    private final Deque<PendingRun> pending = new ArrayDeque<>();
+
+    public FlowAdmission(String flowId, FlowConcurrency config) {
+        this.flowId = flowId;
+        this.config = config;
+    }
+
+    /**
+     * Starts the run now if the flow has capacity, queues it otherwise, and applies the overflow policy
+     * when the queue is full. Runs dropped from the queue are handed a {@link FlowRejectedException} via onDropped.
+     * With {@code BLOCK}, the caller waits at most {@code blockTimeout} for room in the queue and is rejected after that.
+     */
+    public void admit(FlowRunIdentifier identifier, Runnable start, Consumer<FlowRejectedException> onDropped) {
+        PendingRun dropped = null;
+        synchronized (this) {
+            long blockDeadline = 0;
+            while (running.size() >= config.maxRunning()) {
+                if (pending.size() < config.maxQueued()) {
+                    pending.add(new PendingRun(identifier, start, onDropped));
+                    return;
+                }
+                switch (config.overflow()) {
+                    case BLOCK:
+                        long now = System.nanoTime();
+                        if (blockDeadline == 0) {
+                            blockDeadline = now + config.blockTimeoutUnit().toNanos(config.blockTimeout());
+                        }
+                        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(blockDeadline - now);
+                        if (remainingMillis <= 0) {
+                            throw rejected();
+                        }
+                        Runnable reacquire = LaneDispatcher.releaseSlot();
+                        try {
+                            wait(remainingMillis);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new FlowRejectedException("Interrupted while waiting to start a run of flow " + flowId, e);
+                        } finally {
+                            reacquire.run();
+                        }
+                        continue;
+                    case DROP_OLDEST:
+                        if (!pending.isEmpty()) {
+                            dropped = pending.poll();
+                            pending.add(new PendingRun(identifier, start, onDropped));
+                            break;
+                        }
+                        throw rejected();
+                    default:
+                        throw rejected();
+                }
+                break;
+            }
+            if (dropped == null) {
+                running.add(identifier);
+            }
+        }
+        if (dropped != null) {
+            dropped.drop(new FlowRejectedException("Run " + dropped.identifier.getId() + " of flow " + flowId + " was dropped from the queue"));
+        } else {
+            start.run();
+        }
+    }
+
+    /*
+     * Counts a resumed or rewound run against the limit without queueing it; manual operations are never rejected.
+     */
+    public synchronized void acquire(FlowRunIdentifier identifier) {
+        running.add(identifier);
+    }
+
+    /**
+     * Frees the slot held by a stopped run and starts the oldest queued run, if any. Safe to call more than once per run.
+     */
+    public void release(FlowRunIdentifier identifier) {
+        PendingRun next;
+        synchronized (this) {
+            if (!running.remove(identifier)) {
+                return;
+            }
+            next = pending.poll();
+            if (next != null) {
+                running.add(next.identifier);
+            }
+            notifyAll();
+        }
+        if (next != null) {
+            next.start.run();
+        }
+    }
+
+    /**
+     * Removes the run from the queue, handing it a {@link FlowRejectedException} via onDropped;
+     * returns false if it is not queued (it may already be running).
+     */
+    public boolean cancel(FlowRunIdentifier identifier) {
+        PendingRun cancelled = null;
+        synchronized (this) {
+            for (PendingRun run : pending) {
+                if (run.identifier.equals(identifier)) {
+                    cancelled = run;
+                    break;
+                }
+            }
+            if (cancelled == null) {
+                return false;
+            }
+            pending.remove(cancelled);
+            notifyAll();
+        }
+        cancelled.drop(new FlowRejectedException("Run " + identifier.getId() + " of flow " + flowId + " was cancelled while queued"));
+        return true;
+    }
+
+    public synchronized int getRunningCount() {
+        return running.size();
+    }
+
+    public synchronized int getQueuedCount() {
+        return pending.size();
+    }
+
+    private FlowRejectedException rejected() {
+        return new FlowRejectedException("Flow " + flowId + " already has " + config.maxRunning() + " running and " + config.maxQueued() + " queued runs");
+    }
+
+    private record PendingRun(FlowRunIdentifier identifier, Runnable start, Consumer<FlowRejectedException> onDropped) {
+
+        void drop(FlowRejectedException e) {
+            if (onDropped != null) {
+                onDropped.accept(e);
+            }
+        }
+    }
+
+}
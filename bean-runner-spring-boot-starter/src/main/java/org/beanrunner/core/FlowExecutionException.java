@@ -0,0 +1,42 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * A flow run failed. The cause is the first exception thrown by a step; all of them are available from {@link #getExceptions()}.
+ */
+@Getter
+public class FlowExecutionException extends RuntimeException {
+
+    private final FlowRunIdentifier identifier;
+    private final List<Throwable> exceptions;
+
+    public FlowExecutionException(FlowRunIdentifier identifier, List<Throwable> exceptions) {
+        super("Run " + identifier.getId() + " failed", exceptions.isEmpty() ? null : exceptions.get(0));
+        this.identifier = identifier;
+        this.exceptions = exceptions;
+    }
+
+}
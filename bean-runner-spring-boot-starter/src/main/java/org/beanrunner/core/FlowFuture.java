@@ -0,0 +1,52 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import lombok.Getter;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The result of a flow run started through a {@link FlowInvoker}. Completes with the data of the flow's last step,
+ * or exceptionally with a {@link FlowExecutionException}. Cancelling it cancels the run.
+ */
+public class FlowFuture<R> extends CompletableFuture<R> {
+
+    @Getter
+    private final FlowRunIdentifier identifier;
+
+    private final Runnable onCancel;
+
+    public FlowFuture(FlowRunIdentifier identifier, Runnable onCancel) {
+        this.identifier = identifier;
+        this.onCancel = onCancel;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            onCancel.run();
+        }
+        return cancelled;
+    }
+
+}
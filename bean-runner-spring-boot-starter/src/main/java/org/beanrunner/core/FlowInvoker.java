@@ -22,24 +22,21 @@ package org.beanrunner.core;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.beanrunner.core.annotations.ExecutionLane;
 import org.beanrunner.core.annotations.OnComplete;
 import org.beanrunner.core.annotations.StepHidden;
-import org.slf4j.MDC;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
 import java.util.function.BiConsumer;
-import java.util.function.Consumer;
 
 @Slf4j
 @StepHidden
 public class FlowInvoker<P, R> extends Step<R> {
 
-    private final Map<FlowRunIdentifier, BiConsumer<FlowRunIdentifier, R>> asyncCallables = new ConcurrentHashMap<>();
-    private final Map<FlowRunIdentifier, BiConsumer<FlowRunIdentifier, List<Throwable>>> errorConsumers = new ConcurrentHashMap<>();
-
-    private final  Map<String, FlowRunIdentifier> taskRunIdentifiers = new ConcurrentHashMap<>();
+    private final Map<String, FlowFuture<R>> pendingRuns = new ConcurrentHashMap<>();
 
     @Getter
     private final Step<P> firstStep;
@@ -52,8 +49,20 @@ public class FlowInvoker<P, R> extends Step<R> {
         this.lastStep = lastStep;
     }
 
-    public final String runAsync(P parameter) {
-        return runAsync(parameter, null, null);
+    /**
+     * Starts a background run of the flow. The returned future completes with the data of the last step,
+     * or exceptionally with a {@link FlowExecutionException} or {@link FlowRejectedException}.
+     */
+    public final FlowFuture<R> runAsync(P parameter) {
+        return start(parameter, ExecutionLane.BACKGROUND, null);
+    }
+
+    /**
+     * Like {@link #runAsync(Object)}, but the run is cancelled if it has not finished when the deadline passes,
+     * and the future then completes exceptionally with a {@link TimeoutException}.
+     */
+    public final FlowFuture<R> runAsync(P parameter, Duration deadline) {
+        return start(parameter, ExecutionLane.BACKGROUND, deadline);
     }
 
     public final String runAsync(P parameter, BiConsumer<FlowRunIdentifier, R> consumer) {
@@ -61,43 +70,91 @@ public class FlowInvoker<P, R> extends Step<R> {
     }
 
     public final String runAsync(P parameter, BiConsumer<FlowRunIdentifier, R> consumer, BiConsumer<FlowRunIdentifier, List<Throwable>> errorConsumer) {
-        FlowRunIdentifier identifier = StaticTransactionManagerHolder.getBean(StepManager.class).executeFlow(firstStep, parameter, true, getSourceName(), getSourceIconPath());
-        if (consumer != null) {
-            asyncCallables.put(identifier, consumer);
-        }
-        if (errorConsumer != null) {
-            errorConsumers.put(identifier, errorConsumer);
-        }
-        taskRunIdentifiers.put(identifier.getId(), identifier);
+        FlowFuture<R> future = start(parameter, ExecutionLane.BACKGROUND, null);
+        FlowRunIdentifier identifier = future.getIdentifier();
+        future.whenComplete((result, failure) -> {
+            if (failure == null) {
+                if (consumer != null) {
+                    consumer.accept(identifier, result);
+                }
+            } else if (errorConsumer != null) {
+                errorConsumer.accept(identifier, failure instanceof FlowExecutionException e ? e.getExceptions() : List.of(failure));
+            }
+        });
         return identifier.getId();
     }
 
     public final R runSync(P parameter) {
+        // a step calling a nested flow must not hold its worker slot while the nested run needs one
+        Runnable reacquire = LaneDispatcher.releaseSlot();
+        try {
+            return start(parameter, ExecutionLane.SYNC, null).join();
+        } catch (CompletionException e) {
+            throw rethrow(e.getCause());
+        } finally {
+            reacquire.run();
+        }
+    }
 
-        FlowRunIdentifier identifier = new FlowRunIdentifier();
-        taskRunIdentifiers.put(identifier.getId(), identifier);
-
-        synchronized (identifier) {
+    /**
+     * Like {@link #runSync(Object)}, but gives up after the timeout, in which case the run is cancelled.
+     */
+    public final R runSync(P parameter, Duration timeout) throws TimeoutException {
+        Runnable reacquire = LaneDispatcher.releaseSlot();
+        FlowFuture<R> future = null;
+        try {
+            future = start(parameter, ExecutionLane.SYNC, timeout);
+            return future.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            throw new CancellationException("Interrupted while waiting for run " + future.getIdentifier().getId());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException timeoutException) {
+                // the run's deadline passed before the wait timed out
+                throw timeoutException;
+            }
+            throw rethrow(e.getCause());
+        } finally {
+            reacquire.run();
+        }
+    }
 
-            StaticTransactionManagerHolder.getBean(StepManager.class).executeFlow(firstStep, parameter, identifier, true, getSourceName(), getSourceIconPath());
+    private FlowFuture<R> start(P parameter, ExecutionLane lane, Duration deadline) {
+        StepManager stepManager = StaticTransactionManagerHolder.getBean(StepManager.class);
+        FlowRunIdentifier identifier = new FlowRunIdentifier();
+        identifier.setLane(lane);
+        if (deadline != null) {
+            identifier.setDeadline(System.currentTimeMillis() + deadline.toMillis());
+        }
+        FlowFuture<R> future = new FlowFuture<>(identifier, () -> {
+            pendingRuns.remove(identifier.getId());
+            stepManager.cancel(firstStep, identifier);
+        });
+        pendingRuns.put(identifier.getId(), future);
+        try {
+            stepManager.executeFlow(firstStep, parameter, identifier, true, getSourceName(), getSourceIconPath(), e -> {
+                pendingRuns.remove(identifier.getId());
+                future.completeExceptionally(e);
+            });
+        } catch (FlowRejectedException e) {
+            pendingRuns.remove(identifier.getId());
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
 
-            try {
-                identifier.wait();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-            StepStatus status = getFlowStatus(identifier);
-            if (status == StepStatus.FAILED) {
-                getExceptions(identifier).stream().findFirst().ifPresent(e -> {
-                    if (e instanceof RuntimeException) {
-                        throw (RuntimeException) e;
-                    } else {
-                        throw new RuntimeException(e);
-                    }
-                });
-            }
-            return getData(identifier);
+    /*
+     * runSync callers get the first step exception itself, as they always have.
+     */
+    private static RuntimeException rethrow(Throwable failure) {
+        if (failure instanceof FlowExecutionException e && e.getCause() != null) {
+            failure = e.getCause();
         }
+        return failure instanceof RuntimeException e ? e : new RuntimeException(failure);
     }
 
     protected final StepStatus getFlowStatus(FlowRunIdentifier identifier) {
@@ -111,40 +168,49 @@ public class FlowInvoker<P, R> extends Step<R> {
     @Override
     public final void run() {
         if (lastStep != null) {
+            setData(lastStep.getData());
+        }
+    }
 
-            String identifier = MDC.get("runId");
-            FlowRunIdentifier flowRunIdentifier = taskRunIdentifiers.remove(identifier);
-
-            if (flowRunIdentifier == null) {
-                return;
-            }
-
-            R result = lastStep.getData();
-            setData(result);
-            // handle async invocation
-
-            BiConsumer<FlowRunIdentifier, R> consumer = asyncCallables.remove(identifier);
-            BiConsumer<FlowRunIdentifier, List<Throwable>> errorConsumer = errorConsumers.remove(identifier);
-            StepStatus flowStatus = getFlowStatus(flowRunIdentifier);
-            if (flowStatus == StepStatus.FAILED) {
-                List<Throwable> exceptions = getExceptions(flowRunIdentifier);
-                if (errorConsumer != null) {
-                    errorConsumer.accept(flowRunIdentifier, exceptions);
-                }
-            } else {
-                if (consumer != null) {
-                    consumer.accept(flowRunIdentifier, result);
-                }
-            }
-
-            // wake up sync invocations
-            synchronized (flowRunIdentifier) {
-                flowRunIdentifier.notifyAll();
-            }
+    /*
+     * Completes the run's future once the whole run has stopped, so that its outcome is final: steps that are still
+     * rewinding when this step runs no longer make a failed run look successful. If this step never ran, because
+     * the run paused or failed before reaching it, the future fails instead of leaving runSync callers blocked forever.
+     */
+    final void runStopped(FlowRunIdentifier identifier, StepStatus flowStatus) {
+        FlowFuture<R> future = pendingRuns.remove(identifier.getId());
+        if (future == null) {
+            return;
+        }
+        if (identifier.isCancelRequested()) {
+            completeCancelled(future, identifier);
+            return;
+        }
+        List<Throwable> exceptions = flowStatus == StepStatus.SUCCESS ? List.of() : getExceptions(identifier);
+        if (exceptions.isEmpty() && getStatus(identifier) == StepStatus.SUCCESS) {
+            future.complete(getData(identifier));
+        } else {
+            future.completeExceptionally(new FlowExecutionException(identifier, exceptions));
+        }
+    }
 
+    /*
+     * Fails the run's future as soon as the run is cancelled, rather than when its last interrupted step gives up.
+     */
+    final void runCancelled(FlowRunIdentifier identifier) {
+        FlowFuture<R> future = pendingRuns.remove(identifier.getId());
+        if (future != null) {
+            completeCancelled(future, identifier);
         }
     }
 
+    private static void completeCancelled(FlowFuture<?> future, FlowRunIdentifier identifier) {
+        long deadline = identifier.getDeadline();
+        future.completeExceptionally(deadline > 0 && System.currentTimeMillis() >= deadline
+                ? new TimeoutException("Run " + identifier.getId() + " exceeded its deadline")
+                : new CancellationException("Run " + identifier.getId() + " was cancelled"));
+    }
+
     protected String getSourceName() {
         return "Code";
     }
@@ -0,0 +1,433 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import lombok.Getter;
+import org.beanrunner.core.annotations.*;
+
+import java.lang.reflect.Field;
+import java.util.*;
+
+/**
+ * The step graph compiled once at startup, so that scheduling never has to touch reflection.
+ * It also keeps the per-run readiness counters up to date as upstream statuses change.
+ */
+public class FlowPlan implements RunLayout.Listener {
+
+    private static final Edge[] NO_EDGES = new Edge[0];
+    private static final Step<?>[] NO_STEPS = new Step<?>[0];
+
+    private static final int BLOCKING = 1 << ReadinessCounters.BLOCKING;
+    private static final int FAILING = 1 << ReadinessCounters.FAILING;
+    private static final int SATISFIED = 1 << ReadinessCounters.SATISFIED;
+
+    private final Map<Step<?>, Node> nodes;
+    private final Map<Step<?>, RunLayout> layouts = new IdentityHashMap<>();
+    private final Map<Step<?>, List<Step<?>>> flowSteps = new IdentityHashMap<>();
+    private final Map<Step<?>, Step<?>> firstStepOf = new IdentityHashMap<>();
+    private volatile RunLayout.Listener contextListener;
+    private final Map<Step<?>, FailureBehavior> failureBehaviors = new IdentityHashMap<>();
+
+    @Getter
+    private final List<Step<?>> firstSteps;
+
+    private FlowPlan(Map<Step<?>, Node> nodes, List<Step<?>> firstSteps) {
+        this.nodes = nodes;
+        this.firstSteps = firstSteps;
+        for (Step<?> firstStep : firstSteps) {
+            RunLayout layout = buildLayout(firstStep);
+            List<Step<?>> steps = List.of(Arrays.copyOf(layout.getSteps(), layout.getFlowSize()));
+            layouts.put(firstStep, layout);
+            flowSteps.put(firstStep, steps);
+            FlowPauseBehavior pauseBehavior = firstStep.getClass().getAnnotation(FlowPauseBehavior.class);
+            FailureBehavior failureBehavior = pauseBehavior == null ? FailureBehavior.REWIND : pauseBehavior.failureBehavior();
+            for (Step<?> step : steps) {
+                if (firstStepOf.putIfAbsent(step, firstStep) == null) {
+                    failureBehaviors.put(step, failureBehavior);
+                }
+            }
+        }
+    }
+
+    public Node getNode(Step<?> step) {
+        return nodes.get(step);
+    }
+
+    public RunLayout getLayout(Step<?> firstStep) {
+        return layouts.get(firstStep);
+    }
+
+    /**
+     * The steps of the flow starting at the given first step, upstream steps before their dependents.
+     */
+    public List<Step<?>> getFlowSteps(Step<?> firstStep) {
+        return flowSteps.get(firstStep);
+    }
+
+    /**
+     * The first step of the first flow (in discovery order) that contains the given step.
+     */
+    public Step<?> getFirstStep(Step<?> step) {
+        return firstStepOf.get(step);
+    }
+
+    public FailureBehavior getFailureBehavior(Step<?> step) {
+        return failureBehaviors.getOrDefault(step, FailureBehavior.REWIND);
+    }
+
+    /**
+     * Decides whether a not-started step may run from its counters alone, without looking at its upstream steps.
+     */
+    public Readiness getReadiness(RunState state, Step<?> step) {
+        ReadinessCounters counters = trackReadiness(state);
+        int slot = state.getLayout().slotOf(step);
+        if (nodes.get(step).getOperator() == StepLogicOperator.OR) {
+            return counters.get(slot, ReadinessCounters.SATISFIED) > 0 ? Readiness.READY : Readiness.UPSTREAM_FAILED;
+        }
+        if (counters.get(slot, ReadinessCounters.FAILING) > 0) {
+            return Readiness.UPSTREAM_FAILED;
+        }
+        return counters.get(slot, ReadinessCounters.BLOCKING) > 0 ? Readiness.WAITING : Readiness.READY;
+    }
+
+    /**
+     * Starts counting for a run, seeding the counters from whatever contexts it already holds.
+     * Must be called while the run is not being executed, e.g. before submitting its first step or on resume.
+     */
+    public ReadinessCounters trackReadiness(RunState state) {
+        ReadinessCounters counters = state.getReadiness();
+        if (counters == null) {
+            counters = new ReadinessCounters(state.getLayout());
+            for (int slot = 0; slot < state.getLayout().size(); slot++) {
+                classifyDownstream(state.getLayout(), counters, slot, state.getContext(slot));
+            }
+            state.setReadiness(counters);
+        }
+        return counters;
+    }
+
+    /**
+     * Drops the counters of a run that is no longer executing; they are rebuilt if it is resumed.
+     */
+    public void releaseReadiness(RunState state) {
+        state.setReadiness(null);
+    }
+
+    /**
+     * Also told about every context change of the runs being executed, i.e. the ones whose readiness is tracked.
+     */
+    public void setContextListener(RunLayout.Listener contextListener) {
+        this.contextListener = contextListener;
+    }
+
+    @Override
+    public void contextChanged(RunState state, int slot, StepRunContext<?> context) {
+        ReadinessCounters counters = state.getReadiness();
+        if (counters != null) {
+            classifyDownstream(state.getLayout(), counters, slot, context);
+            RunLayout.Listener listener = contextListener;
+            if (listener != null) {
+                listener.contextChanged(state, slot, context);
+            }
+        }
+    }
+
+    private void classifyDownstream(RunLayout layout, ReadinessCounters counters, int slot, StepRunContext<?> context) {
+        StepStatus status = context == null ? StepStatus.NOT_STARTED : context.getStatus();
+        String result = context == null ? "" : context.getResult();
+        for (Edge edge : nodes.get(layout.getSteps()[slot]).getDownstream()) {
+            int downstreamSlot = layout.slotOf(edge.getDownstream());
+            if (downstreamSlot >= 0) {
+                counters.updateEdge(layout.getEdgeOffsets()[downstreamSlot] + edge.getIndex(), downstreamSlot, classify(edge, status, result));
+            }
+        }
+    }
+
+    /*
+     * Blocking and failing feed AND steps, satisfied feeds OR steps; the rules are the ones the
+     * trigger logic has always applied to each upstream status.
+     */
+    private static int classify(Edge edge, StepStatus status, String result) {
+        boolean failed = status == StepStatus.FAILED || status == StepStatus.FAILED_TRANSITIVELY;
+        if (edge.getKind() == EdgeKind.ON_SUCCESS) {
+            int flags = 0;
+            if (status.isFailed() || status == StepStatus.FAILED_TRANSITIVELY) {
+                flags |= FAILING;
+            }
+            if (status == StepStatus.RUNNING || status == StepStatus.READY ||
+                    status == StepStatus.NOT_STARTED ||
+                    (status == StepStatus.SUCCESS && edge.hasExpectedResult() && !edge.getExpectedResult().equals(result)) ||
+                    (status == StepStatus.FAILED && !edge.getExpectedResult().equals(result))) {
+                flags |= BLOCKING;
+            }
+            if (status == StepStatus.SUCCESS && edge.getExpectedResult().equals(result)) {
+                flags |= SATISFIED;
+            }
+            return flags;
+        } else if (edge.getKind() == EdgeKind.ON_COMPLETE) {
+            return status == StepStatus.SUCCESS || failed ? SATISFIED : BLOCKING;
+        } else {
+            int flags = failed ? SATISFIED : FAILING;
+            if (status == StepStatus.RUNNING || status == StepStatus.READY || status == StepStatus.SUCCESS) {
+                flags |= BLOCKING;
+            }
+            return flags;
+        }
+    }
+
+    /*
+     * Assigns a slot to every step connected to the first step, in either direction, so that
+     * a run can hold contexts for any step it may touch (including upstream steps of shared joins).
+     * Steps reachable from the first step come first, in topological order.
+     */
+    private RunLayout buildLayout(Step<?> firstStep) {
+        List<Step<?>> reachable = new ArrayList<>();
+        Set<Step<?>> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        collectFlow(firstStep, reachable, visited);
+        List<Step<?>> steps = sortTopologically(reachable);
+        int flowSize = steps.size();
+        for (int i = 0; i < steps.size(); i++) {
+            Node node = nodes.get(steps.get(i));
+            for (Step<?> dependent : node.getDependents()) {
+                if (visited.add(dependent)) {
+                    steps.add(dependent);
+                }
+            }
+            for (Edge edge : node.getUpstream()) {
+                if (nodes.containsKey(edge.getUpstream()) && visited.add(edge.getUpstream())) {
+                    steps.add(edge.getUpstream());
+                }
+            }
+        }
+        int[] slots = new int[nodes.size()];
+        Arrays.fill(slots, -1);
+        for (int i = 0; i < steps.size(); i++) {
+            slots[nodes.get(steps.get(i)).getOrdinal()] = i;
+        }
+        int[] edgeOffsets = new int[steps.size() + 1];
+        for (int i = 0; i < steps.size(); i++) {
+            edgeOffsets[i + 1] = edgeOffsets[i] + nodes.get(steps.get(i)).getUpstream().length;
+        }
+        return new RunLayout(firstStep, steps.toArray(NO_STEPS), flowSize, slots, edgeOffsets, this);
+    }
+
+    /*
+     * Kahn's algorithm over the dependents of the reachable steps; ties keep the depth-first order.
+     */
+    private List<Step<?>> sortTopologically(List<Step<?>> reachable) {
+        Map<Step<?>, Integer> inDegree = new IdentityHashMap<>();
+        for (Step<?> step : reachable) {
+            inDegree.putIfAbsent(step, 0);
+            for (Step<?> dependent : nodes.get(step).getDependents()) {
+                inDegree.merge(dependent, 1, Integer::sum);
+            }
+        }
+        List<Step<?>> sorted = new ArrayList<>(reachable.size());
+        Deque<Step<?>> ready = new ArrayDeque<>();
+        for (Step<?> step : reachable) {
+            if (inDegree.get(step) == 0) {
+                ready.add(step);
+            }
+        }
+        while (!ready.isEmpty()) {
+            Step<?> step = ready.poll();
+            sorted.add(step);
+            for (Step<?> dependent : nodes.get(step).getDependents()) {
+                if (inDegree.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (sorted.size() < reachable.size()) {
+            // a cycle; keep the remaining steps in depth-first order rather than losing them
+            Set<Step<?>> placed = Collections.newSetFromMap(new IdentityHashMap<>());
+            placed.addAll(sorted);
+            for (Step<?> step : reachable) {
+                if (placed.add(step)) {
+                    sorted.add(step);
+                }
+            }
+        }
+        return sorted;
+    }
+
+    private void collectFlow(Step<?> step, List<Step<?>> steps, Set<Step<?>> visited) {
+        if (visited.add(step)) {
+            steps.add(step);
+            for (Step<?> dependent : nodes.get(step).getDependents()) {
+                collectFlow(dependent, steps, visited);
+            }
+        }
+    }
+
+    public static FlowPlan compile(List<Step<?>> steps) {
+        Map<Step<?>, Node> nodes = new IdentityHashMap<>();
+        Map<Step<?>, List<Edge>> downstreamEdges = new IdentityHashMap<>();
+        Map<Step<?>, List<Step<?>>> dependents = new IdentityHashMap<>();
+        List<Step<?>> firstSteps = new ArrayList<>();
+
+        int ordinal = 0;
+        for (Step<?> step : steps) {
+            List<Edge> upstream = new ArrayList<>();
+            boolean hasDependencies = false;
+            for (Field field : ReflectionUtils.getFields(step.getClass())) {
+                OnSuccess onSuccess = field.getAnnotation(OnSuccess.class);
+                OnComplete onComplete = field.getAnnotation(OnComplete.class);
+                OnUpstreamFailure onUpstreamFailure = field.getAnnotation(OnUpstreamFailure.class);
+                if (onSuccess == null && onComplete == null && onUpstreamFailure == null) {
+                    continue;
+                }
+                hasDependencies = true;
+                Step<?> dependency;
+                try {
+                    field.setAccessible(true);
+                    dependency = (Step<?>) field.get(step);
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+                if (dependency == null) {
+                    continue;
+                }
+                dependents.computeIfAbsent(dependency, k -> new ArrayList<>()).add(step);
+                if (onSuccess != null) {
+                    upstream.add(new Edge(dependency, step, upstream.size(), EdgeKind.ON_SUCCESS, onSuccess.value()));
+                }
+                if (onComplete != null) {
+                    upstream.add(new Edge(dependency, step, upstream.size(), EdgeKind.ON_COMPLETE, ""));
+                }
+                if (onUpstreamFailure != null) {
+                    upstream.add(new Edge(dependency, step, upstream.size(), EdgeKind.ON_UPSTREAM_FAILURE, ""));
+                }
+            }
+            if (!hasDependencies) {
+                firstSteps.add(step);
+            }
+            for (Edge edge : upstream) {
+                downstreamEdges.computeIfAbsent(edge.getUpstream(), k -> new ArrayList<>()).add(edge);
+            }
+            step.setOrdinal(ordinal);
+            nodes.put(step, new Node(step, ordinal++, upstream.toArray(NO_EDGES)));
+        }
+
+        for (Node node : nodes.values()) {
+            node.downstream = downstreamEdges.getOrDefault(node.getStep(), List.of()).toArray(NO_EDGES);
+            node.dependents = dependents.getOrDefault(node.getStep(), List.of()).toArray(NO_STEPS);
+        }
+
+        return new FlowPlan(nodes, Collections.unmodifiableList(firstSteps));
+    }
+
+    public enum Readiness {
+        WAITING,
+        READY,
+        UPSTREAM_FAILED
+    }
+
+    public enum EdgeKind {
+        ON_SUCCESS,
+        ON_COMPLETE,
+        ON_UPSTREAM_FAILURE
+    }
+
+    @Getter
+    public static class Edge {
+        private final Step<?> upstream;
+        private final Step<?> downstream;
+        private final int index;
+        private final EdgeKind kind;
+        private final String expectedResult;
+
+        Edge(Step<?> upstream, Step<?> downstream, int index, EdgeKind kind, String expectedResult) {
+            this.upstream = upstream;
+            this.downstream = downstream;
+            this.index = index;
+            this.kind = kind;
+            this.expectedResult = expectedResult;
+        }
+
+        public boolean hasExpectedResult() {
+            return !expectedResult.isEmpty();
+        }
+    }
+
+    @Getter
+    public static class Node {
+        private final Step<?> step;
+        private final int ordinal;
+        private final Edge[] upstream;
+        private final Step<?>[] successDependencies;
+        private final StepLogicOperator operator;
+        private final StepRetry retry;
+        private final StepRewindType rewindType;
+        private final long timeoutMillis;
+        private final boolean failFast;
+        private final RetryBudget retryBudget;
+        private final StepCache cache;
+        private final StepBulkhead bulkhead;
+        private final StepRateLimiter rateLimiter;
+        private final CircuitBreaker circuitBreaker;
+        private final StepHedger hedger;
+        private Edge[] downstream = NO_EDGES;
+        private Step<?>[] dependents = NO_STEPS;
+
+        Node(Step<?> step, int ordinal, Edge[] upstream) {
+            Class<?> stepClass = step.getClass();
+            this.step = step;
+            this.ordinal = ordinal;
+            this.upstream = upstream;
+            this.successDependencies = Arrays.stream(upstream)
+                    .filter(edge -> edge.getKind() == EdgeKind.ON_SUCCESS)
+                    .map(Edge::getUpstream)
+                    .toArray(Step<?>[]::new);
+            StepTriggerLogic triggerLogic = stepClass.getAnnotation(StepTriggerLogic.class);
+            this.operator = triggerLogic == null ? StepLogicOperator.AND : triggerLogic.value();
+            this.retry = stepClass.getAnnotation(StepRetry.class);
+            this.retryBudget = retry == null || retry.budgetRatio() <= 0 ? null : new RetryBudget(retry.budgetRatio(), retry.budgetCapacity());
+            StepRewindTrigger rewindTrigger = stepClass.getAnnotation(StepRewindTrigger.class);
+            this.rewindType = rewindTrigger == null ? null : rewindTrigger.value();
+            StepTimeout timeout = stepClass.getAnnotation(StepTimeout.class);
+            this.timeoutMillis = timeout == null ? 0 : timeout.unit().toMillis(timeout.value());
+            this.failFast = stepClass.isAnnotationPresent(StepFailFast.class);
+            this.cache = stepClass.getAnnotation(StepCache.class);
+            StepConcurrency concurrency = stepClass.getAnnotation(StepConcurrency.class);
+            this.bulkhead = concurrency == null ? null : new StepBulkhead(stepClass.getSimpleName(), concurrency);
+            StepRateLimit rateLimit = stepClass.getAnnotation(StepRateLimit.class);
+            this.rateLimiter = rateLimit == null ? null : new StepRateLimiter(rateLimit);
+            StepCircuitBreaker breaker = stepClass.getAnnotation(StepCircuitBreaker.class);
+            this.circuitBreaker = breaker == null ? null : new CircuitBreaker(breaker);
+            StepHedge hedge = stepClass.getAnnotation(StepHedge.class);
+            if (hedge != null && (concurrency != null || rateLimit != null)) {
+                // hedges would run outside the limits, which only count the attempt
+                throw new IllegalArgumentException("@StepHedge of " + stepClass.getSimpleName() + " can't be combined with @StepConcurrency or @StepRateLimit");
+            }
+            this.hedger = hedge == null ? null : new StepHedger(hedge);
+        }
+
+        public int getMaxRetries() {
+            return retry == null ? 1 : retry.maxRetries();
+        }
+
+        public boolean isRewindTrigger() {
+            return rewindType != null;
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * One attempt of a step annotated with {@link org.beanrunner.core.annotations.StepHedge}, made of the first invocation
+ * of run() and the hedges started after it. The first invocation to succeed decides the attempt and the others are
+ * interrupted; if all of them fail, the last one to fail decides it.
+ */
+public class HedgedAttempt {
+
+    private final int maxHedges;
+    private final Set<Thread> running = new HashSet<>();
+    private int hedges;
+    private boolean done;
+    private boolean cancelled;
+
+    /*
+     * Cancels the timer of the next hedge, if one is scheduled.
+     */
+    private Runnable pendingHedge;
+
+    public HedgedAttempt(int maxHedges) {
+        this.maxHedges = maxHedges;
+    }
+
+    /**
+     * Registers the calling thread as the first invocation.
+     */
+    public synchronized void start() {
+        running.add(Thread.currentThread());
+    }
+
+    public synchronized boolean canHedge() {
+        return !done && !cancelled && hedges < maxHedges;
+    }
+
+    /**
+     * Registers the calling thread as a hedge, unless the attempt was decided or cancelled, or all hedges were started.
+     */
+    public synchronized boolean enterHedge() {
+        if (!canHedge()) {
+            return false;
+        }
+        hedges++;
+        running.add(Thread.currentThread());
+        return true;
+    }
+
+    /**
+     * Unregisters the calling thread and returns true if its outcome decides the attempt.
+     */
+    public boolean finish(boolean success) {
+        Runnable pending;
+        synchronized (this) {
+            running.remove(Thread.currentThread());
+            if (done || (!success && !running.isEmpty())) {
+                return false;
+            }
+            done = true;
+            // under the lock, so that a loser can't have moved on to other work when it is interrupted
+            running.forEach(Thread::interrupt);
+            pending = pendingHedge;
+            pendingHedge = null;
+        }
+        if (pending != null) {
+            pending.run();
+        }
+        return true;
+    }
+
+    /**
+     * Interrupts all invocations and stops further hedges, for when the run is cancelled or the step times out.
+     */
+    public void interrupt() {
+        Runnable pending;
+        synchronized (this) {
+            cancelled = true;
+            running.forEach(Thread::interrupt);
+            pending = pendingHedge;
+            pendingHedge = null;
+        }
+        if (pending != null) {
+            pending.run();
+        }
+    }
+
+    public void setPendingHedge(Runnable cancel) {
+        synchronized (this) {
+            if (!done && !cancelled) {
+                pendingHedge = cancel;
+                return;
+            }
+        }
+        cancel.run();
+    }
+
+}
@@ -29,17 +29,13 @@ import org.springframework.web.bind.annotation.*;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 
 @RestController
 @RequestMapping("/api")
 public class HttpController {
 
     private final List<FlowInvoker<?, ?>> invokers;
-    private final Map<String, StepStatus> stateMap = new ConcurrentHashMap<>();
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
@@ -72,22 +68,29 @@ public class HttpController {
             Class<P> clazz = (Class<P>) parameterType;
 
             P parameter = objectMapper.convertValue(body, clazz);
-            AtomicReference<Object> state = new AtomicReference<>();
-
-            String identifier = invoker.runAsync(parameter, (i, result) -> {
-                stateMap.put(i.getId(), StepStatus.SUCCESS);
-            }, (i, errors) -> {
-                stateMap.put(i.getId(), StepStatus.FAILED);
-            });
-            stateMap.putIfAbsent(identifier, StepStatus.RUNNING);
-            return identifier;
+            return invoker.runAsync(parameter).getIdentifier().getId();
         }
         throw new RuntimeException("Could not determine parameter type");
     }
 
     @GetMapping("/status/{identifier}")
     public StepStatus getFlowStatus(@PathVariable("identifier") String identifier) {
-        return stateMap.getOrDefault(identifier, StepStatus.NOT_STARTED);
+        RunState runState = RunRegistry.get(identifier);
+        if (runState == null) {
+            // evicted from memory, or queued if it was never stored
+            StepStatus storedStatus = stepManager.getStoredFlowStatus(identifier);
+            return storedStatus != null ? storedStatus : StepStatus.NOT_STARTED;
+        }
+        FlowRunIdentifier run = runState.getIdentifier();
+        if (run.isRunning()) {
+            return StepStatus.RUNNING;
+        }
+        return run.getFlowStatus() != null ? run.getFlowStatus() : stepManager.getFlowStatus(run);
+    }
+
+    @GetMapping("/metrics/steps")
+    public List<StepLimitMetrics> getStepLimitMetrics() {
+        return stepManager.getStepLimitMetrics();
     }
 //
 //    public String rewindFlow(@PathVariable("flowId") String flowId, @PathVariable("identifier") String identifier) {
@@ -0,0 +1,198 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.ExecutionLane;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.ToIntFunction;
+
+/**
+ * Hands step tasks to the executor, at most {@code maxConcurrency} at a time. Tasks that have to wait are
+ * queued per {@link ExecutionLane}. Freed workers go to the waiting lanes of the highest priority, and among
+ * those by stride scheduling, so every lane with waiting tasks gets a share proportional to its weight and
+ * no lane of that priority is starved.
+ * <p>
+ * A task that blocks on something other than CPU work (a nested run, admission, backpressure) should give up
+ * its slot for the duration with {@link #releaseSlot()}, so that blocked tasks cannot use up the capacity
+ * that the tasks they wait for need.
+ */
+public class LaneDispatcher {
+
+    private static final long STRIDE = 1 << 20;
+
+    private static final ThreadLocal<Slot> currentSlot = new ThreadLocal<>();
+
+    private final Executor executor;
+    private final int maxConcurrency;
+    private final Lane[] lanes;
+
+    private int active;
+    private long currentPass;
+
+    /*
+     * A maxConcurrency of 0 or less means unlimited; tasks are then never queued.
+     */
+    public LaneDispatcher(Executor executor, int maxConcurrency, ToIntFunction<ExecutionLane> weights) {
+        this(executor, maxConcurrency, weights, lane -> 0);
+    }
+
+    /*
+     * Lanes with a higher priority are always served first; weights share the workers among lanes of equal priority.
+     */
+    public LaneDispatcher(Executor executor, int maxConcurrency, ToIntFunction<ExecutionLane> weights, ToIntFunction<ExecutionLane> priorities) {
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+        ExecutionLane[] values = ExecutionLane.values();
+        this.lanes = new Lane[values.length];
+        for (ExecutionLane lane : values) {
+            lanes[lane.ordinal()] = new Lane(Math.max(1, weights.applyAsInt(lane)), priorities.applyAsInt(lane));
+        }
+    }
+
+    /**
+     * Frees the slot held by the task running on the calling thread, if any, so that a queued task can start while
+     * this one blocks. The returned callback takes the slot back, even if that briefly exceeds maxConcurrency,
+     * and must be called once the task is done waiting.
+     */
+    public static Runnable releaseSlot() {
+        Slot slot = currentSlot.get();
+        if (slot == null || slot.released) {
+            return () -> {};
+        }
+        slot.released = true;
+        slot.dispatcher.taskDone();
+        return () -> {
+            if (slot.released) {
+                slot.released = false;
+                synchronized (slot.dispatcher) {
+                    slot.dispatcher.active++;
+                }
+            }
+        };
+    }
+
+    public void dispatch(ExecutionLane lane, Runnable task) {
+        synchronized (this) {
+            if (maxConcurrency > 0 && (active >= maxConcurrency || hasQueuedTasks())) {
+                Lane queue = lanes[lane.ordinal()];
+                if (queue.tasks.isEmpty()) {
+                    // an idle lane does not bank credit while it had nothing to run
+                    queue.pass = Math.max(queue.pass, currentPass);
+                }
+                queue.tasks.add(task);
+                return;
+            }
+            active++;
+        }
+        start(task);
+    }
+
+    public synchronized int getQueueDepth(ExecutionLane lane) {
+        return lanes[lane.ordinal()].tasks.size();
+    }
+
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    private void start(Runnable task) {
+        try {
+            executor.execute(() -> {
+                Slot slot = new Slot(this);
+                currentSlot.set(slot);
+                try {
+                    task.run();
+                } finally {
+                    currentSlot.remove();
+                    if (!slot.released) {
+                        taskDone();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            taskDone();
+            throw e;
+        }
+    }
+
+    private void taskDone() {
+        Runnable next;
+        synchronized (this) {
+            next = poll();
+            if (next == null) {
+                active--;
+                return;
+            }
+        }
+        start(next);
+    }
+
+    private Runnable poll() {
+        Lane selected = null;
+        for (Lane lane : lanes) {
+            if (!lane.tasks.isEmpty() && (selected == null || lane.priority > selected.priority
+                    || lane.priority == selected.priority && lane.pass < selected.pass)) {
+                selected = lane;
+            }
+        }
+        if (selected == null) {
+            return null;
+        }
+        currentPass = selected.pass;
+        selected.pass += STRIDE / selected.weight;
+        return selected.tasks.poll();
+    }
+
+    private boolean hasQueuedTasks() {
+        for (Lane lane : lanes) {
+            if (!lane.tasks.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Lane {
+        private final int weight;
+        private final int priority;
+        private final Deque<Runnable> tasks = new ArrayDeque<>();
+        private long pass;
+
+        Lane(int weight, int priority) {
+            this.weight = weight;
+            this.priority = priority;
+        }
+    }
+
+    private static class Slot {
+        private final LaneDispatcher dispatcher;
+        private boolean released;
+
+        Slot(LaneDispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+        }
+    }
+
+}
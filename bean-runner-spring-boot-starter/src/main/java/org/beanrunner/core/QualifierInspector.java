@@ -20,28 +20,86 @@
 
 package org.beanrunner.core;
 
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Service;
 
-import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
-public class QualifierInspector {
+public class QualifierInspector implements SmartInitializingSingleton {
 
     private final DefaultListableBeanFactory beanFactory;
 
+    /*
+     * Filled from one pass over the singleton names instead of a getBeanNamesForType/getBean scan per bean.
+     * Beans are keyed by identity, like the bean factory does, so overridden equals/hashCode never leak in.
+     */
+    private final Map<BeanKey, String> qualifiers = new ConcurrentHashMap<>();
+    private final Map<String, Object> beans = new ConcurrentHashMap<>();
+
     public QualifierInspector(ApplicationContext applicationContext) {
         this.beanFactory = (DefaultListableBeanFactory) applicationContext.getAutowireCapableBeanFactory();
     }
 
+    @Override
+    public void afterSingletonsInstantiated() {
+        index();
+    }
+
     public String getQualifierForBean(Object bean) {
-        String[] beanNames = beanFactory.getBeanNamesForType(bean.getClass());
-        for (String beanName : beanNames) {
-            if (Objects.equals(beanFactory.getBean(beanName), bean)) {
-               return beanName;
+        BeanKey key = new BeanKey(bean);
+        String qualifier = qualifiers.get(key);
+        if (qualifier == null) {
+            // singletons created after the last index (lazy or registered at runtime) are picked up here
+            index();
+            qualifier = qualifiers.computeIfAbsent(key, k -> "");
+        }
+        return qualifier;
+    }
+
+    /**
+     * Returns the bean registered under the given qualifier, or null.
+     */
+    public Object getResolvedBean(String qualifier) {
+        Object bean = beans.get(qualifier);
+        if (bean == null) {
+            index();
+            bean = beans.get(qualifier);
+        }
+        return bean;
+    }
+
+    /**
+     * Forgets all resolved qualifiers; must be called whenever singletons are registered at runtime.
+     */
+    public void invalidate() {
+        qualifiers.clear();
+        beans.clear();
+        index();
+    }
+
+    private void index() {
+        for (String beanName : beanFactory.getSingletonNames()) {
+            Object bean = beanFactory.getSingleton(beanName);
+            if (bean != null) {
+                qualifiers.putIfAbsent(new BeanKey(bean), beanName);
+                beans.putIfAbsent(beanName, bean);
             }
         }
-        return "";
     }
-}
\ No newline at end of file
+
+    private record BeanKey(Object bean) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof BeanKey other && other.bean == bean;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(bean);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+/**
+ * A token bucket that bounds retries to a fraction of first attempts: each first attempt adds ratio tokens, up to capacity,
+ * and each retry takes one. The bucket starts full, so occasional retries are never refused, but during an outage
+ * retries are throttled to ratio times the rate of new attempts.
+ */
+public class RetryBudget {
+
+    private final double ratio;
+    private final double capacity;
+    private double tokens;
+
+    public RetryBudget(double ratio, int capacity) {
+        this.ratio = ratio;
+        this.capacity = capacity;
+        this.tokens = capacity;
+    }
+
+    public synchronized void deposit() {
+        tokens = Math.min(capacity, tokens + ratio);
+    }
+
+    public synchronized boolean tryAcquire() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * Returns a token taken by a retry that did not happen after all.
+     */
+    public synchronized void release() {
+        tokens = Math.min(capacity, tokens + 1);
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.StepRetry;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The decisions behind a step's {@link StepRetry}: whether a failure is retried, how long to wait before the next retry,
+ * and whether the retry budgets allow it.
+ */
+public class RetryPolicy {
+
+    private RetryPolicy() {
+    }
+
+    /**
+     * abortOn takes precedence over retryOn; an empty retryOn retries every failure that is not aborted on.
+     */
+    public static boolean isRetryable(StepRetry retry, Throwable failure) {
+        for (Class<? extends Throwable> type : retry.abortOn()) {
+            if (type.isInstance(failure)) {
+                return false;
+            }
+        }
+        if (retry.retryOn().length == 0) {
+            return true;
+        }
+        for (Class<? extends Throwable> type : retry.retryOn()) {
+            if (type.isInstance(failure)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The nominal delay before the next retry, given the nominal delay before the previous one (0 if there was none).
+     */
+    public static long nextDelay(StepRetry retry, long previousDelayMillis) {
+        long base = retry.unit().toMillis(retry.delay());
+        long cap = retry.maxDelay() > 0 ? retry.unit().toMillis(retry.maxDelay()) : Long.MAX_VALUE;
+        long delay = switch (retry.backoff()) {
+            case FIXED -> base;
+            case EXPONENTIAL -> previousDelayMillis == 0 ? base : (long) Math.min(cap, previousDelayMillis * retry.multiplier());
+            case DECORRELATED_JITTER -> {
+                long upper = previousDelayMillis > cap / 3 ? cap : Math.max(base, previousDelayMillis * 3);
+                yield upper <= base ? base : ThreadLocalRandom.current().nextLong(base, upper + 1);
+            }
+        };
+        return Math.min(cap, delay);
+    }
+
+    /**
+     * Shortens the delay by a random fraction of up to retry.jitter(), so retries of many runs don't line up.
+     */
+    public static long jitter(StepRetry retry, long delayMillis) {
+        if (retry.jitter() <= 0) {
+            return delayMillis;
+        }
+        return delayMillis - (long) (delayMillis * Math.min(1, retry.jitter()) * ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * Takes a token from the step's budget and then from the global one, either of which may be null. Returns the budget
+     * that refused, or null if the retry may go ahead. The step's token is given back if the global budget refuses.
+     */
+    public static RetryBudget acquireBudget(RetryBudget stepBudget, RetryBudget globalBudget) {
+        if (stepBudget != null && !stepBudget.tryAcquire()) {
+            return stepBudget;
+        }
+        if (globalBudget != null && !globalBudget.tryAcquire()) {
+            if (stepBudget != null) {
+                stepBudget.release();
+            }
+            return globalBudget;
+        }
+        return null;
+    }
+
+}
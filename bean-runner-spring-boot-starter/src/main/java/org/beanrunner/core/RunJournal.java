@@ -0,0 +1,362 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+
+/**
+ * An append-only log of the state changes of running flows, so that runs interrupted by a restart can be recovered.
+ * Runs are otherwise only persisted once they stop.
+ * <p>
+ * Callers only queue the run and slot that changed; a single writer thread serializes the current contexts in batches,
+ * so a burst of changes to one step costs one line. The journal is split in segments: when a segment is full, a new one
+ * is started with a snapshot of all runs still in flight and the older segments are deleted.
+ */
+@Component
+@Slf4j
+public class RunJournal implements RunLayout.Listener {
+
+    private static final int STARTED = -2;
+    private static final int FINISHED = -1;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    @Getter
+    private final boolean enabled;
+    private final Path directory;
+    private final boolean fsync;
+    private final Duration flushInterval;
+    private final long segmentSize;
+    private final QualifierInspector qualifierInspector;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+
+    // only touched by the writer thread
+    private final Map<String, RunState> live = new HashMap<>();
+    private final List<Path> obsoleteSegments = new ArrayList<>();
+    private long lastSegmentId;
+    private Path currentSegment;
+    private FileChannel channel;
+    private Writer out;
+
+    public RunJournal(@Value("${bean-runner.journal.enabled:false}") boolean enabled,
+                      @Value("${bean-runner.journal.path:bean-runner-journal}") String path,
+                      @Value("${bean-runner.journal.fsync:false}") boolean fsync,
+                      @Value("${bean-runner.journal.flush-interval:10ms}") Duration flushInterval,
+                      @Value("${bean-runner.journal.segment-size:64MB}") DataSize segmentSize,
+                      @Autowired QualifierInspector qualifierInspector) {
+        this.enabled = enabled;
+        this.directory = Paths.get(path);
+        this.fsync = fsync;
+        this.flushInterval = flushInterval;
+        this.segmentSize = segmentSize.toBytes();
+        this.qualifierInspector = qualifierInspector;
+        objectMapper.registerModule(new JavaTimeModule());
+        objectMapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+        objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    }
+
+    /**
+     * Replays the journal left by the previous process and returns the runs that had not finished, with the last
+     * recorded context of each of their steps. The segments read are deleted once the writer has journaled the runs
+     * passed to {@link #track(RunState)} again.
+     */
+    public List<RecoveredRun> recover() {
+        if (!enabled) {
+            return List.of();
+        }
+        Map<String, RecoveredRun> runs = new LinkedHashMap<>();
+        List<Path> segments;
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                segments = files.filter(RunJournal::isSegment).sorted(Comparator.comparingLong(RunJournal::segmentId)).toList();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read run journal in " + directory, e);
+        }
+        for (Path segment : segments) {
+            replay(segment, runs);
+        }
+        obsoleteSegments.addAll(segments);
+        if (!segments.isEmpty()) {
+            lastSegmentId = segmentId(segments.get(segments.size() - 1));
+        }
+        return new ArrayList<>(runs.values());
+    }
+
+    private void replay(Path segment, Map<String, RecoveredRun> runs) {
+        try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Entry entry;
+                try {
+                    entry = objectMapper.readValue(line, Entry.class);
+                } catch (JsonProcessingException e) {
+                    // the last line may have been cut short by the crash
+                    log.warn("Skipping the rest of journal segment {}", segment.getFileName());
+                    return;
+                }
+                switch (entry.getType()) {
+                    case "STARTED" -> {
+                        RecoveredRun run = runs.get(entry.getRun());
+                        Map<String, StepRunContext<?>> contexts = run == null ? new HashMap<>() : run.contexts();
+                        runs.put(entry.getRun(), new RecoveredRun(entry.getFlow(), entry.getIdentifier(), contexts));
+                    }
+                    case "STEP" -> {
+                        RecoveredRun run = runs.get(entry.getRun());
+                        if (run != null) {
+                            run.contexts().put(entry.getStep(), entry.getContext());
+                        }
+                    }
+                    case "FINISHED" -> runs.remove(entry.getRun());
+                    default -> log.warn("Unknown journal entry {}", entry.getType());
+                }
+            }
+        } catch (IOException e) {
+            log.error("Failed to read journal segment {}", segment.getFileName(), e);
+        }
+    }
+
+    /**
+     * Starts the writer; changes queued until then, including the recovered runs, are written first.
+     */
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        Thread writer = new Thread(this::writeLoop, "bean-runner-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Journals the whole run, e.g. one that was recovered but is not running.
+     */
+    public void track(RunState state) {
+        if (enabled) {
+            queue.add(new Pending(state, STARTED));
+        }
+    }
+
+    @Override
+    public void contextChanged(RunState state, int slot, StepRunContext<?> context) {
+        if (enabled) {
+            queue.add(new Pending(state, slot));
+        }
+    }
+
+    /**
+     * Called once the run has been persisted; it is no longer recovered after a restart.
+     */
+    public void runFinished(RunState state) {
+        if (enabled) {
+            queue.add(new Pending(state, FINISHED));
+        }
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                if (!flushInterval.isZero()) {
+                    Thread.sleep(flushInterval.toMillis());
+                }
+                queue.drainTo(batch);
+                write(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.error("Failed to write run journal", e);
+                closeSegment();
+            }
+            batch.clear();
+        }
+    }
+
+    private void write(List<Pending> batch) throws IOException {
+        if (channel == null) {
+            openSegment();
+        }
+        Set<Pending> written = new HashSet<>();
+        for (Pending pending : batch) {
+            String runId = pending.state().getIdentifier().getId();
+            if (pending.slot() == FINISHED) {
+                if (live.remove(runId) != null) {
+                    writeEntry(entry("FINISHED", runId));
+                }
+                // the run may be resumed later in the same batch, so its changes must be written again
+                written.clear();
+            } else if (!live.containsKey(runId)) {
+                live.put(runId, pending.state());
+                writeSnapshot(pending.state());
+            } else if (pending.slot() != STARTED && written.add(pending)) {
+                writeStep(pending.state(), pending.slot());
+            }
+        }
+        // flushed first, so that the size includes this batch
+        out.flush();
+        if (channel.size() >= segmentSize) {
+            closeSegment();
+            openSegment();
+            out.flush();
+        }
+        // older segments are only deleted once the runs they hold are safely in the current one
+        if (fsync || !obsoleteSegments.isEmpty()) {
+            channel.force(false);
+        }
+        deleteObsoleteSegments();
+    }
+
+    private void openSegment() throws IOException {
+        Files.createDirectories(directory);
+        lastSegmentId = Math.max(System.currentTimeMillis(), lastSegmentId + 1);
+        currentSegment = directory.resolve(SEGMENT_PREFIX + lastSegmentId + SEGMENT_SUFFIX);
+        channel = FileChannel.open(currentSegment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+        // the runs in flight are copied over, so that the older segments can be deleted
+        for (RunState state : live.values()) {
+            writeSnapshot(state);
+        }
+    }
+
+    private void closeSegment() {
+        try {
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            log.warn("Failed to close journal segment {}", currentSegment, e);
+        }
+        if (currentSegment != null) {
+            obsoleteSegments.add(currentSegment);
+        }
+        out = null;
+        channel = null;
+        currentSegment = null;
+    }
+
+    private void deleteObsoleteSegments() {
+        for (Path segment : obsoleteSegments) {
+            try {
+                Files.deleteIfExists(segment);
+            } catch (IOException e) {
+                log.warn("Failed to delete journal segment {}", segment, e);
+            }
+        }
+        obsoleteSegments.clear();
+    }
+
+    private void writeSnapshot(RunState state) throws IOException {
+        Entry started = entry("STARTED", state.getIdentifier().getId());
+        started.setFlow(qualifierInspector.getQualifierForBean(state.getFirstStep()));
+        started.setIdentifier(state.getIdentifier());
+        writeEntry(started);
+        for (int slot = 0; slot < state.getLayout().size(); slot++) {
+            if (state.getContext(slot) != null) {
+                writeStep(state, slot);
+            }
+        }
+    }
+
+    private void writeStep(RunState state, int slot) throws IOException {
+        StepRunContext<?> context = state.getContext(slot);
+        if (context == null) {
+            return;
+        }
+        Entry entry = entry("STEP", state.getIdentifier().getId());
+        entry.setStep(qualifierInspector.getQualifierForBean(state.getLayout().getSteps()[slot]));
+        entry.setContext(context);
+        writeEntry(entry);
+    }
+
+    private void writeEntry(Entry entry) throws IOException {
+        out.write(objectMapper.writeValueAsString(entry));
+        out.write('\n');
+    }
+
+    private static Entry entry(String type, String runId) {
+        Entry entry = new Entry();
+        entry.setType(type);
+        entry.setRun(runId);
+        return entry;
+    }
+
+    private static boolean isSegment(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX) && segmentId(path) >= 0;
+    }
+
+    private static long segmentId(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    private record Pending(RunState state, int slot) {
+    }
+
+    public record RecoveredRun(String flow, FlowRunIdentifier identifier, Map<String, StepRunContext<?>> contexts) {
+    }
+
+    @Getter
+    @Setter
+    public static class Entry {
+        private String type;
+        private String run;
+        private String flow;
+        private FlowRunIdentifier identifier;
+        private String step;
+        private StepRunContext<?> context;
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.StepConcurrency;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Concurrency limit for a step annotated with {@link StepConcurrency}, shared by all runs that execute the step bean:
+ * at most {@code max} executions at once and at most {@code queue} waiting. A freed slot is handed straight to the
+ * longest waiting execution, so waiting runs are served in arrival order.
+ */
+public class StepBulkhead {
+
+    private final String stepName;
+    private final StepConcurrency config;
+
+    private int active;
+    private final Deque<Waiter> waiting = new ArrayDeque<>();
+
+    public StepBulkhead(String stepName, StepConcurrency config) {
+        if (config.max() <= 0 || config.queue() < 0) {
+            throw new IllegalArgumentException("@StepConcurrency of " + stepName + " needs a positive max and a queue of at least 0");
+        }
+        this.stepName = stepName;
+        this.config = config;
+    }
+
+    /**
+     * Takes a slot and returns true if one is free. Otherwise queues the execution and returns false; grant is called
+     * once a slot has been handed to it, or onCancel if the run is cancelled first.
+     *
+     * @throws StepRejectedException if the queue is full
+     */
+    public synchronized boolean acquire(FlowRunIdentifier identifier, Runnable grant, Runnable onCancel) {
+        if (active < config.max()) {
+            active++;
+            return true;
+        }
+        if (waiting.size() >= config.queue()) {
+            throw new StepRejectedException("Step " + stepName + " already has " + config.max() + " running and " + waiting.size() + " queued executions");
+        }
+        waiting.add(new Waiter(identifier, grant, onCancel));
+        return false;
+    }
+
+    public void release() {
+        Waiter next;
+        synchronized (this) {
+            next = waiting.poll();
+            if (next == null) {
+                active--;
+                return;
+            }
+        }
+        next.grant().run();
+    }
+
+    /**
+     * Removes the executions the run has queued and calls their onCancel.
+     */
+    public void cancel(FlowRunIdentifier identifier) {
+        List<Waiter> cancelled = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Waiter> it = waiting.iterator(); it.hasNext(); ) {
+                Waiter waiter = it.next();
+                if (waiter.identifier().equals(identifier)) {
+                    it.remove();
+                    cancelled.add(waiter);
+                }
+            }
+        }
+        cancelled.forEach(waiter -> waiter.onCancel().run());
+    }
+
+    /**
+     * The 1-based position of the run in the queue, 0 if it is not waiting.
+     */
+    public synchronized int getQueuePosition(FlowRunIdentifier identifier) {
+        int position = 1;
+        for (Waiter waiter : waiting) {
+            if (waiter.identifier().equals(identifier)) {
+                return position;
+            }
+            position++;
+        }
+        return 0;
+    }
+
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    public synchronized int getQueuedCount() {
+        return waiting.size();
+    }
+
+    private record Waiter(FlowRunIdentifier identifier, Runnable grant, Runnable onCancel) {
+    }
+
+}
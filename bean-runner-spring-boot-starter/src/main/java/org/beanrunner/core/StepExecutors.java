@@ -20,71 +20,222 @@
 
 package org.beanrunner.core;
 
+import lombok.extern.slf4j.Slf4j;
+import org.beanrunner.core.annotations.ExecutionLane;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+@Slf4j
 @Component
-public class StepExecutors {
+public class StepExecutors implements RunTaskExecutor {
 
     private List<Listener> listeners = new CopyOnWriteArrayList<>();
 
+    /*
+     * Outstanding tasks per run; a run's entry is removed when its count drops to zero.
+     */
     private Map<FlowRunIdentifier, AtomicInteger> counters = new ConcurrentHashMap<>();
 
-    private final ExecutorService executorService = Executors.newCachedThreadPool();
-    private final ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(4);
+    private final ExecutorService executorService;
+    private final LaneDispatcher dispatcher;
+
+    /*
+     * Only fires delayed tasks; the tasks themselves are handed over to the step executor.
+     */
+    private final HashedWheelTimer timer = new HashedWheelTimer("bean-runner-timer", 10, TimeUnit.MILLISECONDS, 512);
+    private final Map<FlowRunIdentifier, Map<HashedWheelTimer.Timeout, Runnable>> timeouts = new ConcurrentHashMap<>();
+
+    public StepExecutors(@Value("${bean-runner.executor.mode:platform}") String mode,
+                         @Value("${bean-runner.executor.max-threads:200}") int maxThreads,
+                         @Value("${bean-runner.executor.max-concurrency:0}") int maxConcurrency,
+                         Environment environment) {
+        this.executorService = createExecutorService(mode, maxThreads);
+        if (maxConcurrency <= 0 && "bounded".equalsIgnoreCase(mode)) {
+            // the pool can't run more anyway, so waiting tasks are better off in the lanes than in its queue
+            maxConcurrency = maxThreads;
+        }
+        this.dispatcher = new LaneDispatcher(executorService, maxConcurrency,
+                lane -> environment.getProperty(laneProperty(lane, "weight"), Integer.class, lane.getDefaultWeight()),
+                lane -> environment.getProperty(laneProperty(lane, "priority"), Integer.class, 0));
+    }
+
+    private static String laneProperty(ExecutionLane lane, String name) {
+        return "bean-runner.executor.lanes." + lane.name().toLowerCase() + "." + name;
+    }
+
+    private static ExecutorService createExecutorService(String mode, int maxThreads) {
+        switch (mode.toLowerCase()) {
+            case "virtual":
+                try {
+                    // looked up reflectively so the starter still builds and runs on Java 17
+                    return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    log.warn("Virtual threads require Java 21 or later, falling back to platform threads");
+                    return Executors.newCachedThreadPool();
+                }
+            case "bounded":
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+                executor.allowCoreThreadTimeOut(true);
+                return executor;
+            case "platform":
+                return Executors.newCachedThreadPool();
+            default:
+                throw new IllegalArgumentException("Unknown bean-runner.executor.mode: " + mode);
+        }
+    }
 
     public int getCounter(FlowRunIdentifier id) {
-        return counters.getOrDefault(id, new AtomicInteger()).get();
+        AtomicInteger counter = counters.get(id);
+        return counter == null ? 0 : counter.get();
     }
 
     public void addListener(Listener listener) {
         listeners.add(listener);
     }
 
+    public int getQueueDepth(ExecutionLane lane) {
+        return dispatcher.getQueueDepth(lane);
+    }
+
+    public int getActiveCount() {
+        return dispatcher.getActiveCount();
+    }
+
     public void execute(FlowRunIdentifier id, Runnable r) {
-        counters.computeIfAbsent(id, k -> new AtomicInteger()).incrementAndGet();
-        executorService.execute(() -> {
-            try {
-                r.run();
-            } finally {
-                int count = counters.get(id).decrementAndGet();
-                if (count == 0) {
-                    listeners.forEach(l -> l.onRunComplete(id));
-                }
-            }
-        });
+        dispatcher.dispatch(laneOf(id), track(id, r));
     }
 
+    @Override
     public void submit(FlowRunIdentifier id, Runnable c) {
-        counters.computeIfAbsent(id, k -> new AtomicInteger()).incrementAndGet();
-        executorService.submit(() -> {
+        dispatcher.dispatch(laneOf(id), track(id, () -> {
             try {
                 c.run();
-            } finally {
-                int count = counters.get(id).decrementAndGet();
-                if (count == 0) {
-                    listeners.forEach(l -> l.onRunComplete(id));
-                }
+            } catch (Throwable t) {
+                log.error("Unhandled exception in task of run {}", id.getId(), t);
             }
-        });
+        }));
     }
 
+    @Override
     public void schedule(FlowRunIdentifier id, Runnable r, long delay, TimeUnit unit) {
-        counters.computeIfAbsent(id, k -> new AtomicInteger()).incrementAndGet();
-        scheduledExecutorService.schedule(() -> {
+        schedule(id, r, () -> {}, delay, unit);
+    }
+
+    /**
+     * Like {@link #schedule(FlowRunIdentifier, Runnable, long, TimeUnit)}, with onCancel running in place of the task
+     * if the task is cancelled by {@link #cancelScheduled(FlowRunIdentifier)}.
+     */
+    public void schedule(FlowRunIdentifier id, Runnable r, Runnable onCancel, long delay, TimeUnit unit) {
+        Runnable task = track(id, r);
+        HashedWheelTimer.Timeout timeout = timer.schedule(t -> {
+            timeouts.computeIfPresent(id, (k, pending) -> {
+                pending.remove(t);
+                return pending.isEmpty() ? null : pending;
+            });
+            dispatcher.dispatch(laneOf(id), task);
+        }, delay, unit);
+        timeouts.compute(id, (k, pending) -> {
+            if (timeout.isExpired()) {
+                return pending;
+            }
+            Map<HashedWheelTimer.Timeout, Runnable> result = pending == null ? new HashMap<>() : pending;
+            result.put(timeout, onCancel);
+            return result;
+        });
+    }
+
+    /**
+     * Runs the action on the timer thread after the delay, without counting it against any run. The action must only hand work off.
+     */
+    public HashedWheelTimer.Timeout watch(Runnable action, long delay, TimeUnit unit) {
+        return timer.schedule(t -> action.run(), delay, unit);
+    }
+
+    /**
+     * Whether the caller is the thread running delayed tasks and {@link #watch watch} actions, which must not be kept busy.
+     */
+    public boolean isTimerThread() {
+        return timer.isTimerThread();
+    }
+
+    /**
+     * Counts pending asynchronous work against the run until the returned callback is invoked (only the first call counts),
+     * so that the run is not considered complete while e.g. an {@link AsyncStep} stage is outstanding.
+     */
+    public Runnable hold(FlowRunIdentifier id) {
+        taskStarted(id);
+        AtomicBoolean released = new AtomicBoolean();
+        return () -> {
+            if (released.compareAndSet(false, true)) {
+                taskDone(id);
+            }
+        };
+    }
+
+    /**
+     * Cancels all delayed tasks (probes, retries, cleanups) still pending for the run, runs their onCancel callbacks,
+     * and returns how many were cancelled. Cancelled tasks no longer count towards the run, so this may complete it.
+     */
+    public int cancelScheduled(FlowRunIdentifier id) {
+        Map<HashedWheelTimer.Timeout, Runnable> pending = timeouts.remove(id);
+        if (pending == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Map.Entry<HashedWheelTimer.Timeout, Runnable> entry : pending.entrySet()) {
+            if (entry.getKey().cancel()) {
+                count++;
+                try {
+                    entry.getValue().run();
+                } finally {
+                    taskDone(id);
+                }
+            }
+        }
+        return count;
+    }
+
+    private static ExecutionLane laneOf(FlowRunIdentifier id) {
+        return id.getLane() == null ? ExecutionLane.BACKGROUND : id.getLane();
+    }
+
+    /*
+     * Counts the task against its run and binds the run to the executing thread while it runs.
+     */
+    private Runnable track(FlowRunIdentifier id, Runnable r) {
+        taskStarted(id);
+        return () -> {
+            RunState previous = CurrentRun.bind(RunRegistry.get(id));
             try {
                 r.run();
             } finally {
-                int count = counters.get(id).decrementAndGet();
-                if (count == 0) {
-                    listeners.forEach(l -> l.onRunComplete(id));
-                }
+                CurrentRun.restore(previous);
+                taskDone(id);
             }
-        }, delay, unit);
+        };
+    }
+
+    private void taskStarted(FlowRunIdentifier id) {
+        counters.compute(id, (k, counter) -> {
+            AtomicInteger result = counter == null ? new AtomicInteger() : counter;
+            result.incrementAndGet();
+            return result;
+        });
+    }
+
+    private void taskDone(FlowRunIdentifier id) {
+        AtomicInteger remaining = counters.computeIfPresent(id, (k, counter) -> counter.decrementAndGet() == 0 ? null : counter);
+        if (remaining == null) {
+            listeners.forEach(l -> l.onRunComplete(id));
+        }
     }
 
     public interface Listener {
@@ -0,0 +1,98 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import lombok.Getter;
+import org.beanrunner.core.annotations.StepHedge;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides when a step annotated with {@link StepHedge} is hedged: after the fixed delay if one is set, otherwise after
+ * the configured percentile of the latencies of its recent successful invocations, shared by all runs of the step bean.
+ */
+public class StepHedger {
+
+    private static final int SAMPLES = 256;
+
+    @Getter
+    private final StepHedge config;
+
+    private final AtomicLongArray latencies = new AtomicLongArray(SAMPLES);
+    private final AtomicLong recorded = new AtomicLong();
+
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    public StepHedger(StepHedge config) {
+        this.config = config;
+    }
+
+    /**
+     * How many nanoseconds to wait for an invocation before starting a hedge, -1 if too few latencies were seen yet.
+     */
+    public long getDelayNanos() {
+        if (config.after() > 0) {
+            return config.unit().toNanos(config.after());
+        }
+        int count = (int) Math.min(recorded.get(), SAMPLES);
+        if (count == 0 || count < config.minimumSamples()) {
+            return -1;
+        }
+        long[] sorted = new long[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(config.percentile() / 100 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    public void recordLatency(long nanos) {
+        latencies.set((int) (recorded.getAndIncrement() % SAMPLES), nanos);
+    }
+
+    public void hedged() {
+        hedges.increment();
+    }
+
+    public void hedgeWon() {
+        hedgeWins.increment();
+    }
+
+    public long getHedgeCount() {
+        return hedges.sum();
+    }
+
+    public long getHedgeWinCount() {
+        return hedgeWins.sum();
+    }
+
+    public long getDelayMillis() {
+        long delay = getDelayNanos();
+        return delay < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(delay);
+    }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Counters of the limits applied to a single step bean, see {@link StepManager#getStepLimitMetrics()}.
+ */
+@Getter
+@Setter
+public class StepLimitMetrics {
+    private String step;
+    private int activeCount;
+    private int queuedCount;
+    private long throttledCount;
+    private long throttledMillis;
+    private CircuitBreaker.State circuitState;
+    private double failureRate;
+    private long shortCircuitedCount;
+    private long hedgeDelayMillis;
+    private long hedgeCount;
+    private long hedgeWinCount;
+}
@@ -25,14 +25,15 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
 import org.beanrunner.core.annotations.StepGroup;
 import org.beanrunner.core.annotations.*;
 import org.beanrunner.core.logging.CustomSpringLogbackAppender;
 import org.beanrunner.core.storage.StorageService;
 import org.beanrunner.core.storage.runs.StepRunStorage;
 import org.slf4j.MDC;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.support.CronTrigger;
 import org.springframework.stereotype.Component;
@@ -42,10 +43,12 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 @Component
 @Slf4j
-public class StepManager {
+public class StepManager implements InitializingBean {
 
     @Getter
     private final List<Step<?>> allSteps;
@@ -63,8 +66,18 @@ public class StepManager {
     private final StepRunStorage stepRunStorage;
     private final Map<Step<?>, LoadedState> flowIdentifierLoadingState = new ConcurrentHashMap<>();
     private final Map<Step<?>, Long> identifierStartLoadTime = new ConcurrentHashMap<>();
-    private final Map<FlowRunIdentifier, Long> identifierPropagationLoadingTime = new ConcurrentHashMap<>();
-    private final Map<FlowRunIdentifier, LoadedState> identifierLoadedStateMap = new ConcurrentHashMap<>();
+
+    @Value("${bean-runner.runs.max-per-flow:1000}")
+    private int maxRunsPerFlow;
+
+    @Value("${bean-runner.runs.max-age:0s}")
+    private Duration maxRunAge;
+
+    @Value("${bean-runner.runs.max-loaded:200}")
+    private int maxLoadedRuns;
+
+    @Value("${bean-runner.journal.resume:true}")
+    private boolean resumeRecoveredRuns;
 
     private final CustomSpringLogbackAppender appender;
     private final StorageService storageService;
@@ -72,6 +85,18 @@ public class StepManager {
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     private final Map<Step<?>, RateCounter> rateCounters = new ConcurrentHashMap<>();
+    private final Map<Step<?>, FlowAdmission> admissions = new IdentityHashMap<>();
+
+    private FlowPlan plan;
+
+    /*
+     * Shared by all steps, null unless bean-runner.retry.budget.ratio is set.
+     */
+    private final RetryBudget retryBudget;
+
+    private final StepResultCache resultCache;
+
+    private final RunJournal journal;
 
     public StepManager(@Autowired Optional<TaskScheduler> scheduler,
                        @Autowired DynamicBeanRegistrar dynamicBeanRegistrar,
@@ -80,8 +105,15 @@ public class StepManager {
                        @Autowired StepRunStorage stepRunStorage,
                        @Autowired CustomSpringLogbackAppender appender,
                        @Autowired StorageService storageService,
-                       @Autowired StepExecutors executors) {
+                       @Autowired StepExecutors executors,
+                       @Autowired StepResultCache resultCache,
+                       @Autowired RunJournal journal,
+                       @Value("${bean-runner.retry.budget.ratio:0}") double retryBudgetRatio,
+                       @Value("${bean-runner.retry.budget.capacity:10}") int retryBudgetCapacity) {
         this.executors = executors;
+        this.resultCache = resultCache;
+        this.journal = journal;
+        this.retryBudget = retryBudgetRatio > 0 ? new RetryBudget(retryBudgetRatio, retryBudgetCapacity) : null;
         this.allSteps = steps;
         this.scheduler = scheduler;
         this.qualifierInspector = qualifierInspector;
@@ -93,6 +125,10 @@ public class StepManager {
 
         buildStepDependencyTree();
 
+        if (journal.isEnabled()) {
+            plan.setContextListener(journal);
+        }
+
         storageService.read("disabledCronSteps.json").ifPresent(json -> {
             try {
                 disabledCronSteps = objectMapper.readValue(json, new TypeReference<>() {});
@@ -106,15 +142,16 @@ public class StepManager {
                 StepSchedule runAt = firstStep.getClass().getAnnotation(StepSchedule.class);
                 taskScheduler.schedule(() -> {
                     if (! disabledCronSteps.contains(qualifierInspector.getQualifierForBean(firstStep))) {
-                        executeFlow(firstStep, null, false, "Cron", "images/source-cron.svg");
+                        FlowRunIdentifier identifier = new FlowRunIdentifier();
+                        identifier.setLane(ExecutionLane.CRON);
+                        executeFlow(firstStep, null, identifier, false, "Cron", "images/source-cron.svg");
                     }
                 }, new CronTrigger(runAt.value()));
             }
         }));
 
+        executors.addListener(this::runStopped);
         for (Step<?> firstStep : firstSteps) {
-            executors.addListener(id -> runStopped(firstStep, id));
-
             flowIdentifierLoadingState.put(firstStep, LoadedState.LOADING);
             CompletableFuture.runAsync(() -> {
                 loadFlowIdentifiers(firstStep);
@@ -123,6 +160,85 @@ public class StepManager {
 
     }
 
+    @Override
+    public void afterPropertiesSet() {
+        recoverRuns();
+    }
+
+    /*
+     * Brings back the runs the journal saw in flight when the previous process stopped. Steps that were running are run
+     * again, probing steps go on probing and succeeded steps go on to their downstream steps.
+     */
+    private void recoverRuns() {
+        for (RunJournal.RecoveredRun run : journal.recover()) {
+            Step<?> firstStep = firstSteps.stream()
+                    .filter(step -> qualifierInspector.getQualifierForBean(step).equals(run.flow()))
+                    .findFirst()
+                    .orElse(null);
+            if (firstStep == null) {
+                log.warn("Run {} of unknown flow {} can't be recovered", run.identifier().getId(), run.flow());
+                continue;
+            }
+            RunState runState = registerRun(firstStep, run.identifier());
+            FlowRunIdentifier identifier = runState.getIdentifier();
+            List<Step<?>> steps = flattenSteps(firstStep);
+            for (Step<?> step : steps) {
+                StepRunContext<?> context = run.contexts().get(qualifierInspector.getQualifierForBean(step));
+                if (context != null) {
+                    runState.putContext(step, context);
+                }
+            }
+            runState.setLoadedState(LoadedState.LOADED);
+            runState.setStartedAt(System.nanoTime());
+            boolean interrupted = false;
+            for (Step<?> step : steps) {
+                interrupted |= pauseInterrupted(step, identifier);
+            }
+            log.info("Recovered run {} of flow {}", identifier.getId(), getFlowId(firstStep));
+            if (!interrupted) {
+                // it had stopped, but was not persisted yet
+                runStopped(firstStep, identifier);
+                continue;
+            }
+            identifier.setRunning(false);
+            identifier.setPauseRequested(true);
+            identifier.setPaused(true);
+            journal.track(runState);
+            if (resumeRecoveredRuns) {
+                resume(firstStep, identifier);
+            }
+        }
+        journal.start();
+    }
+
+    /*
+     * Moves a step that was interrupted by the restart to the paused status that resume picks up.
+     */
+    private boolean pauseInterrupted(Step<?> step, FlowRunIdentifier identifier) {
+        StepRunContext<?> context = step.getContext(identifier);
+        StepStatus paused = switch (context.getStatus()) {
+            case READY, RUNNING -> context.isProbing() ? StepStatus.PAUSED_PROBING : StepStatus.PAUSED_FAILURE;
+            case PENDING_REWIND, REWINDING -> StepStatus.PAUSED_REWIND_FAILURE;
+            case SUCCESS -> hasNotStartedDownstream(step, identifier) ? StepStatus.PAUSED_SUCCESS : null;
+            case PAUSED_FAILURE, PAUSED_SUCCESS, PAUSED_PROBING, PAUSED_REWIND_SUCCESS, PAUSED_REWIND_FAILURE -> context.getStatus();
+            default -> null;
+        };
+        if (paused == null) {
+            return false;
+        }
+        context.setStatus(paused);
+        return true;
+    }
+
+    private boolean hasNotStartedDownstream(Step<?> step, FlowRunIdentifier identifier) {
+        for (FlowPlan.Edge edge : plan.getNode(step).getDownstream()) {
+            if (edge.getDownstream().getStatus(identifier) == StepStatus.NOT_STARTED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void loadFlowIdentifiersFromStorageIfNecessary(Step<?> rootStep) {
         try {
             long now = System.nanoTime();
@@ -132,9 +248,9 @@ public class StepManager {
                 List<FlowRunIdentifier> identifiers = stepRunStorage.getIdentifiersForFlow(flowId);
                 for (FlowRunIdentifier identifier : identifiers) {
                     stepRunStorage.loadIdentifier(flowId, rootStep, identifier);
-                    identifier.setOverrideDisplayValues(true);
-                    rootStep.contextMap.put(identifier, new StepRunContext<>());
+                    registerStoredRun(rootStep, identifier);
                 }
+                evictRuns(rootStep);
             }
         } catch (Throwable t) {
             log.error("Failed to load flow identifiers", t);
@@ -142,12 +258,15 @@ public class StepManager {
     }
 
     public boolean isLoaded(FlowRunIdentifier identifier) {
-        return identifierLoadedStateMap.get(identifier) == LoadedState.LOADED;
+        RunState runState = RunRegistry.get(identifier);
+        return runState != null && runState.getLoadedState() == LoadedState.LOADED;
     }
 
     public boolean loadAndPropagateIdentifierIfNecessary(Step<?> rootStep, FlowRunIdentifier identifier) {
-        LoadedState state = identifierLoadedStateMap.compute(identifier, (i, value) -> {
-            if (value == null || value == LoadedState.NOT_LOADED) {
+        RunState registered = RunRegistry.get(identifier);
+        RunState runState = registered != null ? registered : registerRun(rootStep, identifier);
+        LoadedState state = runState.updateLoadedState(value -> {
+            if (value == LoadedState.NOT_LOADED) {
                 return LoadedState.SHOULD_LOAD;
             }
             if (value == LoadedState.SHOULD_LOAD) {
@@ -162,7 +281,8 @@ public class StepManager {
                 List<Step<?>> steps = flattenSteps(rootStep);
                 stepRunStorage.loadStepContext(flowId, steps, identifier);
                 appender.loadLogs(getFlowId(rootStep), steps, identifier);
-                identifierLoadedStateMap.put(identifier, LoadedState.LOADED);
+                runState.setLoadedState(LoadedState.LOADED);
+                unloadRuns(RunRegistry.loaded(runState, maxLoadedRuns));
                 listeners.forEach(listener -> listener.runContentLoaded(rootStep, identifier));
             });
         }
@@ -177,18 +297,20 @@ public class StepManager {
     private void loadFlowIdentifiers(Step<?> firstStep) {
         String flowId = getFlowId(firstStep);
         long startTime = System.currentTimeMillis();
-        List<FlowRunIdentifier> identifiers = stepRunStorage.getIdentifiersForFlow(flowId);
+        List<FlowRunIdentifier> identifiers = new ArrayList<>(stepRunStorage.getIdentifiersForFlow(flowId));
         log.info("Loading identifiers list took {} ms", System.currentTimeMillis() - startTime);
+        identifiers.sort(Comparator.comparingLong(FlowRunIdentifier::getTimestamp));
         for (FlowRunIdentifier identifier : identifiers) {
-            identifier.setOverrideDisplayValues(true);
-            firstStep.contextMap.put(identifier, new StepRunContext<>());
+            registerStoredRun(firstStep, identifier);
         }
+        evictRuns(firstStep);
         flowIdentifierLoadingState.put(firstStep, LoadedState.LOADED);
         listeners.forEach(listener -> listener.flowRunsLoaded(firstStep));
     }
 
     public boolean isArchived(Step<?> rootStep, FlowRunIdentifier identifier) {
-        return !identifierPropagationLoadingTime.containsKey(identifier);
+        RunState runState = RunRegistry.get(identifier);
+        return runState == null || runState.getStartedAt() == 0;
     }
 
     private void injectStepGroupAutowiring() {
@@ -204,14 +326,12 @@ public class StepManager {
                     }
                     String qualifier = field.getAnnotation(StepGroupAutowired.class).value();
                     field.setAccessible(true);
-                    for (Step<?> t : allSteps) {
-                        String fullQualifier = qualifierInspector.getQualifierForBean(t);
-                        if (fullQualifier.equals(field.getType().getSimpleName() + "_" + stepQualifier + qualifier)) {
-                            try {
-                                field.set(step, t);
-                            } catch (IllegalAccessException e) {
-                                throw new RuntimeException(e);
-                            }
+                    Object t = qualifierInspector.getResolvedBean(field.getType().getSimpleName() + "_" + stepQualifier + qualifier);
+                    if (t instanceof Step<?>) {
+                        try {
+                            field.set(step, t);
+                        } catch (IllegalAccessException e) {
+                            throw new RuntimeException(e);
                         }
                     }
                 }
@@ -243,6 +363,8 @@ public class StepManager {
 
     private void buildStepDependencyTree() {
 
+        plan = FlowPlan.compile(allSteps);
+
         for (Step<?> step : allSteps) {
             // get the class of the step
             Class<?> stepClass = step.getClass();
@@ -253,31 +375,17 @@ public class StepManager {
                 step.setClusterId(groupNumber);
                 ClusterIdGenerator.putClusterDetails(groupNumber, group.name(), group.icon());
             }
-            // get the fields of the class
-            Field[] fields = ReflectionUtils.getFields(stepClass);
-            boolean hasDependencies = false;
-            for (Field field : fields) {
-                // check if the field has the @OnSuccess annotation
-                if (field.isAnnotationPresent(OnSuccess.class) ||
-                        field.isAnnotationPresent(OnComplete.class) ||
-                        field.isAnnotationPresent(OnUpstreamFailure.class)) {
-                    hasDependencies = true;
-                    Step<?> dependentStep = null;
-                    try {
-                        field.setAccessible(true);
-                        dependentStep = (Step<?>) field.get(step);
-                    } catch (IllegalAccessException e) {
-                        throw new RuntimeException(e);
-                    }
 
-                    if (dependentStep != null) {
-                        // add the dependent step to the step dependency tree
-                        stepDependencyTree.computeIfAbsent(dependentStep, k -> new ArrayList<>()).add(step);
-                    }
-                }
+            Step<?>[] dependents = plan.getNode(step).getDependents();
+            if (dependents.length > 0) {
+                stepDependencyTree.put(step, new ArrayList<>(Arrays.asList(dependents)));
             }
-            if (!hasDependencies) {
-                firstSteps.add(step);
+        }
+        firstSteps.addAll(plan.getFirstSteps());
+        for (Step<?> firstStep : firstSteps) {
+            FlowConcurrency concurrency = firstStep.getClass().getAnnotation(FlowConcurrency.class);
+            if (concurrency != null) {
+                admissions.put(firstStep, new FlowAdmission(getFlowId(firstStep), concurrency));
             }
         }
     }
@@ -286,29 +394,99 @@ public class StepManager {
         return new FlowRunIdentifier();
     }
 
+    private RunState registerRun(Step<?> firstStep, FlowRunIdentifier identifier) {
+        RunState runState = new RunState(identifier, plan.getLayout(firstStep));
+        runState.setTaskExecutor(executors);
+        return RunRegistry.register(runState);
+    }
+
+    /*
+     * Registers a run read from storage; its contexts are loaded lazily when it is opened.
+     */
+    private void registerStoredRun(Step<?> firstStep, FlowRunIdentifier identifier) {
+        identifier.setOverrideDisplayValues(true);
+        RunState runState = registerRun(firstStep, identifier);
+        if (runState.getIdentifier() == identifier) {
+            RunRegistry.finished(runState, identifier.getTimestamp());
+        }
+    }
+
+    private void acquireAdmission(Step<?> firstStep, FlowRunIdentifier identifier) {
+        FlowAdmission admission = admissions.get(firstStep);
+        if (admission != null) {
+            admission.acquire(identifier);
+        }
+    }
+
+    private void trackReadiness(FlowRunIdentifier identifier) {
+        RunState runState = RunRegistry.get(identifier);
+        if (runState != null) {
+            plan.trackReadiness(runState);
+        }
+    }
+
+    public Set<FlowRunIdentifier> getIdentifiers(Step<?> firstStep) {
+        return RunRegistry.getIdentifiers(firstStep);
+    }
+
     public <D> FlowRunIdentifier executeFlow(Step<D> firstStep, D parameter, boolean isBackground, String source, String sourceIcon) {
         return this.executeFlow(firstStep, parameter, new FlowRunIdentifier(), isBackground, source, sourceIcon);
     }
 
     public <D> FlowRunIdentifier executeFlow(Step<D> firstStep, D parameter, FlowRunIdentifier identifier, boolean isBackground, String source, String sourceIcon) {
+        return executeFlow(firstStep, parameter, identifier, isBackground, source, sourceIcon,
+                e -> log.warn("Run {} of flow {} was not started: {}", identifier.getId(), getFlowId(firstStep), e.getMessage()));
+    }
+
+    /**
+     * Starts the run, subject to the flow's {@link FlowConcurrency} limits: the run may also be queued and started later,
+     * rejected with a {@link FlowRejectedException}, or dropped from the queue, in which case onDropped is called.
+     * If the identifier has a deadline, the run is cancelled when it passes, whether it is queued or running.
+     */
+    public <D> FlowRunIdentifier executeFlow(Step<D> firstStep, D parameter, FlowRunIdentifier identifier, boolean isBackground, String source, String sourceIcon,
+                                             Consumer<FlowRejectedException> onDropped) {
+        if (identifier.getDeadline() > 0) {
+            watchDeadline(firstStep, identifier);
+        }
+        FlowAdmission admission = admissions.get(firstStep);
+        if (admission == null) {
+            startFlow(firstStep, parameter, identifier, isBackground, source, sourceIcon);
+        } else {
+            admission.admit(identifier, () -> startFlow(firstStep, parameter, identifier, isBackground, source, sourceIcon), onDropped);
+        }
+        return identifier;
+    }
+
+    public FlowAdmission getAdmission(Step<?> firstStep) {
+        return admissions.get(firstStep);
+    }
+
+    private <D> void startFlow(Step<D> firstStep, D parameter, FlowRunIdentifier identifier, boolean isBackground, String source, String sourceIcon) {
+        FlowLane flowLane = firstStep.getClass().getAnnotation(FlowLane.class);
+        if (flowLane != null) {
+            identifier.setLane(flowLane.value());
+        } else if (identifier.getLane() == null) {
+            identifier.setLane(isBackground ? ExecutionLane.BACKGROUND : ExecutionLane.INTERACTIVE);
+        }
         identifier.setSourceName(source);
         identifier.setSourceIconPath(sourceIcon);
         identifier.setTaskId(firstStep.getClass().getSimpleName());
-        identifierLoadedStateMap.put(identifier, LoadedState.LOADED);
-        identifierPropagationLoadingTime.put(identifier, System.nanoTime());
+        RunState runState = registerRun(firstStep, identifier);
+        plan.trackReadiness(runState);
+        runState.setLoadedState(LoadedState.LOADED);
+        runState.setStartedAt(System.nanoTime());
         identifier.setRunning(true);
         firstStep.getContext(identifier).setData(parameter);
         identifier.setInvocationType(InvocationType.MANUAL);
-        executors.submit(identifier, () -> executeStep(firstStep, identifier, 1));
+        // before the first step is submitted, as a short run may stop before this method returns
         identifier.setBackground(isBackground);
+        executors.submit(identifier, () -> executeStep(firstStep, identifier, 1));
 
         if (! identifier.isBackground()) {
             notifyRunAdded(firstStep, identifier, true);
         } else {
             rateCounters.computeIfAbsent(firstStep, k -> new RateCounter(5000)).recordInvocation();
         }
-
-        return identifier;
     }
 
     public double getRate(Step<?> firstStep) {
@@ -316,17 +494,35 @@ public class StepManager {
     }
 
     public StepStatus getFlowStatus(Step<?> step, FlowRunIdentifier identifier, Step<?> excludeStep) {
-        List<Step<?>> flattened = flattenSteps(step);
-        if (flattened.stream().filter(t -> t != excludeStep).anyMatch(t -> t.getStatus(identifier) == StepStatus.RUNNING) ||
-                flattened.stream().anyMatch(t -> t.getStatus(identifier) == StepStatus.READY)) {
+        RunState runState = RunRegistry.get(identifier);
+        if (runState == null) {
+            return StepStatus.SUCCESS;
+        }
+        StepStatus excluded = runState.getLayout().isInFlow(runState.getLayout().slotOf(excludeStep)) ? excludeStep.getStatus(identifier) : null;
+        int running = runState.countOf(StepStatus.RUNNING) - (excluded == StepStatus.RUNNING ? 1 : 0);
+        if (running > 0 || runState.countOf(StepStatus.READY) > 0) {
             return StepStatus.RUNNING;
         }
-        if (flattened.stream().filter(t -> t != excludeStep).anyMatch(t -> t.getStatus(identifier) == StepStatus.FAILED)) {
+        int failed = runState.countOf(StepStatus.FAILED) - (excluded == StepStatus.FAILED ? 1 : 0);
+        if (failed > 0) {
             return StepStatus.FAILED;
         }
         return StepStatus.SUCCESS;
     }
 
+    /**
+     * Returns the status a run was persisted with, for runs that are no longer held in memory, or null if no flow stored it.
+     */
+    public StepStatus getStoredFlowStatus(String runId) {
+        for (Step<?> firstStep : firstSteps) {
+            Optional<FlowRunIdentifier> identifier = stepRunStorage.readIdentifier(getFlowId(firstStep), runId);
+            if (identifier.isPresent()) {
+                return identifier.get().getFlowStatus();
+            }
+        }
+        return null;
+    }
+
     public List<Throwable> collectFlowExceptions(Step<?> step, FlowRunIdentifier identifier) {
         log.info("Collecting exceptions for flow {} and identifier {}", getFlowId(step), identifier);
         List<Throwable> exceptions = flattenSteps(step).stream()
@@ -337,42 +533,329 @@ public class StepManager {
     }
 
     private void executeStep(Step<?> step, FlowRunIdentifier flowRunIdentifier, int retiesLeft) {
-        boolean success = false;
+        RetryBudget stepBudget = plan.getNode(step).getRetryBudget();
+        if (stepBudget != null) {
+            stepBudget.deposit();
+        }
+        if (retryBudget != null) {
+            retryBudget.deposit();
+        }
+        attemptStep(step, flowRunIdentifier, retiesLeft, 0);
+    }
 
-        if (step.getStatus(flowRunIdentifier) != StepStatus.FAILED_TRANSITIVELY) {
-            synchronized (flowRunIdentifier) {
-                step.getContext(flowRunIdentifier).setStatus(StepStatus.RUNNING);
-                notifyListeners(step, flowRunIdentifier);
-            }
+    /*
+     * Runs the step once; retryDelayMillis is the nominal delay before this attempt, 0 for a first attempt.
+     */
+    private void attemptStep(Step<?> step, FlowRunIdentifier flowRunIdentifier, int retiesLeft, long retryDelayMillis) {
+        if (step.getStatus(flowRunIdentifier) == StepStatus.FAILED_TRANSITIVELY) {
+            setStatusAndContinue(step, flowRunIdentifier, StepStatus.FAILED_TRANSITIVELY);
+            return;
+        }
+        if (flowRunIdentifier.isCancelRequested()) {
+            stepCancelled(step, flowRunIdentifier);
+            return;
+        }
+        FlowPlan.Node node = plan.getNode(step);
+        if (node.getCache() != null && retryDelayMillis == 0 && resultCache.restore(node, flowRunIdentifier)) {
             putThreadContextParams(step, flowRunIdentifier);
-            try {
-                boolean isDone = true;
+            log.info("Result of step {} restored from cache", qualifierInspector.getQualifierForBean(step));
+            setStatusAndContinue(step, flowRunIdentifier, StepStatus.SUCCESS);
+            return;
+        }
+        if (node.getCircuitBreaker() != null && !node.getCircuitBreaker().tryAcquire()) {
+            stepRan(step, flowRunIdentifier, retiesLeft, retryDelayMillis,
+                    new StepCircuitOpenException("Circuit breaker of step " + step.getClass().getSimpleName() + " is open"));
+            return;
+        }
+        if (node.getRateLimiter() != null) {
+            long waitNanos = node.getRateLimiter().reserve(flowRunIdentifier);
+            if (waitNanos > 0) {
+                // throttled attempts wait on the timer, not on a worker thread
+                executors.schedule(flowRunIdentifier, () -> admitAttempt(step, flowRunIdentifier, retiesLeft, retryDelayMillis),
+                        () -> executors.submit(flowRunIdentifier, () -> stepCancelled(step, flowRunIdentifier)), waitNanos, TimeUnit.NANOSECONDS);
+                return;
+            }
+        }
+        admitAttempt(step, flowRunIdentifier, retiesLeft, retryDelayMillis);
+    }
 
-                step.run();
+    private void admitAttempt(Step<?> step, FlowRunIdentifier flowRunIdentifier, int retiesLeft, long retryDelayMillis) {
+        StepBulkhead bulkhead = plan.getNode(step).getBulkhead();
+        if (bulkhead != null && !acquireSlot(bulkhead, step, flowRunIdentifier, retiesLeft, retryDelayMillis)) {
+            return;
+        }
+        runAttempt(step, flowRunIdentifier, retiesLeft, retryDelayMillis);
+    }
 
-                try {
-                    isDone = step.probe();
-                    success = true;
-                } catch (Throwable t) {
-                    log.error("Exception while probing step {}", step.getClass().getSimpleName(), t);
-                    step.getContext(flowRunIdentifier).setException(t);
-                }
+    /*
+     * Takes a slot of the step's @StepConcurrency bulkhead, or queues the attempt until a slot is handed to it.
+     * The step stays READY while it waits, and the wait counts as a task of the run.
+     */
+    private boolean acquireSlot(StepBulkhead bulkhead, Step<?> step, FlowRunIdentifier identifier, int retiesLeft, long retryDelayMillis) {
+        Runnable release = executors.hold(identifier);
+        boolean acquired;
+        try {
+            acquired = bulkhead.acquire(identifier,
+                    () -> {
+                        executors.submit(identifier, () -> runAttempt(step, identifier, retiesLeft, retryDelayMillis));
+                        release.run();
+                    },
+                    () -> {
+                        executors.submit(identifier, () -> stepCancelled(step, identifier));
+                        release.run();
+                    });
+        } catch (StepRejectedException e) {
+            release.run();
+            stepRan(step, identifier, retiesLeft, retryDelayMillis, e);
+            return false;
+        }
+        if (acquired) {
+            release.run();
+        } else {
+            notifyListeners(step, identifier);
+        }
+        return acquired;
+    }
 
-                if (!isDone) {
-                    long interval = step.getProbeInterval(flowRunIdentifier);
-                    TimeUnit unit = step.getProbeTimeUnit(flowRunIdentifier);
-                    executors.schedule(flowRunIdentifier, () -> executeProbe(step, flowRunIdentifier, Instant.now()), interval, unit);
-                    return;
-                }
+    private void releaseSlot(Step<?> step) {
+        StepBulkhead bulkhead = plan.getNode(step).getBulkhead();
+        if (bulkhead != null) {
+            bulkhead.release();
+        }
+    }
+
+    public List<StepLimitMetrics> getStepLimitMetrics() {
+        List<StepLimitMetrics> metrics = new ArrayList<>();
+        for (Step<?> step : allSteps) {
+            FlowPlan.Node node = plan.getNode(step);
+            if (node.getBulkhead() == null && node.getRateLimiter() == null && node.getCircuitBreaker() == null && node.getHedger() == null) {
+                continue;
+            }
+            StepLimitMetrics stepMetrics = new StepLimitMetrics();
+            stepMetrics.setStep(qualifierInspector.getQualifierForBean(step));
+            if (node.getBulkhead() != null) {
+                stepMetrics.setActiveCount(node.getBulkhead().getActiveCount());
+                stepMetrics.setQueuedCount(node.getBulkhead().getQueuedCount());
+            }
+            if (node.getRateLimiter() != null) {
+                stepMetrics.setThrottledCount(node.getRateLimiter().getThrottledCount());
+                stepMetrics.setThrottledMillis(node.getRateLimiter().getThrottledMillis());
+            }
+            if (node.getCircuitBreaker() != null) {
+                stepMetrics.setCircuitState(node.getCircuitBreaker().getState());
+                stepMetrics.setFailureRate(node.getCircuitBreaker().getFailureRate());
+                stepMetrics.setShortCircuitedCount(node.getCircuitBreaker().getShortCircuitedCount());
+            }
+            if (node.getHedger() != null) {
+                stepMetrics.setHedgeDelayMillis(node.getHedger().getDelayMillis());
+                stepMetrics.setHedgeCount(node.getHedger().getHedgeCount());
+                stepMetrics.setHedgeWinCount(node.getHedger().getHedgeWinCount());
+            }
+            metrics.add(stepMetrics);
+        }
+        return metrics;
+    }
+
+    public int getQueuePosition(Step<?> step, FlowRunIdentifier identifier) {
+        StepBulkhead bulkhead = plan.getNode(step).getBulkhead();
+        return bulkhead == null ? 0 : bulkhead.getQueuePosition(identifier);
+    }
+
+    private void runAttempt(Step<?> step, FlowRunIdentifier flowRunIdentifier, int retiesLeft, long retryDelayMillis) {
+        if (flowRunIdentifier.isCancelRequested()) {
+            // cancelled while waiting for a slot
+            releaseSlot(step);
+            stepCancelled(step, flowRunIdentifier);
+            return;
+        }
+        transition(flowRunIdentifier, () -> {
+            StepRunContext<?> context = step.getContext(flowRunIdentifier);
+            context.setCached(false);
+            context.setProgress(null);
+            context.setProbing(false);
+            context.setStatus(StepStatus.RUNNING);
+            notifyListeners(step, flowRunIdentifier);
+        });
+        putThreadContextParams(step, flowRunIdentifier);
+        if (step instanceof AsyncStep<?> asyncStep) {
+            awaitAsync(flowRunIdentifier, step, asyncStep::runAsync, failure -> {
+                releaseSlot(step);
+                recordOutcome(step, failure);
+                stepRan(step, flowRunIdentifier, retiesLeft, retryDelayMillis, failure);
+            });
+            return;
+        }
+        StepHedger hedger = plan.getNode(step).getHedger();
+        if (hedger != null) {
+            runHedged(step, flowRunIdentifier, retiesLeft, retryDelayMillis, hedger);
+            return;
+        }
+        Throwable failure = null;
+        StepExecution execution = startExecution(step, flowRunIdentifier, Thread.currentThread()::interrupt);
+        try {
+            step.run();
+        } catch (Throwable t) {
+            failure = t;
+        }
+        releaseSlot(step);
+        Throwable cancelled = finishExecution(step, flowRunIdentifier, execution);
+        if (cancelled != null) {
+            // the step may have ignored the interrupt, so don't leave it on the pooled thread
+            Thread.interrupted();
+            failure = cancelled;
+        }
+        recordOutcome(step, failure);
+        stepRan(step, flowRunIdentifier, retiesLeft, retryDelayMillis, failure);
+    }
+
+    /*
+     * Runs the step on this thread, and starts up to maxHedges more invocations of run() on other workers while it is
+     * still running after the hedge delay. Each invocation writes to a staged copy of the step's context; whichever
+     * invocation decides the attempt commits its copy and continues the flow, the others' writes are dropped.
+     */
+    private void runHedged(Step<?> step, FlowRunIdentifier identifier, int retiesLeft, long retryDelayMillis, StepHedger hedger) {
+        HedgedAttempt attempt = new HedgedAttempt(hedger.getConfig().maxHedges());
+        attempt.start();
+        StepExecution execution = startExecution(step, identifier, attempt::interrupt);
+        scheduleHedge(step, identifier, retiesLeft, retryDelayMillis, hedger, attempt, execution);
+        invokeHedged(step, identifier, retiesLeft, retryDelayMillis, hedger, attempt, execution, false);
+    }
+
+    private void scheduleHedge(Step<?> step, FlowRunIdentifier identifier, int retiesLeft, long retryDelayMillis, StepHedger hedger,
+                               HedgedAttempt attempt, StepExecution execution) {
+        long delayNanos = hedger.getDelayNanos();
+        if (delayNanos < 0 || !attempt.canHedge()) {
+            return;
+        }
+        // the timer task doesn't count against the run, so hold it until the hedge is submitted or no longer needed
+        Runnable release = executors.hold(identifier);
+        HashedWheelTimer.Timeout timeout = executors.watch(() -> {
+            if (attempt.canHedge()) {
+                executors.submit(identifier, () -> {
+                    if (attempt.enterHedge()) {
+                        hedger.hedged();
+                        log.info("Hedging step {} after {} ms", qualifierInspector.getQualifierForBean(step), TimeUnit.NANOSECONDS.toMillis(delayNanos));
+                        scheduleHedge(step, identifier, retiesLeft, retryDelayMillis, hedger, attempt, execution);
+                        invokeHedged(step, identifier, retiesLeft, retryDelayMillis, hedger, attempt, execution, true);
+                    }
+                });
+            }
+            release.run();
+        }, delayNanos, TimeUnit.NANOSECONDS);
+        attempt.setPendingHedge(() -> {
+            timeout.cancel();
+            release.run();
+        });
+    }
+
+    private void invokeHedged(Step<?> step, FlowRunIdentifier identifier, int retiesLeft, long retryDelayMillis, StepHedger hedger,
+                              HedgedAttempt attempt, StepExecution execution, boolean isHedge) {
+        putThreadContextParams(step, identifier);
+        StepRunContext<?> context = step.getContext(identifier);
+        StepRunContext<?> staged = stageContext(context);
+        long start = System.nanoTime();
+        Throwable failure = null;
+        CurrentRun.stage(step, staged);
+        try {
+            step.run();
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            CurrentRun.unstage();
+        }
+        if (failure == null) {
+            hedger.recordLatency(System.nanoTime() - start);
+        }
+        boolean decided = attempt.finish(failure == null);
+        // losers are interrupted, and the interrupt may land after run() returned
+        Thread.interrupted();
+        if (!decided) {
+            return;
+        }
+        if (isHedge && failure == null) {
+            hedger.hedgeWon();
+        }
+        commitContext(staged, context);
+        releaseSlot(step);
+        Throwable cancelled = finishExecution(step, identifier, execution);
+        if (cancelled != null) {
+            failure = cancelled;
+        }
+        recordOutcome(step, failure);
+        stepRan(step, identifier, retiesLeft, retryDelayMillis, failure);
+    }
+
+    /*
+     * A detached copy of what run() may read and write through the step's accessors, so that concurrent invocations
+     * don't see or overwrite each other's writes. Detached contexts notify no listeners.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static StepRunContext<?> stageContext(StepRunContext context) {
+        StepRunContext staged = new StepRunContext<>();
+        staged.setData(context.getData());
+        staged.setResult(context.getResult());
+        staged.setProgress(context.getProgress());
+        staged.setException(context.getException());
+        staged.setProbeInterval(context.getProbeInterval());
+        staged.setProbeTimeUnit(context.getProbeTimeUnit());
+        staged.setTimeout(context.getTimeout());
+        return staged;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void commitContext(StepRunContext staged, StepRunContext context) {
+        context.setData(staged.getData());
+        context.setProgress(staged.getProgress());
+        context.setProbeInterval(staged.getProbeInterval());
+        context.setProbeTimeUnit(staged.getProbeTimeUnit());
+        context.setTimeout(staged.getTimeout());
+        // last, as it notifies the run's listeners
+        context.setResult(staged.getResult());
+    }
+
+    /*
+     * Feeds the outcome of run() to the step's circuit breaker. Cancellations say nothing about the step's health.
+     */
+    private void recordOutcome(Step<?> step, Throwable failure) {
+        CircuitBreaker breaker = plan.getNode(step).getCircuitBreaker();
+        if (breaker == null || failure instanceof CancellationException) {
+            return;
+        }
+        if (failure == null) {
+            breaker.onSuccess();
+        } else {
+            breaker.onFailure();
+        }
+    }
+
+    private void stepRan(Step<?> step, FlowRunIdentifier flowRunIdentifier, int retiesLeft, long retryDelayMillis, Throwable failure) {
+        putThreadContextParams(step, flowRunIdentifier);
+        boolean success = false;
+        if (failure != null) {
+            log.error("Exception while running step {}", step.getClass().getSimpleName(), failure);
+            step.getContext(flowRunIdentifier).setException(failure);
+            FlowPlan.Node node = plan.getNode(step);
+            StepRetry retry = node.getRetry();
+            if (retiesLeft > 0 && retry != null && !flowRunIdentifier.isCancelRequested() && RetryPolicy.isRetryable(retry, failure) && acquireRetryBudget(node)) {
+                long nextDelayMillis = RetryPolicy.nextDelay(retry, retryDelayMillis);
+                executors.schedule(flowRunIdentifier, () -> attemptStep(step, flowRunIdentifier, retiesLeft - 1, nextDelayMillis),
+                        () -> executors.submit(flowRunIdentifier, () -> stepCancelled(step, flowRunIdentifier)), RetryPolicy.jitter(retry, nextDelayMillis), TimeUnit.MILLISECONDS);
+                return;
+            }
+        } else {
+            boolean isDone = true;
+            try {
+                isDone = step.probe();
+                success = true;
             } catch (Throwable t) {
-                log.error("Exception while running step {}", step.getClass().getSimpleName(), t);
+                log.error("Exception while probing step {}", step.getClass().getSimpleName(), t);
                 step.getContext(flowRunIdentifier).setException(t);
-                if (retiesLeft > 0 && step.getClass().isAnnotationPresent(StepRetry.class)) {
-                    StepRetry retry = step.getClass().getAnnotation(StepRetry.class);
-                    executors.schedule(flowRunIdentifier, () -> executeStep(step, flowRunIdentifier, retiesLeft - 1), retry.delay(), retry.unit());
-                    return;
-                }
+            }
 
+            if (!isDone) {
+                transition(flowRunIdentifier, () -> step.getContext(flowRunIdentifier).setProbing(true));
+                scheduleProbe(step, flowRunIdentifier, Instant.now());
+                return;
             }
         }
 
@@ -383,6 +866,154 @@ public class StepManager {
         }
     }
 
+    private boolean acquireRetryBudget(FlowPlan.Node node) {
+        RetryBudget refused = RetryPolicy.acquireBudget(node.getRetryBudget(), retryBudget);
+        if (refused == null) {
+            return true;
+        }
+        if (refused == retryBudget) {
+            log.warn("Global retry budget exhausted, not retrying step {}", node.getStep().getClass().getSimpleName());
+        } else {
+            log.warn("Retry budget of step {} exhausted, not retrying", node.getStep().getClass().getSimpleName());
+        }
+        return false;
+    }
+
+    /*
+     * Starts asynchronous work without holding the current thread. The run stays active until the stage completes,
+     * and the continuation then runs as a regular task of the run, with the failure (if any) unwrapped.
+     * If cancellableStep is given, cancelling the step's execution (or its timeout) cancels the stage.
+     */
+    private void awaitAsync(FlowRunIdentifier identifier, Step<?> cancellableStep, Supplier<CompletionStage<Void>> action, Consumer<Throwable> continuation) {
+        Runnable release = executors.hold(identifier);
+        CompletionStage<Void> stage;
+        try {
+            stage = action.get();
+        } catch (Throwable t) {
+            stage = CompletableFuture.failedFuture(t);
+        }
+        if (stage == null) {
+            stage = CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> future = stage.toCompletableFuture();
+        StepExecution execution = cancellableStep == null ? null : startExecution(cancellableStep, identifier, () -> future.cancel(true));
+        future.whenComplete((result, failure) -> {
+            Throwable cancelled = execution == null ? null : finishExecution(cancellableStep, identifier, execution);
+            Throwable outcome = cancelled != null ? cancelled : unwrap(failure);
+            try {
+                executors.submit(identifier, () -> continuation.accept(outcome));
+            } finally {
+                release.run();
+            }
+        });
+    }
+
+    /*
+     * Makes the executing step cancellable through its run, and enforces its @StepTimeout.
+     */
+    private StepExecution startExecution(Step<?> step, FlowRunIdentifier identifier, Runnable interrupt) {
+        StepExecution execution = new StepExecution(interrupt);
+        RunState runState = RunRegistry.get(identifier);
+        if (runState != null) {
+            runState.addExecution(step, execution);
+        }
+        long timeoutMillis = plan.getNode(step).getTimeoutMillis();
+        if (timeoutMillis > 0) {
+            execution.setTimeout(executors.watch(() -> execution.cancel(new StepTimeoutException(
+                    "Step " + step.getClass().getSimpleName() + " did not finish within " + timeoutMillis + " ms")), timeoutMillis, TimeUnit.MILLISECONDS));
+        }
+        if (identifier.isCancelRequested()) {
+            // cancel() may have looked at the run's executions before this one was added
+            execution.cancel(cancelled(identifier));
+        }
+        return execution;
+    }
+
+    private Throwable finishExecution(Step<?> step, FlowRunIdentifier identifier, StepExecution execution) {
+        RunState runState = RunRegistry.get(identifier);
+        if (runState != null) {
+            runState.removeExecution(step, execution);
+        }
+        return execution.finish();
+    }
+
+    private void stepCancelled(Step<?> step, FlowRunIdentifier identifier) {
+        step.getContext(identifier).setException(cancelled(identifier));
+        setStatusAndContinue(step, identifier, StepStatus.FAILED);
+    }
+
+    private static CancellationException cancelled(FlowRunIdentifier identifier) {
+        long deadline = identifier.getDeadline();
+        if (deadline > 0 && System.currentTimeMillis() >= deadline) {
+            return new CancellationException("Run " + identifier.getId() + " exceeded its deadline");
+        }
+        return new CancellationException("Run " + identifier.getId() + " was cancelled");
+    }
+
+    private void scheduleProbe(Step<?> step, FlowRunIdentifier identifier, Instant startTime) {
+        long interval = step.getProbeInterval(identifier);
+        TimeUnit unit = step.getProbeTimeUnit(identifier);
+        executors.schedule(identifier, () -> executeProbe(step, identifier, startTime),
+                () -> executors.submit(identifier, () -> stepCancelled(step, identifier)), interval, unit);
+    }
+
+    /*
+     * A failed step makes its @StepFailFast AND-joins unreachable, so the other upstream steps of those joins are cancelled.
+     */
+    private void cancelDoomedSiblings(Step<?> step, FlowRunIdentifier identifier) {
+        RunState runState = RunRegistry.get(identifier);
+        if (runState == null) {
+            return;
+        }
+        for (FlowPlan.Edge edge : plan.getNode(step).getDownstream()) {
+            FlowPlan.Node join = plan.getNode(edge.getDownstream());
+            if (edge.getKind() != FlowPlan.EdgeKind.ON_SUCCESS || !join.isFailFast() || join.getOperator() != StepLogicOperator.AND) {
+                continue;
+            }
+            for (Step<?> sibling : join.getSuccessDependencies()) {
+                StepExecution execution = sibling == step ? null : runState.getExecution(sibling);
+                if (execution != null) {
+                    execution.cancel(new CancellationException("Step " + join.getStep().getClass().getSimpleName()
+                            + " can no longer run because " + step.getClass().getSimpleName() + " failed"));
+                }
+            }
+        }
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        while ((failure instanceof CompletionException || failure instanceof ExecutionException) && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure;
+    }
+
+    /*
+     * Status transitions of a run are serialized through its mailbox rather than a lock, so they never overlap and are
+     * applied in the order they were posted. Step bodies never run inside a transition. A queued transition counts as
+     * a task of the run, so the run can't be seen as stopped before it is applied. Transitions posted from the timer
+     * thread are drained on the run's executor, so that they never delay other runs' timeouts.
+     */
+    private void transition(FlowRunIdentifier identifier, Runnable transition) {
+        RunState runState = RunRegistry.get(identifier);
+        if (runState == null) {
+            transition.run();
+            return;
+        }
+        Runnable release = executors.hold(identifier);
+        Runnable held = () -> {
+            try {
+                transition.run();
+            } finally {
+                release.run();
+            }
+        };
+        if (executors.isTimerThread()) {
+            runState.getMailbox().handOff(held);
+        } else {
+            runState.getMailbox().post(held);
+        }
+    }
+
     private void putThreadContextParams(Step<?> step, FlowRunIdentifier flowRunIdentifier) {
         MDC.put("task", qualifierInspector.getQualifierForBean(step));
         MDC.put("runId", flowRunIdentifier.getId());
@@ -391,12 +1022,17 @@ public class StepManager {
     private void executeProbe(Step<?> step, FlowRunIdentifier flowRunIdentifier, Instant startTime) {
         try {
 
-            synchronized (flowRunIdentifier) {
-                if (flowRunIdentifier.isPauseRequested()) {
+            if (flowRunIdentifier.isCancelRequested()) {
+                stepCancelled(step, flowRunIdentifier);
+                return;
+            }
+
+            if (flowRunIdentifier.isPauseRequested()) {
+                transition(flowRunIdentifier, () -> {
                     step.getContext(flowRunIdentifier).setStatus(StepStatus.PAUSED_PROBING);
                     notifyListeners(step, flowRunIdentifier);
-                    return;
-                }
+                });
+                return;
             }
 
             Duration timeout = step.getProbeTimeout(flowRunIdentifier);
@@ -423,9 +1059,7 @@ public class StepManager {
             if (canContinue) {
                 setStatusAndContinue(step, flowRunIdentifier, StepStatus.SUCCESS);
             } else {
-                long interval = step.getProbeInterval(flowRunIdentifier);
-                TimeUnit unit = step.getProbeTimeUnit(flowRunIdentifier);
-                executors.schedule(flowRunIdentifier, () -> executeProbe(step, flowRunIdentifier, startTime), interval, unit);
+                scheduleProbe(step, flowRunIdentifier, startTime);
             }
         } catch (Throwable t) {
             log.error("Exception while probing step {}", step.getClass().getSimpleName(), t);
@@ -435,125 +1069,101 @@ public class StepManager {
     }
 
     private void setStatusAndContinue(Step<?> step, FlowRunIdentifier identifier, StepStatus status) {
-        synchronized (identifier) {
-            step.getContext(identifier).setStatus(status);
-
-            List<Step<?>> dependentSteps = stepDependencyTree.get(step);
-
-            putThreadContextParams(step, identifier);
+        if (status == StepStatus.SUCCESS && plan.getNode(step).getCache() != null && !step.getContext(identifier).isCached()) {
+            resultCache.store(plan.getNode(step), identifier);
+        }
+        transition(identifier, () -> continueFrom(step, identifier, status));
+    }
 
-            boolean isUpstreamBlocked = false;
+    private void continueFrom(Step<?> step, FlowRunIdentifier identifier, StepStatus status) {
+        step.getContext(identifier).setStatus(status);
 
+        FlowPlan.Node node = plan.getNode(step);
 
-            isUpstreamBlocked = (dependentSteps != null && dependentSteps.stream().filter(dependentStep -> isOnSuccess(step, dependentStep)).anyMatch(dependentStep -> dependentStep.getStatus(identifier) == StepStatus.FAILED_TRANSITIVELY));
+        putThreadContextParams(step, identifier);
 
-            // handle rewind on error
-            if (status == StepStatus.FAILED) {
-                FailureBehavior failureBehavior = getFailureBehavior(step);
-                if (failureBehavior == FailureBehavior.PAUSE) {
-                    identifier.setPauseRequested(true);
-                    step.getContext(identifier).setStatus(StepStatus.PAUSED_FAILURE);
-                    notifyListeners(step, identifier);
-                }
+        boolean isUpstreamBlocked = false;
+        for (FlowPlan.Edge edge : node.getDownstream()) {
+            if (edge.getKind() == FlowPlan.EdgeKind.ON_SUCCESS && edge.getDownstream().getStatus(identifier) == StepStatus.FAILED_TRANSITIVELY) {
+                isUpstreamBlocked = true;
+                break;
             }
+        }
 
-            if (status == StepStatus.SUCCESS && identifier.isPauseRequested()) {
-                step.getContext(identifier).setStatus(StepStatus.PAUSED_SUCCESS);
-//                System.out.println("setStatusAndContinue: Setting " + step.getClass().getSimpleName() + " to PAUSED_SUCCESS");
+        // handle rewind on error
+        if (status == StepStatus.FAILED) {
+            cancelDoomedSiblings(step, identifier);
+            FailureBehavior failureBehavior = getFailureBehavior(step);
+            if (failureBehavior == FailureBehavior.PAUSE) {
+                identifier.setPauseRequested(true);
+                step.getContext(identifier).setStatus(StepStatus.PAUSED_FAILURE);
                 notifyListeners(step, identifier);
-                return;
             }
+        }
 
-            if (status == StepStatus.FAILED || isUpstreamBlocked) {
-                // step has failed or has a dependent task that is blocked due to failure
-                if (status == StepStatus.SUCCESS) {
-                    try {
-                        step.getContext(identifier).setStatus(StepStatus.REWINDING);
-                        notifyListeners(step, identifier);
-
-                        step.rewind();
-                        step.getContext(identifier).setStatus(StepStatus.REWIND_SUCCESS);
-                    } catch (Throwable t) {
-                        log.error("Exception while rewinding task {}", step.getClass().getSimpleName(), t);
-                        step.getContext(identifier).setStatus(StepStatus.REWIND_FAILED);
-                    }
-                }
-                if (!identifier.isPauseRequested()) {
-                    // rewind
-                    // go over all backward dependencies
-                    for (Field field : ReflectionUtils.getFields(step.getClass())) {
-                        if (field.isAnnotationPresent(OnSuccess.class)) {
-                            try {
-                                field.setAccessible(true);
-                                Step<?> dependency = (Step<?>) field.get(step);
-                                if (canRewind(dependency, identifier)) {
-                                    executors.submit(identifier, () -> rewind(dependency, identifier, true));
-                                }
-                            } catch (IllegalAccessException e) {
-                                throw new RuntimeException(e);
-                            }
-                        }
-                    }
-                }
-            }
-            if (status == StepStatus.FAILED_TRANSITIVELY) {
-                propagateFailuresBack(step, identifier);
-            }
-            // invoke dependent steps (forward direction)
-            if (dependentSteps != null) {
-                if (!identifier.isPauseRequested() || status == StepStatus.FAILED || status == StepStatus.FAILED_TRANSITIVELY) {
-                    for (Step<?> dependentStep : dependentSteps) {
-                        if (canExecute(dependentStep, identifier)) {
-                            if (dependentStep.getClass().isAnnotationPresent(StepRetry.class)) {
-                                StepRetry retry = dependentStep.getClass().getAnnotation(StepRetry.class);
-                                executors.submit(identifier, () -> executeStep(dependentStep, identifier, retry.maxRetries()));
-                            } else {
-                                executors.submit(identifier, () -> executeStep(dependentStep, identifier, 1));
-                            }
-                        }
+        if (status == StepStatus.SUCCESS && identifier.isPauseRequested()) {
+            step.getContext(identifier).setStatus(StepStatus.PAUSED_SUCCESS);
+//                System.out.println("setStatusAndContinue: Setting " + step.getClass().getSimpleName() + " to PAUSED_SUCCESS");
+            notifyListeners(step, identifier);
+            return;
+        }
+
+        if (status == StepStatus.FAILED || isUpstreamBlocked) {
+            // step has failed or has a dependent task that is blocked due to failure
+            if (status == StepStatus.SUCCESS) {
+                // rewound on a worker like any other step; rewound() then goes on with the dependencies
+                step.getContext(identifier).setStatus(StepStatus.PENDING_REWIND);
+                notifyListeners(step, identifier);
+                executors.submit(identifier, () -> rewind(step, identifier, true));
+            } else if (!identifier.isPauseRequested()) {
+                // rewind
+                // go over all backward dependencies
+                for (Step<?> dependency : node.getSuccessDependencies()) {
+                    if (canRewind(dependency, identifier)) {
+                        executors.submit(identifier, () -> rewind(dependency, identifier, true));
                     }
                 }
             }
-
-            if (step.getStatus(identifier) == StepStatus.SUCCESS && step.getClass().isAnnotationPresent(StepRewindTrigger.class)) {
-                StepRewindTrigger trigger = step.getClass().getAnnotation(StepRewindTrigger.class);
-                StepRewindType type = trigger.value();
-                if (type == StepRewindType.AUTOMATIC) {
-                    step.getContext(identifier).setStatus(StepStatus.PENDING_REWIND);
-                    notifyListeners(step, identifier);
-                    executors.submit(identifier, () -> rewind(step, identifier, false));
-                } else if (type == StepRewindType.MANUAL) {
-                    identifier.setRewindArmed(true);
+        }
+        if (status == StepStatus.FAILED_TRANSITIVELY) {
+            propagateFailuresBack(step, identifier);
+        }
+        // invoke dependent steps (forward direction)
+        if (!identifier.isPauseRequested() || status == StepStatus.FAILED || status == StepStatus.FAILED_TRANSITIVELY) {
+            for (Step<?> dependentStep : node.getDependents()) {
+                if (canExecute(dependentStep, identifier)) {
+                    int maxRetries = plan.getNode(dependentStep).getMaxRetries();
+                    executors.submit(identifier, () -> executeStep(dependentStep, identifier, maxRetries));
                 }
             }
-            notifyListeners(step, identifier);
         }
-    }
 
-    private boolean isOnSuccess(Step<?> step, Step<?> dependentStep) {
-        for (Field field : ReflectionUtils.getFields(dependentStep.getClass())) {
-            if (field.isAnnotationPresent(OnSuccess.class)) {
-                try {
-                    field.setAccessible(true);
-                    Step<?> dependency = (Step<?>) field.get(dependentStep);
-                    if (dependency == step) {
-                        return true;
-                    }
-                } catch (IllegalAccessException e) {
-                    throw new RuntimeException(e);
-                }
+        if (step.getStatus(identifier) == StepStatus.SUCCESS && node.isRewindTrigger()) {
+            StepRewindType type = node.getRewindType();
+            if (type == StepRewindType.AUTOMATIC) {
+                step.getContext(identifier).setStatus(StepStatus.PENDING_REWIND);
+                notifyListeners(step, identifier);
+                executors.submit(identifier, () -> rewind(step, identifier, false));
+            } else if (type == StepRewindType.MANUAL) {
+                identifier.setRewindArmed(true);
             }
         }
-        return false;
+        notifyListeners(step, identifier);
     }
 
     public void rewindAllRewindableSteps(Step<?> firstStep, FlowRunIdentifier identifier) {
+        trackReadiness(identifier);
+        acquireAdmission(firstStep, identifier);
         identifier.setRunning(true);
         identifier.setPaused(false);
         identifier.setPauseRequested(false);
+        identifier.setCancelRequested(false);
+        identifier.setDeadline(0);
 
-        List<Step<?>> flattened = flattenSteps(firstStep);
+        transition(identifier, () -> rewindSteps(flattenSteps(firstStep), identifier));
+    }
 
+    private void rewindSteps(List<Step<?>> flattened, FlowRunIdentifier identifier) {
         List<Step<?>> pausedFail = flattened.stream().filter(s -> s.getContext(identifier).getStatus() == StepStatus.PAUSED_FAILURE).toList();
         List<Step<?>> pausedSuccess = flattened.stream().filter(s -> s.getContext(identifier).getStatus() == StepStatus.PAUSED_SUCCESS).toList();
         List<Step<?>> pausedProbing = flattened.stream().filter(s -> s.getContext(identifier).getStatus() == StepStatus.PAUSED_PROBING).toList();
@@ -569,17 +1179,9 @@ public class StepManager {
         pausedRewindSuccess.forEach(s -> {
             s.getContext(identifier).setStatus(StepStatus.REWIND_SUCCESS);
             notifyListeners(s, identifier);
-            for (Field field : ReflectionUtils.getFields(s.getClass())) {
-                if (field.isAnnotationPresent(OnSuccess.class)) {
-                    try {
-                        field.setAccessible(true);
-                        Step<?> dependency = (Step<?>) field.get(s);
-                        if (canRewind(dependency, identifier)) {
-                            executors.submit(identifier, () -> rewind(dependency, identifier, false));
-                        }
-                    } catch (IllegalAccessException e) {
-                        throw new RuntimeException(e);
-                    }
+            for (Step<?> dependency : plan.getNode(s).getSuccessDependencies()) {
+                if (canRewind(dependency, identifier)) {
+                    executors.submit(identifier, () -> rewind(dependency, identifier, false));
                 }
             }
         });
@@ -594,17 +1196,9 @@ public class StepManager {
             for (Step<?> step : pausedFail) {
                 step.getContext(identifier).setStatus(StepStatus.FAILED);
                 notifyListeners(step, identifier);
-                for (Field field : ReflectionUtils.getFields(step.getClass())) {
-                    if (field.isAnnotationPresent(OnSuccess.class)) {
-                        try {
-                            field.setAccessible(true);
-                            Step<?> dependency = (Step<?>) field.get(step);
-                            if (canRewind(dependency, identifier)) {
-                                executors.submit(identifier, () -> rewind(dependency, identifier, false));
-                            }
-                        } catch (IllegalAccessException e) {
-                            throw new RuntimeException(e);
-                        }
+                for (Step<?> dependency : plan.getNode(step).getSuccessDependencies()) {
+                    if (canRewind(dependency, identifier)) {
+                        executors.submit(identifier, () -> rewind(dependency, identifier, false));
                     }
                 }
             }
@@ -612,7 +1206,7 @@ public class StepManager {
                 executors.submit(identifier, () -> rewind(step, identifier, false));
             }
         } else {
-               List<Step<?>> rewindableSteps = flattened.stream().filter(t -> t.getClass().isAnnotationPresent(StepRewindTrigger.class)).toList();
+               List<Step<?>> rewindableSteps = flattened.stream().filter(t -> plan.getNode(t).isRewindTrigger()).toList();
             for (Step<?> step : rewindableSteps) {
                 if (step.getStatus(identifier) == StepStatus.SUCCESS) {
                     executors.submit(identifier, () -> rewind(step, identifier, false));
@@ -622,53 +1216,106 @@ public class StepManager {
     }
 
     private void propagateFailuresBack(Step<?> step, FlowRunIdentifier identifier) {
-        synchronized (identifier) {
-            for (Field field : ReflectionUtils.getFields(step.getClass())) {
-                if (field.isAnnotationPresent(OnSuccess.class)) {
-                    try {
-                        field.setAccessible(true);
-                        Step<?> dependency = (Step<?>) field.get(step);
-                        if (dependency.getContext(identifier).getStatus() == StepStatus.NOT_STARTED) {
-                            dependency.getContext(identifier).setStatus(StepStatus.FAILED_TRANSITIVELY);
-                            notifyListeners(dependency, identifier);
-                            propagateFailuresBack(dependency, identifier);
-                        } else if (dependency.getContext(identifier).getStatus() == StepStatus.SUCCESS && hasNoActiveDependentSteps(dependency, identifier)) {
-                            if (!identifier.isPauseRequested()) {
-                                executors.submit(identifier, () -> rewind(dependency, identifier, true));
-                            } else {
-                                dependency.getContext(identifier).setStatus(StepStatus.PAUSED_SUCCESS);
-//                                System.out.println("propagateBackwards: Setting " + step.getClass().getSimpleName() + " to PAUSED_SUCCESS");
-                                notifyListeners(dependency, identifier);
-                            }
-                        }
-                    } catch (IllegalAccessException e) {
-                        throw new RuntimeException(e);
-                    }
+        for (Step<?> dependency : plan.getNode(step).getSuccessDependencies()) {
+            if (dependency.getContext(identifier).getStatus() == StepStatus.NOT_STARTED) {
+                dependency.getContext(identifier).setStatus(StepStatus.FAILED_TRANSITIVELY);
+                notifyListeners(dependency, identifier);
+                propagateFailuresBack(dependency, identifier);
+            } else if (dependency.getContext(identifier).getStatus() == StepStatus.SUCCESS && hasNoActiveDependentSteps(dependency, identifier)) {
+                if (!identifier.isPauseRequested()) {
+                    executors.submit(identifier, () -> rewind(dependency, identifier, true));
+                } else {
+                    dependency.getContext(identifier).setStatus(StepStatus.PAUSED_SUCCESS);
+//                        System.out.println("propagateBackwards: Setting " + step.getClass().getSimpleName() + " to PAUSED_SUCCESS");
+                    notifyListeners(dependency, identifier);
                 }
             }
         }
     }
 
     private boolean hasNoActiveDependentSteps(Step<?> step, FlowRunIdentifier identifier) {
-        List<Step<?>> dependentSteps = stepDependencyTree.get(step);
-        if (dependentSteps == null) {
-            return true;
+        for (Step<?> dependentStep : plan.getNode(step).getDependents()) {
+            StepStatus status = dependentStep.getStatus(identifier);
+            if (status != StepStatus.NOT_STARTED && status != StepStatus.FAILED_TRANSITIVELY) {
+                return false;
+            }
         }
-        return dependentSteps.stream().allMatch(dependentStep -> dependentStep.getStatus(identifier) == StepStatus.NOT_STARTED ||
-                dependentStep.getStatus(identifier) == StepStatus.FAILED_TRANSITIVELY);
+        return true;
     }
 
     public void pause(FlowRunIdentifier identifier) {
         identifier.setPauseRequested(true);
     }
 
+    /**
+     * Cancels the run. A queued run is removed from its flow's queue. In a started run, executing steps are interrupted,
+     * steps waiting for a probe or retry as well as steps not yet started fail with a {@link CancellationException},
+     * and no further steps start. Succeeded steps are not rewound automatically.
+     */
+    public void cancel(Step<?> firstStep, FlowRunIdentifier identifier) {
+        FlowAdmission admission = admissions.get(firstStep);
+        if ((admission != null && admission.cancel(identifier)) || !identifier.isRunning()) {
+            return;
+        }
+        identifier.setCancelRequested(true);
+        identifier.setPauseRequested(true);
+        RunState runState = RunRegistry.get(identifier);
+        if (runState != null) {
+            for (StepExecution execution : runState.getExecutions()) {
+                execution.cancel(cancelled(identifier));
+            }
+        }
+        for (Step<?> step : flattenSteps(firstStep)) {
+            StepBulkhead bulkhead = plan.getNode(step).getBulkhead();
+            if (bulkhead != null) {
+                bulkhead.cancel(identifier);
+            }
+        }
+        executors.cancelScheduled(identifier);
+        // the invokers' futures fail right away rather than when the last interrupted step gives up
+        for (Step<?> step : flattenSteps(firstStep)) {
+            if (step instanceof FlowInvoker<?, ?> invoker) {
+                invoker.runCancelled(identifier);
+            }
+        }
+    }
+
+    public void cancel(FlowRunIdentifier identifier) {
+        RunState runState = RunRegistry.get(identifier);
+        if (runState != null) {
+            cancel(runState.getFirstStep(), identifier);
+            return;
+        }
+        for (FlowAdmission admission : admissions.values()) {
+            if (admission.cancel(identifier)) {
+                return;
+            }
+        }
+    }
+
+    private void watchDeadline(Step<?> firstStep, FlowRunIdentifier identifier) {
+        long delay = Math.max(0, identifier.getDeadline() - System.currentTimeMillis());
+        executors.watch(() -> SharedExecutors.WORKERS.execute(() -> {
+            // the deadline may have been lifted by a resume since
+            if (identifier.getDeadline() > 0 && System.currentTimeMillis() >= identifier.getDeadline()) {
+                cancel(firstStep, identifier);
+            }
+        }), delay, TimeUnit.MILLISECONDS);
+    }
+
     public void resume(Step<?> firstStep, FlowRunIdentifier identifier) {
-        List<Step<?>> flattened = flattenSteps(firstStep);
+        trackReadiness(identifier);
+        acquireAdmission(firstStep, identifier);
         identifier.setPaused(false);
         identifier.setPauseRequested(false);
+        identifier.setCancelRequested(false);
+        identifier.setDeadline(0);
         identifier.setOverrideDisplayValues(false);
         identifier.setRunning(true);
+        transition(identifier, () -> resumeSteps(flattenSteps(firstStep), identifier));
+    }
 
+    private void resumeSteps(List<Step<?>> flattened, FlowRunIdentifier identifier) {
         // mark all transitive failed steps as NOT_STARTED
         List<Step<?>> failedTransitively = flattened.stream().filter(s -> s.getContext(identifier).getStatus() == StepStatus.FAILED_TRANSITIVELY).toList();
         failedTransitively.forEach(s -> {
@@ -685,12 +1332,8 @@ public class StepManager {
 
         pausedFail.forEach(s -> {
             s.getContext(identifier).setStatus(StepStatus.READY);
-            if (s.getClass().isAnnotationPresent(StepRetry.class)) {
-                StepRetry retry = s.getClass().getAnnotation(StepRetry.class);
-                executors.submit(identifier, () -> executeStep(s, identifier, retry.maxRetries()));
-            } else {
-                executors.submit(identifier, () -> executeStep(s, identifier, 1));
-            }
+            int maxRetries = plan.getNode(s).getMaxRetries();
+            executors.submit(identifier, () -> executeStep(s, identifier, maxRetries));
         });
 
         pausedSuccess.forEach(s -> {
@@ -698,11 +1341,9 @@ public class StepManager {
         });
 
         pausedProbing.forEach(s -> {
-            long interval = s.getProbeInterval(identifier);
-            TimeUnit unit = s.getProbeTimeUnit(identifier);
             s.getContext(identifier).setStatus(StepStatus.RUNNING);
             notifyListeners(s, identifier);
-            executors.schedule(identifier, () -> executeProbe(s, identifier, Instant.now()), interval, unit);
+            scheduleProbe(s, identifier, Instant.now());
         });
 
         pausedRewindFailures.forEach(s -> {
@@ -714,167 +1355,55 @@ public class StepManager {
         pausedRewindSuccess.forEach(s -> {
             s.getContext(identifier).setStatus(StepStatus.REWIND_SUCCESS);
             notifyListeners(s, identifier);
-            for (Field field : ReflectionUtils.getFields(s.getClass())) {
-                if (field.isAnnotationPresent(OnSuccess.class)) {
-                    try {
-                        field.setAccessible(true);
-                        Step<?> dependency = (Step<?>) field.get(s);
-                        if (canRewind(dependency, identifier)) {
-                            executors.submit(identifier, () -> rewind(dependency, identifier, false));
-                        }
-                    } catch (IllegalAccessException e) {
-                        throw new RuntimeException(e);
-                    }
+            for (Step<?> dependency : plan.getNode(s).getSuccessDependencies()) {
+                if (canRewind(dependency, identifier)) {
+                    executors.submit(identifier, () -> rewind(dependency, identifier, false));
                 }
             }
         });
     }
 
+    /*
+     * Must be called from a transition of the run.
+     */
     public boolean canExecute(Step<?> step, FlowRunIdentifier flowRunIdentifier) {
-        synchronized (flowRunIdentifier) {
-            StepRunContext<?> context = step.getContext(flowRunIdentifier);
-
-            if (context.getStatus() != StepStatus.NOT_STARTED) {
-                return false;
-            }
-
-            Class<?> taskClass = step.getClass();
-
-            StepLogicOperator operator = StepLogicOperator.AND;
+        StepRunContext<?> context = step.getContext(flowRunIdentifier);
 
-            if (taskClass.isAnnotationPresent(StepTriggerLogic.class)) {
-                operator  = taskClass.getAnnotation(StepTriggerLogic.class).value();
-            }
-
-            boolean canProceed = operator == StepLogicOperator.AND;
-            boolean allConditionsMet = operator == StepLogicOperator.AND;
-
-
-            if (! canProceed) {
-                log.info("Step {} can't proceed", taskClass.getSimpleName());
-            }
-
-            // get the fields of the class
-            Field[] fields = ReflectionUtils.getFields(taskClass);
-            for (Field field : fields) {
-                // check if the field has the @OnSuccess annotation
-                if (field.isAnnotationPresent(OnSuccess.class)) {
-                    try {
-                        field.setAccessible(true);
-                        Step<?> value = (Step<?>) field.get(step);
-                        if (operator == StepLogicOperator.AND) {
-                            if (value.getStatus(flowRunIdentifier).isFailed() || value.getStatus(flowRunIdentifier) == StepStatus.FAILED_TRANSITIVELY) {
-                                allConditionsMet = false;
-                            }
-                            if (value.getStatus(flowRunIdentifier) == StepStatus.RUNNING || value.getStatus(flowRunIdentifier) == StepStatus.READY ||
-                                    value.getStatus(flowRunIdentifier) == StepStatus.NOT_STARTED ||
-                                    (value.getStatus(flowRunIdentifier) == StepStatus.SUCCESS && StringUtils.isNotEmpty(field.getAnnotation(OnSuccess.class).value()) && !field.getAnnotation(OnSuccess.class).value().equals(value.getContext(flowRunIdentifier).getResult())) ||
-                                    (value.getStatus(flowRunIdentifier) == StepStatus.FAILED && !field.getAnnotation(OnSuccess.class).value().equals(value.getContext(flowRunIdentifier).getResult()))) {
-                                canProceed = false;
-                            }
-                        } else if (operator == StepLogicOperator.OR) {
-                            if (value.getStatus(flowRunIdentifier) == StepStatus.SUCCESS && field.getAnnotation(OnSuccess.class).value().equals(value.getContext(flowRunIdentifier).getResult())) {
-                                allConditionsMet = true;
-                                canProceed = true;
-                                break;
-                            }
-                            if (value.getStatus(flowRunIdentifier).isFailed() || value.getStatus(flowRunIdentifier) == StepStatus.FAILED_TRANSITIVELY) {
-                                canProceed = true;
-                            }
-                        }
-                    } catch (IllegalAccessException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-                if (field.isAnnotationPresent(OnComplete.class)) {
-                    try {
-                        field.setAccessible(true);
-                        Step<?> value = (Step<?>) field.get(step);
-                        if (operator == StepLogicOperator.AND) {
-                            if (value.getContext(flowRunIdentifier).getStatus() != StepStatus.SUCCESS &&
-                                    value.getContext(flowRunIdentifier).getStatus() != StepStatus.FAILED &&
-                                    value.getContext(flowRunIdentifier).getStatus() != StepStatus.FAILED_TRANSITIVELY) {
-                                canProceed = false;
-                            }
-                        } else if (operator == StepLogicOperator.OR) {
-                            if (value.getContext(flowRunIdentifier).getStatus() == StepStatus.SUCCESS ||
-                                    value.getContext(flowRunIdentifier).getStatus() == StepStatus.FAILED ||
-                                    value.getContext(flowRunIdentifier).getStatus() == StepStatus.FAILED_TRANSITIVELY) {
-                                canProceed = true;
-                                allConditionsMet = true;
-                                break;
-                            }
-                        }
-                    } catch (IllegalAccessException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-                if (field.isAnnotationPresent(OnUpstreamFailure.class)) {
-                    try {
-                        field.setAccessible(true);
-                        Step<?> value = (Step<?>) field.get(step);
-                        StepStatus status = value.getContext(flowRunIdentifier).getStatus();
-                        if (operator == StepLogicOperator.AND) {
-                            if (status != StepStatus.FAILED && status != StepStatus.FAILED_TRANSITIVELY) {
-                                allConditionsMet = false;
-                            }
-                            if (status == StepStatus.RUNNING || status == StepStatus.READY || status == StepStatus.SUCCESS) {
-                                canProceed = false;
-                            }
-                        } else if (operator == StepLogicOperator.OR) {
-                            if (status == StepStatus.FAILED || status == StepStatus.FAILED_TRANSITIVELY) {
-                                canProceed = true;
-                                allConditionsMet = true;
-                                break;
-                            }
-                        }
-                    } catch (IllegalAccessException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-            }
-
-            if (allConditionsMet) {
-                if (canProceed) {
-                    context.setStatus(StepStatus.READY);
-                }
-            } else {
-                context.setStatus(StepStatus.FAILED_TRANSITIVELY);
-                return true;
-            }
+        if (context.getStatus() != StepStatus.NOT_STARTED) {
+            return false;
+        }
 
-            return canProceed;
+        FlowPlan.Readiness readiness = plan.getReadiness(RunRegistry.get(flowRunIdentifier), step);
+        if (readiness == FlowPlan.Readiness.UPSTREAM_FAILED) {
+            context.setStatus(StepStatus.FAILED_TRANSITIVELY);
+            return true;
+        }
+        if (readiness == FlowPlan.Readiness.READY) {
+            context.setStatus(StepStatus.READY);
+            return true;
         }
+        return false;
     }
 
     private boolean canRewind(Step<?> step, FlowRunIdentifier identifier) {
         putThreadContextParams(step, identifier);
-        synchronized (identifier) {
-            if (step.getStatus(identifier) != StepStatus.SUCCESS) {
+        if (step.getStatus(identifier) != StepStatus.SUCCESS) {
+            return false;
+        }
+        FlowPlan.Node node = plan.getNode(step);
+        for (FlowPlan.Edge edge : node.getDownstream()) {
+            if (edge.getKind() == FlowPlan.EdgeKind.ON_SUCCESS && !edge.hasExpectedResult()
+                    && edge.getDownstream().getStatus(identifier) == StepStatus.NOT_STARTED) {
                 return false;
             }
-            for (Step<?> dependentStep : stepDependencyTree.get(step)) {
-                for (Field f : ReflectionUtils.getFields(dependentStep.getClass())) {
-                    if (f.isAnnotationPresent(OnSuccess.class)) {
-                        try {
-                            f.setAccessible(true);
-                            Step<?> dependency = (Step<?>) f.get(dependentStep);
-                            if (dependency == step && dependentStep.getStatus(identifier) == StepStatus.NOT_STARTED
-                                    && (StringUtils.isEmpty(f.getAnnotation(OnSuccess.class).value()))) {
-                                return false;
-                            }
-                        } catch (IllegalAccessException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }
-                }
-                if (dependentStep.getStatus(identifier) == StepStatus.SUCCESS ||
-                        dependentStep.getStatus(identifier) == StepStatus.RUNNING ||
-                        dependentStep.getStatus(identifier) == StepStatus.READY ||
-                        dependentStep.getStatus(identifier) == StepStatus.PENDING_REWIND ||
-                        dependentStep.getStatus(identifier) == StepStatus.REWINDING) {
-                    return false;
-                }
+        }
+        for (Step<?> dependentStep : node.getDependents()) {
+            if (dependentStep.getStatus(identifier) == StepStatus.SUCCESS ||
+                    dependentStep.getStatus(identifier) == StepStatus.RUNNING ||
+                    dependentStep.getStatus(identifier) == StepStatus.READY ||
+                    dependentStep.getStatus(identifier) == StepStatus.PENDING_REWIND ||
+                    dependentStep.getStatus(identifier) == StepStatus.REWINDING) {
+                return false;
             }
         }
         step.getContext(identifier).setStatus(StepStatus.PENDING_REWIND);
@@ -884,87 +1413,92 @@ public class StepManager {
 
     private void rewind(Step<?> step, FlowRunIdentifier identifier, boolean isFailure) {
         putThreadContextParams(step, identifier);
+        transition(identifier, () -> {
+            step.getContext(identifier).setStatus(StepStatus.REWINDING);
+            notifyListeners(step, identifier);
+        });
+        if (step instanceof AsyncStep<?> asyncStep) {
+            awaitAsync(identifier, null, asyncStep::rewindAsync, failure -> rewound(step, identifier, isFailure, failure));
+            return;
+        }
+        Throwable failure = null;
         try {
-            synchronized (identifier) {
-                step.getContext(identifier).setStatus(StepStatus.REWINDING);
-                notifyListeners(step, identifier);
-            }
             step.rewind();
-            step.getContext(identifier).setStatus(StepStatus.REWIND_SUCCESS);
-
-            if (identifier.isPauseRequested()) {
-                step.getContext(identifier).setStatus(StepStatus.PAUSED_REWIND_SUCCESS);
-                notifyListeners(step, identifier);
-                return;
-            }
-
         } catch (Throwable t) {
-            log.error("Exception while rewinding step {}", step.getClass().getSimpleName(), t);
-            step.getContext(identifier).setStatus(StepStatus.REWIND_FAILED);
+            failure = t;
+        }
+        rewound(step, identifier, isFailure, failure);
+    }
 
-            if (getFailureBehavior(step) == FailureBehavior.PAUSE) {
-                identifier.setPauseRequested(true);
-            }
+    private void rewound(Step<?> step, FlowRunIdentifier identifier, boolean isFailure, Throwable failure) {
+        transition(identifier, () -> {
+            putThreadContextParams(step, identifier);
+            if (failure == null) {
+                step.getContext(identifier).setStatus(StepStatus.REWIND_SUCCESS);
 
-            if (identifier.isPauseRequested()) {
-                step.getContext(identifier).setStatus(StepStatus.PAUSED_REWIND_FAILURE);
-                notifyListeners(step, identifier);
-                return;
-            }
-        }
+                if (identifier.isPauseRequested()) {
+                    step.getContext(identifier).setStatus(StepStatus.PAUSED_REWIND_SUCCESS);
+                    notifyListeners(step, identifier);
+                    return;
+                }
+            } else {
+                log.error("Exception while rewinding step {}", step.getClass().getSimpleName(), failure);
+                step.getContext(identifier).setStatus(StepStatus.REWIND_FAILED);
 
+                if (getFailureBehavior(step) == FailureBehavior.PAUSE) {
+                    identifier.setPauseRequested(true);
+                }
 
+                if (identifier.isPauseRequested()) {
+                    step.getContext(identifier).setStatus(StepStatus.PAUSED_REWIND_FAILURE);
+                    notifyListeners(step, identifier);
+                    return;
+                }
+            }
 
-        for (Field field : ReflectionUtils.getFields(step.getClass())) {
-            if (field.isAnnotationPresent(OnSuccess.class)) {
-                try {
-                    field.setAccessible(true);
-                    Step<?> dependency = (Step<?>) field.get(step);
-                    if (canRewind(dependency, identifier)) {
-                        executors.submit(identifier, () -> rewind(dependency, identifier, isFailure));
-                    }
-                } catch (IllegalAccessException e) {
-                    throw new RuntimeException(e);
+            for (Step<?> dependency : plan.getNode(step).getSuccessDependencies()) {
+                if (canRewind(dependency, identifier)) {
+                    executors.submit(identifier, () -> rewind(dependency, identifier, isFailure));
                 }
             }
-        }
-        synchronized (identifier) {
             notifyListeners(step, identifier);
-        }
+        });
     }
 
-    public StepStatus getFlowStatus(FlowRunIdentifier identifier, List<Step<?>> flowSteps) {
-        if (flowSteps.stream().anyMatch(t -> t.getStatus(identifier) == StepStatus.RUNNING) ||
-                flowSteps.stream().anyMatch(t -> t.getStatus(identifier) == StepStatus.READY)) {
+    public StepStatus getFlowStatus(FlowRunIdentifier identifier) {
+        RunState runState = RunRegistry.get(identifier);
+        if (runState == null) {
+            return StepStatus.NOT_STARTED;
+        }
+        if (runState.countOf(StepStatus.RUNNING) > 0 || runState.countOf(StepStatus.READY) > 0) {
             return StepStatus.RUNNING;
         }
-        if (flowSteps.stream().anyMatch(t -> t.getStatus(identifier) == StepStatus.PENDING_REWIND) ||
-                flowSteps.stream().anyMatch(t -> t.getStatus(identifier) == StepStatus.REWINDING)) {
+        if (runState.countOf(StepStatus.PENDING_REWIND) > 0 || runState.countOf(StepStatus.REWINDING) > 0) {
             return StepStatus.REWINDING;
         }
-        if (flowSteps.stream().anyMatch(t -> t.getStatus(identifier) == StepStatus.PAUSED_FAILURE)) {
+        if (runState.countOf(StepStatus.PAUSED_FAILURE) > 0) {
             return StepStatus.PAUSED_FAILURE;
         }
-        if (flowSteps.stream().anyMatch(t -> t.getStatus(identifier) == StepStatus.FAILED)) {
+        if (runState.countOf(StepStatus.FAILED) > 0) {
             return StepStatus.FAILED;
         }
-        if (flowSteps.stream().anyMatch(t -> t.getStatus(identifier) == StepStatus.PAUSED_PROBING)) {
+        if (runState.countOf(StepStatus.PAUSED_PROBING) > 0) {
             return StepStatus.PAUSED_PROBING;
         }
-        if (flowSteps.stream().anyMatch(t -> t.getStatus(identifier) == StepStatus.PAUSED_SUCCESS)) {
+        if (runState.countOf(StepStatus.PAUSED_SUCCESS) > 0) {
             return StepStatus.PAUSED_SUCCESS;
         }
 
-        if (flowSteps.stream().anyMatch(t -> t.getStatus(identifier) == StepStatus.PAUSED_REWIND_FAILURE)) {
+        if (runState.countOf(StepStatus.PAUSED_REWIND_FAILURE) > 0) {
             return StepStatus.PAUSED_REWIND_FAILURE;
         }
 
-        if (flowSteps.stream().anyMatch(t -> t.getStatus(identifier) == StepStatus.PAUSED_REWIND_SUCCESS)) {
+        if (runState.countOf(StepStatus.PAUSED_REWIND_SUCCESS) > 0) {
             return StepStatus.PAUSED_REWIND_SUCCESS;
         }
 
-        if (flowSteps.stream().anyMatch(t -> t.getStatus(identifier) == StepStatus.SUCCESS ||
-                t.getStatus(identifier) == StepStatus.REWIND_SUCCESS || t.getStatus(identifier) == StepStatus.REWIND_FAILED)) {
+        if (runState.countOf(StepStatus.SUCCESS) > 0 ||
+                runState.countOf(StepStatus.REWIND_SUCCESS) > 0 || runState.countOf(StepStatus.REWIND_FAILED) > 0) {
             return StepStatus.SUCCESS;
         }
         return StepStatus.NOT_STARTED;
@@ -983,9 +1517,16 @@ public class StepManager {
         listeners.forEach(listener -> listener.stepChanged(step, identifier));
     }
 
+    private void runStopped(FlowRunIdentifier identifier) {
+        RunState runState = RunRegistry.get(identifier);
+        if (runState != null) {
+            runStopped(runState.getFirstStep(), identifier);
+        }
+    }
+
     private void runStopped(Step<?> firstStep, FlowRunIdentifier identifier) {
         if (identifier != null && executors.getCounter(identifier) == 0) {
-            StepStatus rootStatus = getFlowStatus(identifier, flattenSteps(firstStep));
+            StepStatus rootStatus = getFlowStatus(identifier);
             if (rootStatus == StepStatus.SUCCESS || rootStatus == StepStatus.FAILED || rootStatus.isPaused()) {
                 log.info("Storing step context for flow {} and identifier {}", getFlowId(firstStep), identifier);
                 String flowId = getFlowId(firstStep);
@@ -993,10 +1534,23 @@ public class StepManager {
                 identifier.setTags(getTags(firstStep, identifier).stream().map(TaskTagItem::new).toList());
 //                System.out.println("Setting identifier to not running");
                 identifier.setRunning(false);
+                RunState runState = RunRegistry.get(identifier);
+                if (runState != null) {
+                    plan.releaseReadiness(runState);
+                }
+                FlowAdmission admission = admissions.get(firstStep);
+                if (admission != null) {
+                    admission.release(identifier);
+                }
                 if (identifier.isPauseRequested() && rootStatus.isPaused()) {
                     identifier.setPaused(true);
                     notifyListeners(firstStep, identifier);
                 }
+                for (Step<?> step : flattenSteps(firstStep)) {
+                    if (step instanceof FlowInvoker<?, ?> invoker) {
+                        invoker.runStopped(identifier, rootStatus);
+                    }
+                }
                 RunRetentionConfig retentionConfig = firstStep.getClass().getAnnotation(RunRetentionConfig.class);
                 boolean shouldSave = true;
                 if (retentionConfig != null) {
@@ -1012,11 +1566,19 @@ public class StepManager {
                     List<Step<?>> flattened = flattenSteps(firstStep);
                     stepRunStorage.storeStepContext(flowId, flattened, identifier);
                     appender.storeLogs(flowId, flattened, identifier);
+                    if (runState != null) {
+                        RunRegistry.finished(runState, System.currentTimeMillis());
+                        unloadRuns(RunRegistry.loaded(runState, maxLoadedRuns));
+                        evictRuns(firstStep);
+                    }
                 } else {
                     executors.schedule(identifier, () -> {
                         deleteRun(firstStep, identifier);
                     }, rootStatus == StepStatus.FAILED ? retentionConfig.failureTTLMillis() : retentionConfig.successfulTTLMillis(), TimeUnit.MILLISECONDS);
                 }
+                if (runState != null) {
+                    journal.runFinished(runState);
+                }
             }
 //            if (rootStatus != StepStatus.RUNNING && rootStatus != StepStatus.READY && rootStatus != StepStatus.REWINDING && rootStatus != StepStatus.PENDING_REWIND) {
 //                if (! identifier.isBackground()) {
@@ -1029,29 +1591,55 @@ public class StepManager {
     }
 
     private void deleteRun(Step<?> firstStep, FlowRunIdentifier identifier) {
-        List<Step<?>> flattened = flattenSteps(firstStep);
-        flattened.forEach(s -> {
-            s.contextMap.remove(identifier);
-        });
+        RunRegistry.remove(identifier);
+        runRemoved(firstStep, identifier);
+    }
+
+    /*
+     * Drops the oldest persisted runs of the flow according to the bean-runner.runs.max-per-flow and max-age settings.
+     */
+    private void evictRuns(Step<?> firstStep) {
+        long minFinishedAt = maxRunAge.isZero() ? 0 : System.currentTimeMillis() - maxRunAge.toMillis();
+        for (RunState runState : RunRegistry.evict(firstStep, maxRunsPerFlow, minFinishedAt)) {
+            runRemoved(firstStep, runState.getIdentifier());
+        }
+    }
+
+    /*
+     * Keeps the run listed but drops its contexts and logs, which are read from storage again when the run is opened.
+     */
+    private void unloadRuns(List<RunState> runStates) {
+        for (RunState runState : runStates) {
+            FlowRunIdentifier identifier = runState.getIdentifier();
+            identifier.setOverrideDisplayValues(true);
+            runState.unload();
+            appender.unloadLogs(flattenSteps(runState.getFirstStep()), identifier);
+        }
+    }
+
+    private void runRemoved(Step<?> firstStep, FlowRunIdentifier identifier) {
+        executors.cancelScheduled(identifier);
+        appender.unloadLogs(flattenSteps(firstStep), identifier);
         if (!identifier.isBackground()) {
             listeners.forEach(listener -> listener.runRemoved(firstStep, identifier));
         }
     }
 
     public List<Step<?>> flattenSteps(Step<?> firstStep) {
+        List<Step<?>> flowSteps = plan.getFlowSteps(firstStep);
+        if (flowSteps != null) {
+            return flowSteps;
+        }
         List<Step<?>> visitedSteps = new ArrayList<>();
-        return flattenSteps(firstStep, visitedSteps);
+        flattenSteps(firstStep, visitedSteps, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return visitedSteps;
     }
 
-    private List<Step<?>> flattenSteps(Step<?> step, List<Step<?>> visitedSteps) {
-        if (!visitedSteps.contains(step)) {
+    private void flattenSteps(Step<?> step, List<Step<?>> visitedSteps, Set<Step<?>> visited) {
+        if (visited.add(step)) {
             visitedSteps.add(step);
-            List<Step<?>> dependentTasks = getChildSteps(step);
-            if (dependentTasks != null) {
-                dependentTasks.forEach(dt -> flattenSteps(dt, visitedSteps));
-            }
+            getChildSteps(step).forEach(dt -> flattenSteps(dt, visitedSteps, visited));
         }
-        return visitedSteps;
     }
 
     private String getFlowId(Step<?> step) {
@@ -1069,30 +1657,7 @@ public class StepManager {
      * Returns the root step of the step tree that contains the given step.
      */
     public Step<?> getFirstStep(Step<?> step) {
-        for (Step<?> firstStep : firstSteps) {
-            if (containsStep(firstStep, step)) {
-                return firstStep;
-            }
-        }
-        return null;
-    }
-
-    /*
-     * Returns true if the step tree contains the given step.
-     */
-    private boolean containsStep(Step<?> firstStep, Step<?> step) {
-        if (firstStep.equals(step)) {
-            return true;
-        }
-        List<Step<?>> dependentSteps = stepDependencyTree.get(firstStep);
-        if (dependentSteps != null) {
-            for (Step<?> dependentStep : dependentSteps) {
-                if (containsStep(dependentStep, step)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return plan.getFirstStep(step);
     }
 
     public List<Step<?>> getChildSteps(Step<?> step) {
@@ -1129,11 +1694,7 @@ public class StepManager {
     }
 
     FailureBehavior getFailureBehavior(Step<?> step) {
-        Step<?> firstStep = getFirstStep(step);
-        if (firstStep.getClass().isAnnotationPresent(FlowPauseBehavior.class)) {
-            return firstStep.getClass().getAnnotation(FlowPauseBehavior.class).failureBehavior();
-        }
-        return FailureBehavior.REWIND;
+        return plan.getFailureBehavior(step);
     }
 
 }
@@ -0,0 +1,89 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.StepRateLimit;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket for a step annotated with {@link StepRateLimit}, shared by all runs that execute the step bean, with a
+ * bucket per value of the key run property when a key is set. Permits are reserved rather than waited for: the caller
+ * is told how long to wait, so it can be delayed with a timer instead of blocking a thread.
+ */
+public class StepRateLimiter {
+
+    private final String key;
+    private final long intervalNanos;
+
+    /*
+     * How far ahead of the schedule a permit may be handed out, which is what lets a burst through at once.
+     */
+    private final long burstNanos;
+
+    /*
+     * The theoretical arrival time of the next permit per bucket, in System.nanoTime() terms (GCRA).
+     */
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder throttledNanos = new LongAdder();
+
+    public StepRateLimiter(StepRateLimit config) {
+        this.key = config.key();
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / config.permitsPerSecond()));
+        this.burstNanos = (Math.max(1, config.burst()) - 1) * intervalNanos;
+    }
+
+    /**
+     * Takes a permit for the run and returns how many nanoseconds it has to wait before using it, 0 if none.
+     */
+    public long reserve(FlowRunIdentifier identifier) {
+        String bucketKey = key.isEmpty() ? "" : identifier.getRunProperties().getOrDefault(key, "");
+        long now = System.nanoTime();
+        AtomicLong bucket = buckets.computeIfAbsent(bucketKey, k -> new AtomicLong(now));
+        while (true) {
+            long next = bucket.get();
+            long start = Math.max(now, next - burstNanos);
+            if (bucket.compareAndSet(next, Math.max(next, start) + intervalNanos)) {
+                long wait = start - now;
+                if (wait > 0) {
+                    throttled.increment();
+                    throttledNanos.add(wait);
+                }
+                return wait;
+            }
+        }
+    }
+
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.sum());
+    }
+
+}
@@ -0,0 +1,286 @@
+/*
+ * This file is part of bean-runner.
+ *
+ * Copyright (C) 2025 Dan Bar-Yaakov
+ *
+ * bean-runner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * bean-runner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.beanrunner.core;
+
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.beanrunner.core.annotations.StepCache;
+import org.beanrunner.core.storage.StorageService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Results of {@code @StepCache} steps, keyed by the step's input. Entries are kept as JSON so a hit hands every run its
+ * own copy of the data, and so they can be written to storage as they are.
+ * <p>
+ * Persistent entries are bounded like the in-memory ones: the stored entries of a cache are indexed when it is first
+ * used, and entries that are evicted or expire are deleted from the storage as well.
+ */
+@Component
+@Slf4j
+public class StepResultCache {
+
+    private final StorageService storageService;
+    private final QualifierInspector qualifierInspector;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, Entries> caches = new ConcurrentHashMap<>();
+
+    public StepResultCache(@Autowired StorageService storageService,
+                           @Autowired QualifierInspector qualifierInspector) {
+        this.storageService = storageService;
+        this.qualifierInspector = qualifierInspector;
+        objectMapper.registerModule(new JavaTimeModule());
+        objectMapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+    }
+
+    /**
+     * Fills in the step's data and result from the cache. Returns false on a miss, or when the key can't be computed.
+     * Called before the step runs; the key is kept on the step's context so that {@link #store} files the result under
+     * the input the step ran with.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public boolean restore(FlowPlan.Node node, FlowRunIdentifier identifier) {
+        StepCache cache = node.getCache();
+        String key = keyFor(node, identifier);
+        node.getStep().getContext(identifier).setCacheKey(key);
+        if (key == null) {
+            return false;
+        }
+        String name = cacheName(node);
+        Entries entries = entries(name, cache);
+        long now = System.currentTimeMillis();
+        String json;
+        synchronized (entries) {
+            json = entries.get(key);
+        }
+        if (json == null && cache.persistent()) {
+            json = storageService.read(path(name, key)).orElse(null);
+        }
+        if (json == null) {
+            return false;
+        }
+        try {
+            CachedResult cached = objectMapper.readValue(json, CachedResult.class);
+            if (expired(cache, cached.getCreatedAt(), now)) {
+                synchronized (entries) {
+                    entries.remove(key);
+                }
+                if (cache.persistent()) {
+                    storageService.delete(path(name, key));
+                }
+                return false;
+            }
+            put(name, cache, entries, key, json);
+            StepRunContext context = node.getStep().getContext(identifier);
+            context.setData(cached.getData());
+            context.setResult(cached.getResult());
+            context.setCached(true);
+            return true;
+        } catch (JsonProcessingException e) {
+            log.warn("Ignoring unreadable cache entry {} of {}", key, name, e);
+            return false;
+        }
+    }
+
+    public void store(FlowPlan.Node node, FlowRunIdentifier identifier) {
+        StepCache cache = node.getCache();
+        StepRunContext<?> context = node.getStep().getContext(identifier);
+        String key = context.getCacheKey();
+        if (key == null) {
+            return;
+        }
+        CachedResult cached = new CachedResult();
+        cached.setResult(context.getResult());
+        cached.setData(context.getData());
+        cached.setCreatedAt(System.currentTimeMillis());
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(cached);
+        } catch (JsonProcessingException e) {
+            log.warn("Result of {} can't be cached", qualifierInspector.getQualifierForBean(node.getStep()), e);
+            return;
+        }
+        String name = cacheName(node);
+        Entries entries = entries(name, cache);
+        put(name, cache, entries, key, json);
+        if (cache.persistent()) {
+            storageService.store(path(name, key), json);
+        }
+    }
+
+    /*
+     * The input of a step is the data of its upstream steps, or the run parameter for the first step of a flow.
+     */
+    private String keyFor(FlowPlan.Node node, FlowRunIdentifier identifier) {
+        String key = node.getStep().cacheKey();
+        if (key == null) {
+            StringBuilder input = new StringBuilder();
+            try {
+                if (node.getUpstream().length == 0) {
+                    input.append(objectMapper.writeValueAsString(node.getStep().getData(identifier))).append('\n');
+                }
+                for (FlowPlan.Edge edge : node.getUpstream()) {
+                    input.append(objectMapper.writeValueAsString(edge.getUpstream().getData(identifier))).append('\n');
+                }
+            } catch (JsonProcessingException e) {
+                log.warn("Input of {} can't be used as a cache key", qualifierInspector.getQualifierForBean(node.getStep()), e);
+                return null;
+            }
+            key = input.toString();
+        }
+        return sha256(key);
+    }
+
+    private String cacheName(FlowPlan.Node node) {
+        String key = node.getCache().key();
+        return key.isEmpty() ? qualifierInspector.getQualifierForBean(node.getStep()) : key;
+    }
+
+    private Entries entries(String name, StepCache cache) {
+        return caches.computeIfAbsent(name, n -> load(n, cache));
+    }
+
+    private void put(String name, StepCache cache, Entries entries, String key, String json) {
+        List<String> evicted;
+        synchronized (entries) {
+            entries.put(key, json);
+            evicted = entries.drainEvicted();
+        }
+        if (cache.persistent()) {
+            evicted.forEach(k -> storageService.delete(path(name, k)));
+        }
+    }
+
+    /*
+     * Indexes the stored entries of a persistent cache, oldest first, deleting the expired ones and those over the bound.
+     */
+    private Entries load(String name, StepCache cache) {
+        Entries entries = new Entries(cache.maxEntries());
+        if (!cache.persistent()) {
+            return entries;
+        }
+        long now = System.currentTimeMillis();
+        List<StoredEntry> stored = new ArrayList<>();
+        for (String file : storageService.list("cache/" + name)) {
+            if (!file.endsWith(".json")) {
+                continue;
+            }
+            String key = file.substring(0, file.length() - ".json".length());
+            String json = storageService.read(path(name, key)).orElse(null);
+            if (json == null) {
+                continue;
+            }
+            long createdAt;
+            try {
+                createdAt = objectMapper.readTree(json).path("createdAt").asLong();
+            } catch (JsonProcessingException e) {
+                log.warn("Deleting unreadable cache entry {} of {}", key, name, e);
+                storageService.delete(path(name, key));
+                continue;
+            }
+            if (expired(cache, createdAt, now)) {
+                storageService.delete(path(name, key));
+            } else {
+                stored.add(new StoredEntry(key, json, createdAt));
+            }
+        }
+        stored.sort(Comparator.comparingLong(StoredEntry::createdAt));
+        for (StoredEntry entry : stored) {
+            entries.put(entry.key(), entry.json());
+        }
+        entries.drainEvicted().forEach(k -> storageService.delete(path(name, k)));
+        return entries;
+    }
+
+    private static boolean expired(StepCache cache, long createdAt, long now) {
+        return cache.ttl() > 0 && now - createdAt > cache.unit().toMillis(cache.ttl());
+    }
+
+    private static String path(String name, String key) {
+        return "cache/" + name + "/" + key + ".json";
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record StoredEntry(String key, String json, long createdAt) {
+    }
+
+    private static class Entries extends LinkedHashMap<String, String> {
+
+        private final int maxEntries;
+        // keys evicted since the last drain, to be deleted from the storage outside the lock
+        private final List<String> evicted = new ArrayList<>();
+
+        Entries(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            if (size() > maxEntries) {
+                evicted.add(eldest.getKey());
+                return true;
+            }
+            return false;
+        }
+
+        List<String> drainEvicted() {
+            List<String> drained = new ArrayList<>(evicted);
+            evicted.clear();
+            return drained;
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class CachedResult {
+        private String result;
+        @JsonTypeInfo(use = JsonTypeInfo.Id.CLASS, property = "@bodyClass")
+        private Object data;
+        private long createdAt;
+    }
+
+}
@@ -127,6 +127,12 @@ public class CustomSpringLogbackAppender extends AppenderBase<ILoggingEvent> imp
         }
     }
 
+    public void unloadLogs(List<Step<?>> steps, FlowRunIdentifier identifier) {
+        for (Step<?> step : steps) {
+            logEvents.remove(qualifierInspector.getQualifierForBean(step) + "-" + identifier.getId());
+        }
+    }
+
     public List<LogEvent> getEvents(String taskClass, String taskRunId) {
         return logEvents.get(taskClass + "-" + taskRunId);
     }
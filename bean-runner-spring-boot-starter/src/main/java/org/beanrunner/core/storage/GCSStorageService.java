@@ -93,6 +93,11 @@ public class GCSStorageService implements StorageService, InitializingBean {
         }).toList();
     }
 
+    @Override
+    public void delete(String key) {
+        storage.delete(BlobId.of(bucket, key));
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         this.storage = StorageOptions.newBuilder().setProjectId(projectId).build().getService();
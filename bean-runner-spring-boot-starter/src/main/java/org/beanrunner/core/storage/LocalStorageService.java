@@ -104,6 +104,16 @@ public class LocalStorageService implements StorageService, InitializingBean {
         return contents;
     }
 
+    @Override
+    public void delete(String path) {
+        Path filePath = Paths.get(storagePath, path);
+        try {
+            Files.deleteIfExists(filePath);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not delete file at path: " + path, e);
+        }
+    }
+
 
     @Override
     public void afterPropertiesSet() throws Exception {
@@ -50,5 +50,10 @@ public class NoStorageService implements StorageService {
         return List.of();
     }
 
+    @Override
+    public void delete(String path) {
+
+    }
+
 
 }
@@ -29,4 +29,5 @@ public interface StorageService {
     Optional<String> read(String path);
     List<String> list(String path);
     List<String> loadBatch(List<String> filePaths);
+    void delete(String path);
 }
@@ -89,6 +89,18 @@ public class StepRunStorage implements InitializingBean {
         }
     }
 
+    public Optional<FlowRunIdentifier> readIdentifier(String flowId, String runId) {
+        Optional<String> json = storageService.read("runs/" + flowId + "/identifiers/" + runId + ".json");
+        if (json.isPresent()) {
+            try {
+                return Optional.of(objectMapper.readValue(json.get(), FlowRunIdentifier.class));
+            } catch (JsonProcessingException e) {
+                log.error("Failed to deserialize identifier from JSON", e);
+            }
+        }
+        return Optional.empty();
+    }
+
     public void loadIdentifier(String flowId, Step<?> step, FlowRunIdentifier identifier) {
         Optional<String> json = storageService.read("runs/" + flowId + "/identifiers/" + identifier.getId() + ".json");
         if (json.isPresent()) {
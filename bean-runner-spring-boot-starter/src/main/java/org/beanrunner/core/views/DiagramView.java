@@ -161,6 +161,9 @@ public class DiagramView extends VerticalLayout {
             return "white";
         }
         StepStatus status = task.getStatus(identifier);
+        if (status == StepStatus.SUCCESS && task.getContext(identifier).isCached()) {
+            return "#a8e4ff";
+        }
         return colorForStatus(status);
     }
 
@@ -188,6 +191,9 @@ public class DiagramView extends VerticalLayout {
             return "darkgray";
         }
         StepStatus status = task.getStatus(identifier);
+        if (status == StepStatus.SUCCESS && task.getContext(identifier).isCached()) {
+            return "#1d6a82";
+        }
         return borderForStatus(status);
     }
 
@@ -332,7 +332,7 @@ public class MainView extends Page implements StepListener, HasDynamicTitle {
             layout.setFlexGrow(1, spacer);
 
             boolean isRunning = false;
-            for (FlowRunIdentifier identifier : t.getIdentifiers()) {
+            for (FlowRunIdentifier identifier : stepManager.getIdentifiers(t)) {
                 if (!identifier.isBackground() && identifier.isRunning()) {
                     Loader icon = new Loader("loader-running");
                     layout.add(icon);
@@ -399,7 +399,7 @@ public class MainView extends Page implements StepListener, HasDynamicTitle {
                 if (stepManager.isFlowLoaded(selectedFlow)) {
                     identifiersLoadingPanel.setLoading(false);
                     identifiers.clear();
-                    identifiers.addAll(selectedFlow.getIdentifiers().stream().filter(i -> !i.isBackground()).toList());
+                    identifiers.addAll(stepManager.getIdentifiers(selectedFlow).stream().filter(i -> !i.isBackground()).toList());
                     identifiers.sort((o1, o2) -> Long.compare(o2.getTimestamp(), o1.getTimestamp()));
 
                     identifierDataProvider.refreshAll();
@@ -1191,7 +1191,7 @@ public class MainView extends Page implements StepListener, HasDynamicTitle {
         if (selectedFlow == null || identifier == null) {
             return StepStatus.NOT_STARTED;
         }
-        return stepManager.getFlowStatus(identifier, selectedFlowSteps);
+        return stepManager.getFlowStatus(identifier);
     }
 
     private void addSettingsConfiguration(Step<?> task) {
@@ -1348,7 +1348,7 @@ public class MainView extends Page implements StepListener, HasDynamicTitle {
         }
 
         if (identifier != null && !identifier.isBackground() && identifier == selectedIdentifier ) {
-            StepStatus flowStatus = stepManager.getFlowStatus(identifier, selectedFlowSteps);
+            StepStatus flowStatus = stepManager.getFlowStatus(identifier);
             getUI().ifPresent(ui -> ui.access(() -> {
                 diagramView.updateTask(task);
                 btnRewind.setVisible((identifier.isRewindArmed() || identifier.isPaused()));
@@ -1392,7 +1392,7 @@ public class MainView extends Page implements StepListener, HasDynamicTitle {
             getUI().ifPresent(ui -> ui.access(() -> {
                 identifiersLoadingPanel.setLoading(false);
                 identifiers.clear();
-                identifiers.addAll(selectedFlow.getIdentifiers().stream().filter(i -> !i.isBackground()).toList());
+                identifiers.addAll(stepManager.getIdentifiers(selectedFlow).stream().filter(i -> !i.isBackground()).toList());
                 identifiers.sort((o1, o2) -> Long.compare(o2.getTimestamp(), o1.getTimestamp()));
                 identifierDataProvider.refreshAll();
             }));
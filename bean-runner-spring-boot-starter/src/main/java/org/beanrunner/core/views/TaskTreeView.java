@@ -101,11 +101,30 @@ public class TaskTreeView extends VerticalLayout {
 
             if (identifier != null) {
                 if (t.getStatus(identifier) == StepStatus.RUNNING || t.getStatus(identifier) == StepStatus.READY) {
+                    int queuePosition = t.getStatus(identifier) == StepStatus.READY ? stepManager.getQueuePosition(t, identifier) : 0;
+                    if (queuePosition > 0) {
+                        Span queued = new Span("queued #" + queuePosition);
+                        queued.getStyle().set("font-size", "var(--lumo-font-size-s)")
+                                .set("color", "var(--lumo-secondary-text-color)");
+                        layout.add(queued);
+                    }
+                    String progress = t.getProgress(identifier);
+                    if (progress != null) {
+                        Span progressSpan = new Span(progress);
+                        progressSpan.getStyle().set("font-size", "var(--lumo-font-size-s)")
+                                .set("color", "var(--lumo-secondary-text-color)");
+                        layout.add(progressSpan);
+                    }
                     Loader icon = new Loader("loader-running");
                     layout.add(icon);
                 } else if (t.getStatus(identifier) == StepStatus.PENDING_REWIND || t.getStatus(identifier) == StepStatus.REWINDING) {
                     Loader icon = new Loader("loader-rewinding");
                     layout.add(icon);
+                } else if (t.getStatus(identifier) == StepStatus.SUCCESS && t.getContext(identifier).isCached()) {
+                    Icon icon = VaadinIcon.ARCHIVE.create();
+                    icon.setColor("#1d6a82");
+                    icon.setSize("20px");
+                    layout.add(icon);
                 } else if (t.getStatus(identifier) == StepStatus.SUCCESS) {
                     Icon icon = VaadinIcon.CHECK.create();
                     icon.setColor("green");
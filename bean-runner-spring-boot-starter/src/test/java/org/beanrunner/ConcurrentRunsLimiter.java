@@ -25,7 +25,9 @@ import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.beanrunner.core.FlowRunIdentifier;
+import org.beanrunner.core.StaticTransactionManagerHolder;
 import org.beanrunner.core.Step;
+import org.beanrunner.core.StepManager;
 import org.beanrunner.core.StepStatus;
 import org.beanrunner.core.annotations.*;
 
@@ -51,7 +53,8 @@ public class ConcurrentRunsLimiter extends Step<Void> {
 
     @Override
     public void run() {
-        long currentRunningFlows = contextMap.keySet().stream()
+        StepManager stepManager = StaticTransactionManagerHolder.getBean(StepManager.class);
+        long currentRunningFlows = stepManager.getIdentifiers(stepManager.getFirstStep(this)).stream()
                 .filter(FlowRunIdentifier::isRunning).count();
         if (currentRunningFlows > concurrentRunsLimit) {
             throw new ConcurrentRunLimitException();
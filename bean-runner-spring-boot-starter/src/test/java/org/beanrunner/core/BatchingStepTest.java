@@ -0,0 +1,122 @@
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.OnSuccess;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = {FlowTestConfiguration.class, BatchingStepTest.Steps.class}, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class BatchingStepTest {
+
+    static class Input extends Step<String> {
+    }
+
+    /*
+     * Batches of up to 3 items with at most 3 queued; flushes wait for the gate, and items containing "reject" fail.
+     */
+    static class Collect extends BatchingStep<Void, String> {
+        @Autowired
+        @OnSuccess
+        Input input;
+
+        final List<List<String>> batches = new CopyOnWriteArrayList<>();
+        volatile CountDownLatch gate = new CountDownLatch(0);
+
+        Collect() {
+            super(3, 0, 100, TimeUnit.MILLISECONDS, 3);
+        }
+
+        @Override
+        protected String createItem() {
+            return input.getData();
+        }
+
+        @Override
+        protected void flush(Batch<String> batch) throws Exception {
+            gate.await(10, TimeUnit.SECONDS);
+            batches.add(List.copyOf(batch.getItems()));
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.getItems().get(i).contains("reject")) {
+                    batch.fail(i, new IllegalArgumentException("rejected " + batch.getItems().get(i)));
+                }
+            }
+        }
+    }
+
+    @Configuration
+    static class Steps {
+        @Bean
+        Input input() {
+            return new Input();
+        }
+
+        @Bean
+        Collect collect() {
+            return new Collect();
+        }
+    }
+
+    @Autowired
+    StepManager stepManager;
+
+    @Autowired
+    Input input;
+
+    @Autowired
+    Collect collect;
+
+    private List<FlowRunIdentifier> start(String... items) {
+        List<FlowRunIdentifier> identifiers = new ArrayList<>();
+        for (String item : items) {
+            identifiers.add(stepManager.executeFlow(input, item, true, "Test", null));
+        }
+        return identifiers;
+    }
+
+    @Test
+    void runsSucceedOrFailWithTheirItem() {
+        collect.batches.clear();
+        List<FlowRunIdentifier> identifiers = start("a", "reject b", "c", "d");
+        identifiers.forEach(FlowTestConfiguration::awaitStopped);
+
+        assertThat(collect.batches).flatExtracting(batch -> batch).containsExactlyInAnyOrder("a", "reject b", "c", "d");
+        assertThat(collect.batches).allSatisfy(batch -> assertThat(batch).hasSizeLessThanOrEqualTo(3));
+        assertThat(identifiers.get(1).getFlowStatus()).isEqualTo(StepStatus.FAILED);
+        assertThat(collect.getContext(identifiers.get(1)).getException()).isInstanceOf(IllegalArgumentException.class);
+        assertThat(identifiers.get(0).getFlowStatus()).isEqualTo(StepStatus.SUCCESS);
+    }
+
+    @Test
+    void itemsBeyondTheQueueAreHeldBackUntilAFlushCompletes() {
+        collect.batches.clear();
+        CountDownLatch gate = new CountDownLatch(1);
+        collect.gate = gate;
+        List<FlowRunIdentifier> identifiers;
+        try {
+            identifiers = start("1", "2", "3", "4", "5");
+            FlowTestConfiguration.await(() -> identifiers.stream().allMatch(id -> RunRegistry.get(id) != null
+                    && collect.getStatus(id) == StepStatus.RUNNING), "all runs to reach the batching step");
+            assertThat(collect.batches).isEmpty();
+
+            gate.countDown();
+            identifiers.forEach(FlowTestConfiguration::awaitStopped);
+        } finally {
+            collect.gate = new CountDownLatch(0);
+        }
+
+        assertThat(collect.batches).allSatisfy(batch -> assertThat(batch).hasSizeLessThanOrEqualTo(3));
+        assertThat(collect.batches).flatExtracting(batch -> batch).containsExactlyInAnyOrder("1", "2", "3", "4", "5");
+        assertThat(identifiers).allSatisfy(id -> assertThat(id.getFlowStatus()).isEqualTo(StepStatus.SUCCESS));
+    }
+
+}
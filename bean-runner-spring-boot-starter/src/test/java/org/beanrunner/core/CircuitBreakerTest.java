@@ -0,0 +1,93 @@
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.StepCircuitBreaker;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    @StepCircuitBreaker(window = 4, minimumCalls = 4, openDuration = 1, unit = TimeUnit.HOURS)
+    static class LongOpen {
+    }
+
+    @StepCircuitBreaker(window = 4, minimumCalls = 4, openDuration = 50, unit = TimeUnit.MILLISECONDS)
+    static class ShortOpen {
+    }
+
+    private static CircuitBreaker breaker(Class<?> stepClass) {
+        return new CircuitBreaker(stepClass.getAnnotation(StepCircuitBreaker.class));
+    }
+
+    private static CircuitBreaker opened(Class<?> stepClass) {
+        CircuitBreaker breaker = breaker(stepClass);
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+        }
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        return breaker;
+    }
+
+    @Test
+    void opensOnceTheWindowHoldsEnoughFailures() {
+        CircuitBreaker breaker = breaker(LongOpen.class);
+
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure();
+        }
+        assertThat(breaker.getFailureRate()).isZero();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        breaker.onFailure();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+        assertThat(breaker.getShortCircuitedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void staysClosedBelowTheThreshold() {
+        CircuitBreaker breaker = breaker(LongOpen.class);
+
+        breaker.onSuccess();
+        breaker.onSuccess();
+        breaker.onSuccess();
+        breaker.onFailure();
+
+        assertThat(breaker.getFailureRate()).isEqualTo(25.0);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void aSuccessfulTrialCallClosesTheBreaker() throws InterruptedException {
+        CircuitBreaker breaker = opened(ShortOpen.class);
+        Thread.sleep(80);
+
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        // only one trial call at a time
+        assertThat(breaker.tryAcquire()).isFalse();
+
+        breaker.onSuccess();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.getFailureRate()).isZero();
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void aFailedTrialCallReopensTheBreaker() throws InterruptedException {
+        CircuitBreaker breaker = opened(ShortOpen.class);
+        Thread.sleep(80);
+
+        assertThat(breaker.tryAcquire()).isTrue();
+        breaker.onFailure();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+    }
+
+}
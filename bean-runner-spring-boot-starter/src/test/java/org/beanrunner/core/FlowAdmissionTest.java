@@ -0,0 +1,111 @@
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.FlowConcurrency;
+import org.beanrunner.core.annotations.FlowOverflowPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FlowAdmissionTest {
+
+    @FlowConcurrency(maxRunning = 1, maxQueued = 1)
+    static class Rejecting {
+    }
+
+    @FlowConcurrency(maxRunning = 1, maxQueued = 1, overflow = FlowOverflowPolicy.DROP_OLDEST)
+    static class DroppingOldest {
+    }
+
+    @FlowConcurrency(maxRunning = 1, overflow = FlowOverflowPolicy.BLOCK, blockTimeout = 100, blockTimeoutUnit = TimeUnit.MILLISECONDS)
+    static class Blocking {
+    }
+
+    @FlowConcurrency(maxRunning = 1, overflow = FlowOverflowPolicy.BLOCK)
+    static class LongBlocking {
+    }
+
+    private final List<String> started = new ArrayList<>();
+    private final List<String> dropped = new ArrayList<>();
+
+    private static FlowAdmission admission(Class<?> flow) {
+        return new FlowAdmission(flow.getSimpleName(), flow.getAnnotation(FlowConcurrency.class));
+    }
+
+    private FlowRunIdentifier admit(FlowAdmission admission, String name) {
+        FlowRunIdentifier identifier = new FlowRunIdentifier();
+        admission.admit(identifier, () -> started.add(name), e -> dropped.add(name));
+        return identifier;
+    }
+
+    @Test
+    void queuedRunsStartWhenARunningOneStops() {
+        FlowAdmission admission = admission(Rejecting.class);
+        FlowRunIdentifier first = admit(admission, "first");
+        FlowRunIdentifier second = admit(admission, "second");
+
+        assertThat(started).containsExactly("first");
+        assertThat(admission.getQueuedCount()).isEqualTo(1);
+
+        admission.release(first);
+        admission.release(first);
+
+        assertThat(started).containsExactly("first", "second");
+        assertThat(admission.getRunningCount()).isEqualTo(1);
+        admission.release(second);
+        assertThat(admission.getRunningCount()).isZero();
+    }
+
+    @Test
+    void rejectThrowsWhenTheQueueIsFull() {
+        FlowAdmission admission = admission(Rejecting.class);
+        admit(admission, "first");
+        admit(admission, "second");
+
+        assertThatThrownBy(() -> admit(admission, "third")).isInstanceOf(FlowRejectedException.class);
+        assertThat(started).containsExactly("first");
+    }
+
+    @Test
+    void dropOldestReplacesTheOldestQueuedRun() {
+        FlowAdmission admission = admission(DroppingOldest.class);
+        FlowRunIdentifier first = admit(admission, "first");
+        admit(admission, "second");
+        admit(admission, "third");
+
+        assertThat(dropped).containsExactly("second");
+        admission.release(first);
+        assertThat(started).containsExactly("first", "third");
+    }
+
+    @Test
+    void blockRejectsWhenNoRoomFreesUpInTime() {
+        FlowAdmission admission = admission(Blocking.class);
+        admit(admission, "first");
+
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> admit(admission, "second")).isInstanceOf(FlowRejectedException.class);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isBetween(90L, 5000L);
+        assertThat(started).containsExactly("first");
+    }
+
+    @Test
+    void blockAdmitsOnceARunStops() throws Exception {
+        FlowAdmission admission = admission(LongBlocking.class);
+        FlowRunIdentifier first = admit(admission, "first");
+
+        CompletableFuture<FlowRunIdentifier> second = CompletableFuture.supplyAsync(() -> admit(admission, "second"));
+        Thread.sleep(50);
+        assertThat(second).isNotDone();
+        admission.release(first);
+
+        assertThat(second.get(5, TimeUnit.SECONDS)).isNotNull();
+        assertThat(started).containsExactly("first", "second");
+    }
+
+}
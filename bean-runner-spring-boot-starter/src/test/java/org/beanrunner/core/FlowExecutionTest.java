@@ -0,0 +1,167 @@
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.OnSuccess;
+import org.beanrunner.core.annotations.RunRetentionConfig;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = {FlowTestConfiguration.class, FlowExecutionTest.Steps.class}, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class FlowExecutionTest {
+
+    static class Greet extends Step<String> {
+    }
+
+    static class Shout extends Step<String> {
+        @Autowired
+        @OnSuccess
+        Greet greet;
+
+        @Override
+        protected void run() {
+            setData(greet.getData().toUpperCase() + "!");
+        }
+    }
+
+    static class Fail extends Step<Void> {
+        @Autowired
+        @OnSuccess
+        Shout shout;
+
+        @Override
+        protected void run() {
+            if ("FAIL!".equals(shout.getData())) {
+                throw new IllegalStateException("failing on purpose");
+            }
+        }
+    }
+
+    @RunRetentionConfig(clearSuccessfulRuns = true, successfulTTLMillis = 50)
+    static class Retained extends Step<String> {
+    }
+
+    @Configuration
+    static class Steps {
+        @Bean
+        Greet greet() {
+            return new Greet();
+        }
+
+        @Bean
+        Shout shout() {
+            return new Shout();
+        }
+
+        @Bean
+        Fail fail() {
+            return new Fail();
+        }
+
+        @Bean
+        Retained retained() {
+            return new Retained();
+        }
+    }
+
+    @Autowired
+    StepManager stepManager;
+
+    @Autowired
+    Greet greet;
+
+    @Autowired
+    Shout shout;
+
+    @Autowired
+    Fail fail;
+
+    @Autowired
+    Retained retained;
+
+    @Test
+    void stepsRunInOrderAndShareData() {
+        FlowRunIdentifier identifier = stepManager.executeFlow(greet, "hello", true, "Test", null);
+        FlowTestConfiguration.awaitStopped(identifier);
+
+        assertThat(identifier.getFlowStatus()).isEqualTo(StepStatus.SUCCESS);
+        assertThat(shout.getData(identifier)).isEqualTo("HELLO!");
+        assertThat(fail.getStatus(identifier)).isEqualTo(StepStatus.SUCCESS);
+    }
+
+    @Test
+    void aFailingStepFailsTheRun() {
+        FlowRunIdentifier identifier = stepManager.executeFlow(greet, "fail", true, "Test", null);
+        FlowTestConfiguration.awaitStopped(identifier);
+
+        assertThat(identifier.getFlowStatus()).isEqualTo(StepStatus.FAILED);
+        assertThat(stepManager.collectFlowExceptions(greet, identifier)).singleElement().isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void evictedRunsReportTheirStoredStatus() {
+        FlowRunIdentifier identifier = stepManager.executeFlow(greet, "fail", true, "Test", null);
+        FlowTestConfiguration.awaitStopped(identifier);
+        HttpController controller = new HttpController(stepManager, List.of());
+        assertThat(controller.getFlowStatus(identifier.getId())).isEqualTo(StepStatus.FAILED);
+
+        // the run is stored right after it stops
+        FlowTestConfiguration.await(() -> stepManager.getStoredFlowStatus(identifier.getId()) != null, "the run to be stored");
+        RunRegistry.remove(identifier);
+
+        assertThat(controller.getFlowStatus(identifier.getId())).isEqualTo(StepStatus.FAILED);
+        assertThat(controller.getFlowStatus(new FlowRunIdentifier().getId())).isEqualTo(StepStatus.NOT_STARTED);
+    }
+
+    @Test
+    void retainedBackgroundRunsAreDeletedOnce() throws InterruptedException {
+        FlowRunIdentifier identifier = new FlowRunIdentifier();
+        AtomicInteger notifications = new AtomicInteger();
+        StepListener listener = new StepListener() {
+            @Override
+            public void stepChanged(Step<?> task, FlowRunIdentifier changed) {
+                if (changed == identifier) {
+                    notifications.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void runAdded(Step<?> task, FlowRunIdentifier added, boolean userInitiated) {
+            }
+
+            @Override
+            public void runRemoved(Step<?> firstStep, FlowRunIdentifier removed) {
+            }
+
+            @Override
+            public void flowRunsLoaded(Step<?> firstStep) {
+            }
+
+            @Override
+            public void runContentLoaded(Step<?> firstStep, FlowRunIdentifier loaded) {
+            }
+        };
+        stepManager.addListener(listener);
+        try {
+            stepManager.executeFlow(retained, "keep briefly", identifier, true, "Test", null);
+            FlowTestConfiguration.awaitStopped(identifier);
+            FlowTestConfiguration.await(() -> RunRegistry.get(identifier) == null, "the run to be deleted");
+            int afterDelete = notifications.get();
+
+            // a run that is processed again would be notified and scheduled for deletion again every TTL
+            Thread.sleep(300);
+
+            assertThat(notifications).hasValue(afterDelete);
+            assertThat(stepManager.getIdentifiers(retained)).doesNotContain(identifier);
+        } finally {
+            stepManager.removeListener(listener);
+        }
+    }
+
+}
@@ -0,0 +1,215 @@
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.FailureBehavior;
+import org.beanrunner.core.annotations.FlowPauseBehavior;
+import org.beanrunner.core.annotations.OnSuccess;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(classes = {FlowTestConfiguration.class, FlowInvokerTest.Steps.class}, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class FlowInvokerTest {
+
+    static class Start extends Step<String> {
+    }
+
+    static class Echo extends Step<String> {
+        @Autowired
+        @OnSuccess
+        Start start;
+
+        @Override
+        protected void run() {
+            if (start.getData().equals("fail")) {
+                throw new IllegalStateException("echo failed");
+            }
+            setData(start.getData());
+        }
+    }
+
+    @FlowPauseBehavior(failureBehavior = FailureBehavior.PAUSE)
+    static class PausingStart extends Step<String> {
+    }
+
+    static class PausingEcho extends Step<String> {
+        @Autowired
+        @OnSuccess
+        PausingStart start;
+
+        @Override
+        protected void run() {
+            if (start.getData().equals("fail")) {
+                throw new IllegalStateException("pausing echo failed");
+            }
+            setData(start.getData());
+        }
+    }
+
+    static class SlowStart extends Step<Void> {
+    }
+
+    static class Slow extends Step<String> {
+        @Autowired
+        @OnSuccess
+        SlowStart start;
+
+        @Override
+        protected void run() {
+            try {
+                Thread.sleep(30_000);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("interrupted", e);
+            }
+            setData("done");
+        }
+    }
+
+    static class EchoInvoker extends FlowInvoker<String, String> {
+        EchoInvoker(Start start, Echo echo) {
+            super(start, echo);
+        }
+    }
+
+    static class PausingEchoInvoker extends FlowInvoker<String, String> {
+        PausingEchoInvoker(PausingStart start, PausingEcho echo) {
+            super(start, echo);
+        }
+    }
+
+    static class SlowInvoker extends FlowInvoker<Void, String> {
+        SlowInvoker(SlowStart start, Slow slow) {
+            super(start, slow);
+        }
+    }
+
+    @Configuration
+    static class Steps {
+        @Bean
+        Start start() {
+            return new Start();
+        }
+
+        @Bean
+        Echo echo(Start start) {
+            Echo echo = new Echo();
+            echo.start = start;
+            return echo;
+        }
+
+        @Bean
+        EchoInvoker echoInvoker(Start start, Echo echo) {
+            return new EchoInvoker(start, echo);
+        }
+
+        @Bean
+        SlowStart slowStart() {
+            return new SlowStart();
+        }
+
+        @Bean
+        Slow slow(SlowStart start) {
+            Slow slow = new Slow();
+            slow.start = start;
+            return slow;
+        }
+
+        @Bean
+        SlowInvoker slowInvoker(SlowStart start, Slow slow) {
+            return new SlowInvoker(start, slow);
+        }
+
+        @Bean
+        PausingStart pausingStart() {
+            return new PausingStart();
+        }
+
+        @Bean
+        PausingEcho pausingEcho(PausingStart start) {
+            PausingEcho echo = new PausingEcho();
+            echo.start = start;
+            return echo;
+        }
+
+        @Bean
+        PausingEchoInvoker pausingEchoInvoker(PausingStart start, PausingEcho echo) {
+            return new PausingEchoInvoker(start, echo);
+        }
+    }
+
+    @Autowired
+    EchoInvoker echoInvoker;
+
+    @Autowired
+    PausingEchoInvoker pausingEchoInvoker;
+
+    @Autowired
+    SlowInvoker slowInvoker;
+
+    @Autowired
+    SlowStart slowStart;
+
+    @Autowired
+    Slow slow;
+
+    @Autowired
+    StepManager stepManager;
+
+    @Test
+    void runSyncReturnsTheDataOfTheLastStep() {
+        assertThat(echoInvoker.runSync("hello")).isEqualTo("hello");
+    }
+
+    @Test
+    void runSyncThrowsTheStepException() {
+        assertThatThrownBy(() -> echoInvoker.runSync("fail")).isInstanceOf(IllegalStateException.class).hasMessage("echo failed");
+    }
+
+    @Test
+    void aPausedRunCompletesTheFuture() {
+        FlowFuture<String> future = pausingEchoInvoker.runAsync("fail");
+
+        assertThat(future).failsWithin(Duration.ofSeconds(10)).withThrowableOfType(ExecutionException.class)
+                .havingCause().isInstanceOf(FlowExecutionException.class)
+                .havingCause().isInstanceOf(IllegalStateException.class).withMessage("pausing echo failed");
+        assertThat(future.getIdentifier().getFlowStatus()).isEqualTo(StepStatus.PAUSED_FAILURE);
+    }
+
+    @Test
+    void cancellingTheRunFailsTheFuture() {
+        FlowFuture<String> future = slowInvoker.runAsync(null);
+        FlowRunIdentifier identifier = future.getIdentifier();
+        FlowTestConfiguration.await(() -> RunRegistry.get(identifier) != null && slow.getStatus(identifier) == StepStatus.RUNNING, "the slow step to run");
+
+        stepManager.cancel(slowStart, identifier);
+
+        assertThat(future).failsWithin(Duration.ofSeconds(10)).withThrowableOfType(CancellationException.class);
+        FlowTestConfiguration.awaitStopped(identifier);
+        assertThat(identifier.getFlowStatus()).isEqualTo(StepStatus.FAILED);
+    }
+
+    @Test
+    void aPassedDeadlineTimesTheFutureOut() {
+        FlowFuture<String> future = slowInvoker.runAsync(null, Duration.ofMillis(200));
+
+        assertThat(future).failsWithin(Duration.ofSeconds(10)).withThrowableOfType(ExecutionException.class)
+                .havingCause().isInstanceOf(TimeoutException.class);
+        FlowTestConfiguration.awaitStopped(future.getIdentifier());
+        assertThat(slow.getContext(future.getIdentifier()).getException()).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void runSyncWithATimeoutCancelsTheRun() {
+        assertThatThrownBy(() -> slowInvoker.runSync(null, Duration.ofMillis(200))).isInstanceOf(TimeoutException.class);
+    }
+
+}
@@ -0,0 +1,122 @@
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FlowPlanTest {
+
+    static class Start extends Step<Void> {
+    }
+
+    static class Left extends Step<Void> {
+        @OnSuccess
+        Step<?> start;
+    }
+
+    @StepRetry(maxRetries = 4)
+    @StepTimeout(value = 2, unit = java.util.concurrent.TimeUnit.SECONDS)
+    static class Right extends Step<Void> {
+        @OnSuccess("right")
+        Step<?> start;
+    }
+
+    static class Join extends Step<Void> {
+        @OnSuccess
+        Step<?> left;
+        @OnComplete
+        Step<?> right;
+    }
+
+    static class Other extends Step<Void> {
+    }
+
+    @StepHedge(after = 50)
+    @StepConcurrency(max = 2)
+    static class HedgedWithinALimit extends Step<Void> {
+    }
+
+    @StepHedge(after = 50)
+    @StepRateLimit(permitsPerSecond = 10)
+    static class HedgedAndRateLimited extends Step<Void> {
+    }
+
+    private final Start start = new Start();
+    private final Left left = new Left();
+    private final Right right = new Right();
+    private final Join join = new Join();
+    private final Other other = new Other();
+
+    private FlowPlan compile() {
+        left.start = start;
+        right.start = start;
+        join.left = left;
+        join.right = right;
+        return FlowPlan.compile(List.of(join, right, left, start, other));
+    }
+
+    @Test
+    void stepsWithoutDependenciesStartFlows() {
+        FlowPlan plan = compile();
+
+        assertThat(plan.getFirstSteps()).containsExactly(start, other);
+        assertThat(plan.getFirstStep(join)).isSameAs(start);
+        assertThat(plan.getFirstStep(other)).isSameAs(other);
+    }
+
+    @Test
+    void flowStepsComeAfterTheirUpstreamSteps() {
+        List<Step<?>> steps = compile().getFlowSteps(start);
+
+        assertThat(steps).containsExactlyInAnyOrder(start, left, right, join);
+        assertThat(steps.get(0)).isSameAs(start);
+        assertThat(steps.get(3)).isSameAs(join);
+    }
+
+    @Test
+    void edgesKeepTheirKindAndExpectedResult() {
+        FlowPlan plan = compile();
+
+        FlowPlan.Edge[] upstream = plan.getNode(join).getUpstream();
+        assertThat(upstream).extracting(FlowPlan.Edge::getUpstream).containsExactly(left, right);
+        assertThat(upstream).extracting(FlowPlan.Edge::getKind).containsExactly(FlowPlan.EdgeKind.ON_SUCCESS, FlowPlan.EdgeKind.ON_COMPLETE);
+        assertThat(plan.getNode(right).getUpstream()[0].getExpectedResult()).isEqualTo("right");
+        assertThat(plan.getNode(start).getDependents()).containsExactlyInAnyOrder(left, right);
+    }
+
+    @Test
+    void stepAnnotationsAreReadOnce() {
+        FlowPlan plan = compile();
+
+        assertThat(plan.getNode(right).getMaxRetries()).isEqualTo(4);
+        assertThat(plan.getNode(right).getTimeoutMillis()).isEqualTo(2000);
+        assertThat(plan.getNode(left).getMaxRetries()).isEqualTo(1);
+        assertThat(plan.getNode(left).getTimeoutMillis()).isZero();
+    }
+
+    @Test
+    void layoutsGiveEveryFlowStepASlot() {
+        FlowPlan plan = compile();
+
+        RunLayout layout = plan.getLayout(start);
+        assertThat(layout.getFlowSize()).isEqualTo(4);
+        for (Step<?> step : List.of(start, left, right, join)) {
+            assertThat(layout.isInFlow(layout.slotOf(step))).isTrue();
+        }
+        assertThat(layout.slotOf(other)).isNegative();
+    }
+
+    @Test
+    void hedgedStepsCantHaveConcurrencyOrRateLimits() {
+        assertThatThrownBy(() -> FlowPlan.compile(List.of(new HedgedWithinALimit())))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("HedgedWithinALimit");
+        assertThatThrownBy(() -> FlowPlan.compile(List.of(new HedgedAndRateLimited())))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
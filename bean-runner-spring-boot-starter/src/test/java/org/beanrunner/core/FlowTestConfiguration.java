@@ -0,0 +1,45 @@
+package org.beanrunner.core;
+
+import org.beanrunner.core.logging.CustomSpringLogbackAppender;
+import org.beanrunner.core.storage.runs.StepRunStorage;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The bean-runner engine without the UI, for tests that execute flows. Test classes add their steps with their own
+ * configuration, e.g. {@code @SpringBootTest(classes = {FlowTestConfiguration.class, MyTest.Steps.class})}.
+ */
+@Configuration
+@Import({StepManager.class, StepExecutors.class, QualifierInspector.class, DynamicBeanRegistrar.class, StepRunStorage.class,
+        CustomSpringLogbackAppender.class, InMemoryStorageService.class, StepResultCache.class, RunJournal.class,
+        StaticTransactionManagerHolder.class})
+public class FlowTestConfiguration {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    /**
+     * Waits until the run has stopped, i.e. finished or paused.
+     */
+    public static void awaitStopped(FlowRunIdentifier identifier) {
+        await(() -> identifier.getFlowStatus() != null && !identifier.isRunning(), "run " + identifier.getId() + " to stop");
+    }
+
+    public static void await(BooleanSupplier condition, String description) {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Timed out waiting for " + description);
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError("Interrupted waiting for " + description);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package org.beanrunner.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HashedWheelTimerTest {
+
+    // one revolution of the wheel is 40 ms
+    private final HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 4);
+
+    @AfterEach
+    void stop() {
+        timer.stop();
+    }
+
+    @Test
+    void timeoutsFireInDeadlineOrderAcrossRounds() throws InterruptedException {
+        List<Long> fired = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        for (long delay : new long[]{90, 20, 55}) {
+            timer.schedule(timeout -> {
+                fired.add(delay);
+                done.countDown();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(fired).containsExactly(20L, 55L, 90L);
+    }
+
+    @Test
+    void cancelledTimeoutsNeverFire() throws InterruptedException {
+        AtomicBoolean fired = new AtomicBoolean();
+        HashedWheelTimer.Timeout timeout = timer.schedule(t -> fired.set(true), 30, TimeUnit.MILLISECONDS);
+        CountDownLatch later = new CountDownLatch(1);
+        HashedWheelTimer.Timeout laterTimeout = timer.schedule(t -> later.countDown(), 80, TimeUnit.MILLISECONDS);
+
+        assertThat(timeout.cancel()).isTrue();
+        assertThat(timeout.cancel()).isFalse();
+        assertThat(later.await(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(fired).isFalse();
+        assertThat(timeout.isExpired()).isFalse();
+        assertThat(laterTimeout.isExpired()).isTrue();
+        assertThat(laterTimeout.cancel()).isFalse();
+    }
+
+    @Test
+    void delaysLongerThanARevolutionWaitTheirFullDelay() throws InterruptedException {
+        long start = System.nanoTime();
+        AtomicLong firedAfter = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(1);
+        timer.schedule(timeout -> {
+            firedAfter.set(System.nanoTime() - start);
+            done.countDown();
+        }, 130, TimeUnit.MILLISECONDS);
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(firedAfter.get())).isGreaterThanOrEqualTo(130);
+    }
+
+    @Test
+    void aFailingTaskDoesNotStopTheTimer() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        timer.schedule(timeout -> {
+            throw new IllegalStateException("task failed");
+        }, 10, TimeUnit.MILLISECONDS);
+        timer.schedule(timeout -> done.countDown(), 50, TimeUnit.MILLISECONDS);
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+}
@@ -0,0 +1,116 @@
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.OnSuccess;
+import org.beanrunner.core.annotations.StepHedge;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = {FlowTestConfiguration.class, HedgeTest.Steps.class}, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class HedgeTest {
+
+    /*
+     * The input says whether the hedge fails too ("fail").
+     */
+    static class Input extends Step<String> {
+    }
+
+    /*
+     * The first invocation is slow and ignores interrupts, then writes; the hedge answers right away.
+     */
+    @StepHedge(after = 50)
+    static class Hedged extends Step<String> {
+        @Autowired
+        @OnSuccess
+        Input input;
+
+        final Map<String, AtomicInteger> invocations = new ConcurrentHashMap<>();
+
+        @Override
+        protected void run() {
+            int invocation = invocations.computeIfAbsent(CurrentRun.get().getIdentifier().getId(), k -> new AtomicInteger()).incrementAndGet();
+            if (invocation == 1) {
+                setData("first");
+                sleepUninterruptibly(300);
+                setData("loser");
+                setResult("loser");
+                throw new IllegalStateException("first invocation failed");
+            }
+            if (input.getData().contains("fail")) {
+                throw new IllegalStateException("hedge failed");
+            }
+            // the hedge doesn't see the other invocation's writes
+            setData(getData() == null ? "winner" : "saw " + getData());
+            setResult("winner");
+        }
+
+        private static void sleepUninterruptibly(long millis) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            while (System.nanoTime() < deadline) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException ignored) {
+                    // keep going, like a step that doesn't stop when interrupted
+                }
+            }
+        }
+    }
+
+    @Configuration
+    static class Steps {
+        @Bean
+        Input input() {
+            return new Input();
+        }
+
+        @Bean
+        Hedged hedged() {
+            return new Hedged();
+        }
+    }
+
+    @Autowired
+    StepManager stepManager;
+
+    @Autowired
+    Input input;
+
+    @Autowired
+    Hedged hedged;
+
+    private FlowRunIdentifier run(String parameter) {
+        FlowRunIdentifier identifier = stepManager.executeFlow(input, parameter, true, "Test", null);
+        FlowTestConfiguration.awaitStopped(identifier);
+        return identifier;
+    }
+
+    @Test
+    void aLosingInvocationDoesNotOverwriteTheWinner() {
+        FlowRunIdentifier identifier = run("succeed");
+
+        assertThat(hedged.invocations.get(identifier.getId())).hasValue(2);
+        assertThat(hedged.getStatus(identifier)).isEqualTo(StepStatus.SUCCESS);
+        assertThat(hedged.getData(identifier)).isEqualTo("winner");
+        assertThat(hedged.getResult(identifier)).isEqualTo("winner");
+    }
+
+    @Test
+    void theAttemptFailsWhenEveryInvocationFails() {
+        FlowRunIdentifier identifier = run("fail");
+
+        assertThat(hedged.invocations.get(identifier.getId())).hasValue(2);
+        assertThat(hedged.getStatus(identifier)).isEqualTo(StepStatus.FAILED);
+        assertThat(hedged.getContext(identifier).getException()).hasMessage("first invocation failed");
+        assertThat(identifier.getFlowStatus()).isEqualTo(StepStatus.FAILED);
+    }
+
+}
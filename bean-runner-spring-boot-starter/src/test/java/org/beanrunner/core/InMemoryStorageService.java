@@ -0,0 +1,50 @@
+package org.beanrunner.core;
+
+import org.beanrunner.core.storage.StorageService;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class InMemoryStorageService implements StorageService {
+
+    private final Map<String, String> files = new ConcurrentHashMap<>();
+
+    @Override
+    public void store(String path, String content) {
+        files.put(path, content);
+    }
+
+    @Override
+    public Optional<String> read(String path) {
+        return Optional.ofNullable(files.get(path));
+    }
+
+    @Override
+    public List<String> list(String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        Set<String> names = new TreeSet<>();
+        for (String file : files.keySet()) {
+            if (file.startsWith(prefix)) {
+                String rest = file.substring(prefix.length());
+                int slash = rest.indexOf('/');
+                names.add(slash < 0 ? rest : rest.substring(0, slash));
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    @Override
+    public List<String> loadBatch(List<String> filePaths) {
+        return filePaths.stream().map(files::get).filter(Objects::nonNull).toList();
+    }
+
+    @Override
+    public void delete(String path) {
+        files.remove(path);
+    }
+
+    public Set<String> getPaths() {
+        return files.keySet();
+    }
+
+}
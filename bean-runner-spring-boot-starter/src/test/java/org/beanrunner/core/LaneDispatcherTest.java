@@ -0,0 +1,106 @@
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.ExecutionLane;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LaneDispatcherTest {
+
+    /*
+     * Runs handed-over tasks only when told to, so the test decides when a worker frees up.
+     */
+    private final Deque<Runnable> workers = new ArrayDeque<>();
+    private final List<String> order = new ArrayList<>();
+
+    private void runNextWorker() {
+        workers.poll().run();
+    }
+
+    private void dispatch(LaneDispatcher dispatcher, ExecutionLane lane, String name) {
+        dispatcher.dispatch(lane, () -> order.add(name));
+    }
+
+    @Test
+    void tasksQueueOnlyBeyondMaxConcurrency() {
+        LaneDispatcher dispatcher = new LaneDispatcher(workers::add, 2, ExecutionLane::getDefaultWeight);
+        dispatch(dispatcher, ExecutionLane.BACKGROUND, "a");
+        dispatch(dispatcher, ExecutionLane.BACKGROUND, "b");
+        dispatch(dispatcher, ExecutionLane.BACKGROUND, "c");
+
+        assertThat(dispatcher.getActiveCount()).isEqualTo(2);
+        assertThat(dispatcher.getQueueDepth(ExecutionLane.BACKGROUND)).isEqualTo(1);
+        while (!workers.isEmpty()) {
+            runNextWorker();
+        }
+        assertThat(order).containsExactly("a", "b", "c");
+        assertThat(dispatcher.getActiveCount()).isZero();
+    }
+
+    @Test
+    void lanesShareFreedWorkersByWeight() {
+        LaneDispatcher dispatcher = new LaneDispatcher(workers::add, 1, lane -> lane == ExecutionLane.INTERACTIVE ? 3 : 1);
+        dispatch(dispatcher, ExecutionLane.BACKGROUND, "first");
+        for (int i = 0; i < 4; i++) {
+            dispatch(dispatcher, ExecutionLane.BACKGROUND, "b");
+            dispatch(dispatcher, ExecutionLane.INTERACTIVE, "i");
+        }
+        while (!workers.isEmpty()) {
+            runNextWorker();
+        }
+
+        assertThat(order.subList(1, 5)).containsExactly("i", "b", "i", "i");
+    }
+
+    @Test
+    void higherPriorityLanesAreServedFirst() {
+        LaneDispatcher dispatcher = new LaneDispatcher(workers::add, 1, ExecutionLane::getDefaultWeight,
+                lane -> lane == ExecutionLane.CRON ? 1 : 0);
+        dispatch(dispatcher, ExecutionLane.BACKGROUND, "first");
+        dispatch(dispatcher, ExecutionLane.INTERACTIVE, "interactive");
+        dispatch(dispatcher, ExecutionLane.CRON, "cron 1");
+        dispatch(dispatcher, ExecutionLane.CRON, "cron 2");
+        while (!workers.isEmpty()) {
+            runNextWorker();
+        }
+
+        assertThat(order).containsExactly("first", "cron 1", "cron 2", "interactive");
+    }
+
+    @Test
+    void aBlockedTaskLetsAQueuedOneRun() throws InterruptedException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            LaneDispatcher dispatcher = new LaneDispatcher(executor, 1, ExecutionLane::getDefaultWeight);
+            CountDownLatch waitedFor = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(1);
+            dispatcher.dispatch(ExecutionLane.SYNC, () -> {
+                Runnable reacquire = LaneDispatcher.releaseSlot();
+                try {
+                    waitedFor.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    reacquire.run();
+                }
+                done.countDown();
+            });
+            dispatcher.dispatch(ExecutionLane.SYNC, waitedFor::countDown);
+
+            assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+            FlowTestConfiguration.await(() -> dispatcher.getActiveCount() == 0, "all slots to be free");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
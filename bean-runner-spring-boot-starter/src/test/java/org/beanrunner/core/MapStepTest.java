@@ -0,0 +1,169 @@
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.OnSuccess;
+import org.beanrunner.core.annotations.StepTimeout;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = {FlowTestConfiguration.class, MapStepTest.Steps.class}, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class MapStepTest {
+
+    static class Numbers extends Step<List<Integer>> {
+    }
+
+    /*
+     * Squares the numbers; every 3 fails its first attempt.
+     */
+    static class Square extends MapStep<Integer, Integer> {
+        @Autowired
+        @OnSuccess
+        Numbers numbers;
+
+        final Set<String> failedOnce = ConcurrentHashMap.newKeySet();
+
+        Square() {
+            super(2, 2, 10, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        protected List<Integer> items() {
+            setResult("squared");
+            return numbers.getData();
+        }
+
+        @Override
+        protected Integer map(Integer item) {
+            if (item == 3 && failedOnce.add(CurrentRun.get().getIdentifier().getId())) {
+                throw new IllegalStateException("first attempt fails");
+            }
+            return item * item;
+        }
+    }
+
+    static class Routed extends Step<Void> {
+        @Autowired
+        @OnSuccess("squared")
+        Square square;
+    }
+
+    static class SlowNumbers extends Step<List<Integer>> {
+    }
+
+    @StepTimeout(value = 300, unit = TimeUnit.MILLISECONDS)
+    static class Slow extends MapStep<Integer, Integer> {
+        @Autowired
+        @OnSuccess
+        SlowNumbers numbers;
+
+        final AtomicInteger started = new AtomicInteger();
+        final AtomicInteger interrupted = new AtomicInteger();
+
+        Slow() {
+            super(2);
+        }
+
+        @Override
+        protected List<Integer> items() {
+            return numbers.getData();
+        }
+
+        @Override
+        protected Integer map(Integer item) throws Exception {
+            started.incrementAndGet();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.incrementAndGet();
+                throw e;
+            }
+            return item;
+        }
+    }
+
+    @Configuration
+    static class Steps {
+        @Bean
+        Numbers numbers() {
+            return new Numbers();
+        }
+
+        @Bean
+        Square square() {
+            return new Square();
+        }
+
+        @Bean
+        Routed routed() {
+            return new Routed();
+        }
+
+        @Bean
+        SlowNumbers slowNumbers() {
+            return new SlowNumbers();
+        }
+
+        @Bean
+        Slow slow() {
+            return new Slow();
+        }
+    }
+
+    @Autowired
+    StepManager stepManager;
+
+    @Autowired
+    Numbers numbers;
+
+    @Autowired
+    Square square;
+
+    @Autowired
+    Routed routed;
+
+    @Autowired
+    SlowNumbers slowNumbers;
+
+    @Autowired
+    Slow slow;
+
+    @Test
+    void elementsAreMappedInOrderAndRetried() {
+        FlowRunIdentifier identifier = stepManager.executeFlow(numbers, List.of(1, 2, 3, 4, 5), true, "Test", null);
+        FlowTestConfiguration.awaitStopped(identifier);
+
+        assertThat(identifier.getFlowStatus()).isEqualTo(StepStatus.SUCCESS);
+        assertThat(square.getData(identifier)).containsExactly(1, 4, 9, 16, 25);
+        assertThat(square.getProgress(identifier)).isEqualTo("5/5 done, 0 failed, 0 running");
+    }
+
+    @Test
+    void progressDoesNotReplaceTheResult() {
+        FlowRunIdentifier identifier = stepManager.executeFlow(numbers, List.of(1, 2), true, "Test", null);
+        FlowTestConfiguration.awaitStopped(identifier);
+
+        assertThat(square.getResult(identifier)).isEqualTo("squared");
+        assertThat(routed.getStatus(identifier)).isEqualTo(StepStatus.SUCCESS);
+    }
+
+    @Test
+    void aTimeoutInterruptsTheElementsInFlight() {
+        FlowRunIdentifier identifier = stepManager.executeFlow(slowNumbers, List.of(1, 2, 3, 4, 5, 6), true, "Test", null);
+        FlowTestConfiguration.awaitStopped(identifier);
+
+        assertThat(slow.getStatus(identifier)).isEqualTo(StepStatus.FAILED);
+        assertThat(slow.started).hasValue(2);
+        assertThat(slow.interrupted).hasValue(2);
+    }
+
+}
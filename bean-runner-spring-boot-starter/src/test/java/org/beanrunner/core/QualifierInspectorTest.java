@@ -0,0 +1,70 @@
+package org.beanrunner.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QualifierInspectorTest {
+
+    /*
+     * Every instance claims to be equal to every other one, so only an identity lookup tells them apart.
+     */
+    static class Lookalike {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Lookalike;
+        }
+
+        @Override
+        public int hashCode() {
+            return 1;
+        }
+    }
+
+    private final AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+
+    @AfterEach
+    void close() {
+        context.close();
+    }
+
+    private QualifierInspector inspector() {
+        context.registerBean("first", Lookalike.class);
+        context.registerBean("second", Lookalike.class);
+        context.refresh();
+        return new QualifierInspector(context);
+    }
+
+    @Test
+    void beansResolveToTheirOwnName() {
+        QualifierInspector inspector = inspector();
+
+        assertThat(inspector.getQualifierForBean(context.getBean("first"))).isEqualTo("first");
+        assertThat(inspector.getQualifierForBean(context.getBean("second"))).isEqualTo("second");
+        assertThat(inspector.getResolvedBean("second")).isSameAs(context.getBean("second"));
+    }
+
+    @Test
+    void unknownObjectsHaveNoQualifier() {
+        QualifierInspector inspector = inspector();
+
+        assertThat(inspector.getQualifierForBean(new Lookalike())).isEmpty();
+        assertThat(inspector.getResolvedBean("third")).isNull();
+    }
+
+    @Test
+    void singletonsRegisteredAtRuntimeAreFoundAfterInvalidate() {
+        QualifierInspector inspector = inspector();
+        Lookalike third = new Lookalike();
+        assertThat(inspector.getQualifierForBean(third)).isEmpty();
+
+        context.getBeanFactory().registerSingleton("third", third);
+        inspector.invalidate();
+
+        assertThat(inspector.getQualifierForBean(third)).isEqualTo("third");
+        assertThat(inspector.getResolvedBean("third")).isSameAs(third);
+    }
+
+}
@@ -0,0 +1,243 @@
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.OnComplete;
+import org.beanrunner.core.annotations.OnSuccess;
+import org.beanrunner.core.annotations.StepLogicOperator;
+import org.beanrunner.core.annotations.StepTriggerLogic;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = {FlowTestConfiguration.class, ReadinessTest.Steps.class}, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class ReadinessTest {
+
+    /*
+     * The input says which way Route goes ("left" or "right") and whether Check fails ("fail").
+     */
+    static class Input extends Step<String> {
+    }
+
+    static class Route extends Step<Void> {
+        @Autowired
+        @OnSuccess
+        Input input;
+
+        @Override
+        protected void run() {
+            setResult(input.getData().startsWith("left") ? "left" : "right");
+        }
+    }
+
+    static class Check extends Step<Void> {
+        @Autowired
+        @OnSuccess
+        Input input;
+
+        @Override
+        protected void run() {
+            if (input.getData().contains("fail")) {
+                throw new IllegalStateException("check failed");
+            }
+        }
+    }
+
+    static abstract class CountingStep extends Step<Void> {
+        final Map<String, AtomicInteger> runs = new ConcurrentHashMap<>();
+
+        @Override
+        protected void run() {
+            runs.computeIfAbsent(CurrentRun.get().getIdentifier().getId(), k -> new AtomicInteger()).incrementAndGet();
+        }
+
+        int runsOf(FlowRunIdentifier identifier) {
+            AtomicInteger count = runs.get(identifier.getId());
+            return count == null ? 0 : count.get();
+        }
+    }
+
+    static class AndJoin extends CountingStep {
+        @Autowired
+        @OnSuccess
+        Route route;
+
+        @Autowired
+        @OnSuccess
+        Check check;
+    }
+
+    static class LeftBranch extends CountingStep {
+        @Autowired
+        @OnSuccess("left")
+        Route route;
+    }
+
+    static class RightBranch extends CountingStep {
+        @Autowired
+        @OnSuccess("right")
+        Route route;
+
+        @Autowired
+        Input input;
+
+        @Override
+        protected void run() {
+            super.run();
+            if (input.getData().contains("fail")) {
+                throw new IllegalStateException("right branch failed");
+            }
+        }
+    }
+
+    @StepTriggerLogic(StepLogicOperator.OR)
+    static class OrJoin extends CountingStep {
+        @Autowired
+        @OnSuccess
+        LeftBranch left;
+
+        @Autowired
+        @OnSuccess
+        RightBranch right;
+    }
+
+    static class Always extends CountingStep {
+        @Autowired
+        @OnComplete
+        Check check;
+    }
+
+    @Configuration
+    static class Steps {
+        @Bean
+        Input input() {
+            return new Input();
+        }
+
+        @Bean
+        Route route() {
+            return new Route();
+        }
+
+        @Bean
+        Check check() {
+            return new Check();
+        }
+
+        @Bean
+        AndJoin andJoin() {
+            return new AndJoin();
+        }
+
+        @Bean
+        OrJoin orJoin() {
+            return new OrJoin();
+        }
+
+        @Bean
+        LeftBranch leftBranch() {
+            return new LeftBranch();
+        }
+
+        @Bean
+        RightBranch rightBranch() {
+            return new RightBranch();
+        }
+
+        @Bean
+        Always always() {
+            return new Always();
+        }
+    }
+
+    @Autowired
+    StepManager stepManager;
+
+    @Autowired
+    Input input;
+
+    @Autowired
+    AndJoin andJoin;
+
+    @Autowired
+    OrJoin orJoin;
+
+    @Autowired
+    LeftBranch leftBranch;
+
+    @Autowired
+    RightBranch rightBranch;
+
+    @Autowired
+    Always always;
+
+    private FlowRunIdentifier run(String parameter) {
+        FlowRunIdentifier identifier = stepManager.executeFlow(input, parameter, true, "Test", null);
+        FlowTestConfiguration.awaitStopped(identifier);
+        return identifier;
+    }
+
+    @Test
+    void andJoinRunsOnceAfterAllUpstreamStepsSucceeded() {
+        FlowRunIdentifier identifier = run("left");
+
+        assertThat(andJoin.getStatus(identifier)).isEqualTo(StepStatus.SUCCESS);
+        assertThat(andJoin.runsOf(identifier)).isEqualTo(1);
+    }
+
+    @Test
+    void andJoinFailsTransitivelyWhenAnUpstreamStepFails() {
+        FlowRunIdentifier identifier = run("left fail");
+
+        assertThat(andJoin.getStatus(identifier)).isEqualTo(StepStatus.FAILED_TRANSITIVELY);
+        assertThat(andJoin.runsOf(identifier)).isZero();
+        assertThat(identifier.getFlowStatus()).isEqualTo(StepStatus.FAILED);
+    }
+
+    @Test
+    void expectedResultsRouteTheFlow() {
+        FlowRunIdentifier leftRun = run("left");
+        FlowRunIdentifier rightRun = run("right");
+
+        assertThat(leftBranch.getStatus(leftRun)).isEqualTo(StepStatus.SUCCESS);
+        assertThat(rightBranch.getStatus(leftRun)).isEqualTo(StepStatus.NOT_STARTED);
+        assertThat(leftBranch.getStatus(rightRun)).isEqualTo(StepStatus.NOT_STARTED);
+        assertThat(leftBranch.runsOf(rightRun)).isZero();
+        assertThat(rightRun.getFlowStatus()).isEqualTo(StepStatus.SUCCESS);
+    }
+
+    @Test
+    void orJoinRunsOnceAfterTheTakenBranch() {
+        FlowRunIdentifier leftRun = run("left");
+        FlowRunIdentifier rightRun = run("right");
+
+        assertThat(orJoin.getStatus(leftRun)).isEqualTo(StepStatus.SUCCESS);
+        assertThat(orJoin.runsOf(leftRun)).isEqualTo(1);
+        assertThat(orJoin.getStatus(rightRun)).isEqualTo(StepStatus.SUCCESS);
+        assertThat(orJoin.runsOf(rightRun)).isEqualTo(1);
+    }
+
+    @Test
+    void orJoinFailsTransitivelyWhenTheTakenBranchFails() {
+        FlowRunIdentifier identifier = run("right fail");
+
+        assertThat(rightBranch.getStatus(identifier)).isEqualTo(StepStatus.FAILED);
+        assertThat(orJoin.getStatus(identifier)).isEqualTo(StepStatus.FAILED_TRANSITIVELY);
+        assertThat(orJoin.runsOf(identifier)).isZero();
+    }
+
+    @Test
+    void onCompleteRunsAfterFailureToo() {
+        FlowRunIdentifier identifier = run("left fail");
+
+        assertThat(always.getStatus(identifier)).isEqualTo(StepStatus.SUCCESS);
+        assertThat(always.runsOf(identifier)).isEqualTo(1);
+    }
+
+}
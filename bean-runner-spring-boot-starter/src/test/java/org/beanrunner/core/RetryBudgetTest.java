@@ -0,0 +1,41 @@
+package org.beanrunner.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetryBudgetTest {
+
+    @Test
+    void theBudgetStartsFullAndRunsOut() {
+        RetryBudget budget = new RetryBudget(0.5, 2);
+
+        assertThat(budget.tryAcquire()).isTrue();
+        assertThat(budget.tryAcquire()).isTrue();
+        assertThat(budget.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void firstAttemptsRefillItByTheRatio() {
+        RetryBudget budget = new RetryBudget(0.5, 2);
+        budget.tryAcquire();
+        budget.tryAcquire();
+
+        budget.deposit();
+        assertThat(budget.tryAcquire()).isFalse();
+        budget.deposit();
+        budget.deposit();
+        assertThat(budget.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void depositsAndReleasesStopAtTheCapacity() {
+        RetryBudget budget = new RetryBudget(1, 1);
+        budget.deposit();
+        budget.release();
+
+        assertThat(budget.tryAcquire()).isTrue();
+        assertThat(budget.tryAcquire()).isFalse();
+    }
+
+}
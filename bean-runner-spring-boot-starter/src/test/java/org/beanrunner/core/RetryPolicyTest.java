@@ -0,0 +1,109 @@
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.RetryBackoff;
+import org.beanrunner.core.annotations.StepRetry;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetryPolicyTest {
+
+    @StepRetry(delay = 100, unit = TimeUnit.MILLISECONDS, backoff = RetryBackoff.EXPONENTIAL, multiplier = 2, maxDelay = 500)
+    static class Exponential {
+    }
+
+    @StepRetry(delay = 100, unit = TimeUnit.MILLISECONDS, backoff = RetryBackoff.DECORRELATED_JITTER, maxDelay = 1000)
+    static class Decorrelated {
+    }
+
+    @StepRetry(delay = 100, unit = TimeUnit.MILLISECONDS, jitter = 0.5)
+    static class Jittered {
+    }
+
+    @StepRetry(retryOn = IOException.class, abortOn = FileNotFoundException.class)
+    static class Selective {
+    }
+
+    @StepRetry
+    static class Default {
+    }
+
+    private static StepRetry retry(Class<?> stepClass) {
+        return stepClass.getAnnotation(StepRetry.class);
+    }
+
+    @Test
+    void exponentialDelaysGrowUpToTheCap() {
+        StepRetry retry = retry(Exponential.class);
+
+        long delay = 0;
+        long[] delays = new long[5];
+        for (int i = 0; i < delays.length; i++) {
+            delay = RetryPolicy.nextDelay(retry, delay);
+            delays[i] = delay;
+        }
+
+        assertThat(delays).containsExactly(100, 200, 400, 500, 500);
+    }
+
+    @Test
+    void fixedDelaysStayTheSame() {
+        StepRetry retry = retry(Default.class);
+
+        assertThat(RetryPolicy.nextDelay(retry, 0)).isEqualTo(5000);
+        assertThat(RetryPolicy.nextDelay(retry, 5000)).isEqualTo(5000);
+    }
+
+    @Test
+    void decorrelatedJitterStaysBetweenTheBaseAndThreeTimesThePreviousDelay() {
+        StepRetry retry = retry(Decorrelated.class);
+
+        long delay = 0;
+        for (int i = 0; i < 1000; i++) {
+            long next = RetryPolicy.nextDelay(retry, delay);
+            assertThat(next).isBetween(100L, Math.min(1000L, Math.max(100L, delay * 3)));
+            delay = next;
+        }
+    }
+
+    @Test
+    void jitterOnlyShortensTheDelayByUpToItsFraction() {
+        StepRetry retry = retry(Jittered.class);
+
+        for (int i = 0; i < 1000; i++) {
+            assertThat(RetryPolicy.jitter(retry, 1000)).isBetween(500L, 1000L);
+        }
+        assertThat(RetryPolicy.jitter(retry(Default.class), 1000)).isEqualTo(1000);
+    }
+
+    @Test
+    void abortOnTakesPrecedenceOverRetryOn() {
+        StepRetry retry = retry(Selective.class);
+
+        assertThat(RetryPolicy.isRetryable(retry, new IOException())).isTrue();
+        assertThat(RetryPolicy.isRetryable(retry, new FileNotFoundException())).isFalse();
+        assertThat(RetryPolicy.isRetryable(retry, new UncheckedIOException(new IOException()))).isFalse();
+        assertThat(RetryPolicy.isRetryable(retry(Default.class), new IllegalStateException())).isTrue();
+    }
+
+    @Test
+    void aStepTokenIsGivenBackWhenTheGlobalBudgetRefuses() {
+        RetryBudget step = new RetryBudget(0.1, 1);
+        RetryBudget global = new RetryBudget(0.1, 1);
+        assertThat(global.tryAcquire()).isTrue();
+
+        assertThat(RetryPolicy.acquireBudget(step, global)).isSameAs(global);
+
+        // the step's only token was returned, so it is still there once the global budget has one again
+        global.release();
+        assertThat(RetryPolicy.acquireBudget(step, global)).isNull();
+        assertThat(RetryPolicy.acquireBudget(step, null)).isSameAs(step);
+        assertThat(RetryPolicy.acquireBudget(null, null)).isNull();
+    }
+
+}
@@ -0,0 +1,194 @@
+package org.beanrunner.core;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RunJournalTest {
+
+    static class Start extends Step<String> {
+    }
+
+    static class Next extends Step<String> {
+    }
+
+    @TempDir
+    Path directory;
+
+    private final Start start = new Start();
+    private final Next next = new Next();
+    private QualifierInspector qualifierInspector;
+
+    @BeforeEach
+    void registerSteps() {
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.refresh();
+        context.getBeanFactory().registerSingleton("start", start);
+        context.getBeanFactory().registerSingleton("next", next);
+        qualifierInspector = new QualifierInspector(context);
+        start.setOrdinal(0);
+        next.setOrdinal(1);
+    }
+
+    private RunJournal journal(DataSize segmentSize) {
+        return new RunJournal(true, directory.toString(), false, Duration.ZERO, segmentSize, qualifierInspector);
+    }
+
+    private RunJournal journal() {
+        return journal(DataSize.ofMegabytes(1));
+    }
+
+    private RunState run(String id, RunJournal journal) {
+        RunLayout layout = new RunLayout(start, new Step<?>[]{start, next}, 2, new int[]{0, 1}, new int[]{0, 0, 0}, journal);
+        return new RunState(new FlowRunIdentifier(id), layout);
+    }
+
+    private static StepRunContext<String> context(StepStatus status, String data) {
+        StepRunContext<String> context = new StepRunContext<>();
+        context.setStatus(status);
+        context.setData(data);
+        return context;
+    }
+
+    private List<Path> segments() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<String> lines() {
+        return segments().stream().flatMap(segment -> {
+            try {
+                return Files.readAllLines(segment).stream();
+            } catch (IOException e) {
+                // the writer may have just deleted it
+                return Stream.empty();
+            }
+        }).toList();
+    }
+
+    private void awaitLine(String fragment) {
+        FlowTestConfiguration.await(() -> lines().stream().anyMatch(line -> line.contains(fragment)), "a journal line with " + fragment);
+    }
+
+    private static RunJournal.RecoveredRun only(List<RunJournal.RecoveredRun> runs) {
+        assertThat(runs).hasSize(1);
+        return runs.get(0);
+    }
+
+    @Test
+    void startedStepAndFinishedEntriesAreReplayed() {
+        RunJournal journal = journal();
+        RunState running = run("running", journal);
+        running.putContext(start, context(StepStatus.SUCCESS, "a"));
+        running.putContext(next, context(StepStatus.RUNNING, "b"));
+        RunState finished = run("finished", journal);
+        finished.putContext(start, context(StepStatus.SUCCESS, "c"));
+        journal.runFinished(finished);
+        journal.start();
+        awaitLine("\"type\":\"FINISHED\"");
+
+        RunJournal.RecoveredRun recovered = only(journal().recover());
+
+        assertThat(recovered.flow()).isEqualTo("start");
+        assertThat(recovered.identifier().getId()).isEqualTo("running");
+        assertThat(recovered.contexts()).containsOnlyKeys("start", "next");
+        assertThat(recovered.contexts().get("start").getStatus()).isEqualTo(StepStatus.SUCCESS);
+        assertThat(recovered.contexts().get("start").getData()).isEqualTo("a");
+        assertThat(recovered.contexts().get("next").getStatus()).isEqualTo(StepStatus.RUNNING);
+    }
+
+    @Test
+    void aTruncatedLastLineIsSkipped() throws IOException {
+        RunJournal journal = journal();
+        RunState running = run("truncated", journal);
+        running.putContext(start, context(StepStatus.RUNNING, "a"));
+        journal.start();
+        awaitLine("\"type\":\"STEP\"");
+        Files.writeString(segments().get(0), "{\"type\":\"STEP\",\"run\":\"truncated\",\"step\":\"start\",\"context\":{\"sta",
+                StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        RunJournal.RecoveredRun recovered = only(journal().recover());
+
+        assertThat(recovered.identifier().getId()).isEqualTo("truncated");
+        assertThat(recovered.contexts().get("start").getStatus()).isEqualTo(StepStatus.RUNNING);
+    }
+
+    @Test
+    void aFullSegmentIsReplacedByOneWithOnlyTheRunsInFlight() {
+        // every batch fills the segment
+        RunJournal journal = journal(DataSize.ofBytes(1));
+        RunState running = run("in-flight", journal);
+        running.putContext(start, context(StepStatus.RUNNING, "a"));
+        RunState finished = run("done", journal);
+        finished.putContext(start, context(StepStatus.SUCCESS, "b"));
+        journal.runFinished(finished);
+        journal.start();
+
+        // the first segment holds both runs, the one replacing it only the run still in flight
+        FlowTestConfiguration.await(() -> {
+            List<String> lines = lines();
+            return segments().size() == 1 && lines.stream().anyMatch(line -> line.contains("\"run\":\"in-flight\""))
+                    && lines.stream().noneMatch(line -> line.contains("\"run\":\"done\""));
+        }, "the first segment to be replaced");
+
+        assertThat(only(journal().recover()).identifier().getId()).isEqualTo("in-flight");
+    }
+
+    @Test
+    void recoveredSegmentsAreDeletedOnceTheirRunsAreJournaledAgain() {
+        RunJournal previous = journal();
+        run("recovered", previous).putContext(start, context(StepStatus.RUNNING, "a"));
+        previous.start();
+        awaitLine("\"type\":\"STEP\"");
+        Path oldSegment = segments().get(0);
+
+        RunJournal journal = journal();
+        RunJournal.RecoveredRun recovered = only(journal.recover());
+        RunState state = new RunState(recovered.identifier(), run("unused", journal).getLayout());
+        recovered.contexts().forEach((step, context) -> state.putContext("start".equals(step) ? start : next, context));
+        journal.track(state);
+        journal.start();
+
+        FlowTestConfiguration.await(() -> !Files.exists(oldSegment), "the recovered segment to be deleted");
+        assertThat(segments()).hasSize(1);
+        RunJournal.RecoveredRun again = only(journal().recover());
+        assertThat(again.identifier().getId()).isEqualTo("recovered");
+        assertThat(again.contexts().get("start").getData()).isEqualTo("a");
+    }
+
+    @Test
+    void aRunFinishedAndResumedInTheSameBatchIsStillRecovered() {
+        RunJournal journal = journal();
+        RunState state = run("resumed", journal);
+        state.putContext(start, context(StepStatus.PAUSED_FAILURE, "a"));
+        journal.runFinished(state);
+        state.getContext(start).setStatus(StepStatus.RUNNING);
+        state.putContext(next, context(StepStatus.NOT_STARTED, "b"));
+        journal.start();
+        awaitLine("\"run\":\"resumed\",\"step\":\"next\"");
+
+        RunJournal.RecoveredRun recovered = only(journal().recover());
+
+        assertThat(recovered.identifier().getId()).isEqualTo("resumed");
+        assertThat(recovered.contexts().get("start").getStatus()).isEqualTo(StepStatus.RUNNING);
+        assertThat(recovered.contexts()).containsKey("next");
+    }
+
+}
@@ -0,0 +1,89 @@
+package org.beanrunner.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RunMailboxTest {
+
+    // keeps the drains handed to the executor until the test runs them
+    private final List<Runnable> handedOff = new ArrayList<>();
+    private final List<Integer> ran = new ArrayList<>();
+
+    private void runHandedOff() {
+        while (!handedOff.isEmpty()) {
+            handedOff.remove(0).run();
+        }
+    }
+
+    @Test
+    void transitionsPostedByATransitionRunAfterIt() {
+        RunMailbox mailbox = new RunMailbox(Runnable::run);
+
+        mailbox.post(() -> {
+            mailbox.post(() -> ran.add(2));
+            ran.add(1);
+        });
+        mailbox.post(() -> ran.add(3));
+
+        assertThat(ran).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    void thePosterRunsOnePassAndHandsTheRestToTheExecutor() {
+        RunMailbox mailbox = new RunMailbox(handedOff::add);
+        int posted = RunMailbox.MAX_PASS + 10;
+
+        mailbox.post(() -> {
+            for (int i = 1; i <= posted; i++) {
+                int transition = i;
+                mailbox.post(() -> ran.add(transition));
+            }
+        });
+
+        assertThat(ran).hasSize(RunMailbox.MAX_PASS - 1);
+        assertThat(handedOff).hasSize(1);
+
+        runHandedOff();
+
+        assertThat(ran).hasSize(posted).isSorted();
+    }
+
+    @Test
+    void handedOffTransitionsNeverRunOnTheCallingThread() {
+        RunMailbox mailbox = new RunMailbox(handedOff::add);
+
+        mailbox.handOff(() -> ran.add(1));
+        mailbox.post(() -> ran.add(2));
+
+        assertThat(ran).isEmpty();
+        assertThat(handedOff).hasSize(1);
+
+        runHandedOff();
+
+        assertThat(ran).containsExactly(1, 2);
+        mailbox.post(() -> ran.add(3));
+        assertThat(ran).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    void theCallerKeepsDrainingWhenTheExecutorRejects() {
+        RunMailbox mailbox = new RunMailbox(task -> {
+            throw new RejectedExecutionException();
+        });
+
+        mailbox.handOff(() -> ran.add(1));
+        mailbox.post(() -> {
+            for (int i = 0; i < RunMailbox.MAX_PASS; i++) {
+                mailbox.post(() -> ran.add(2));
+            }
+        });
+
+        assertThat(ran).hasSize(RunMailbox.MAX_PASS + 1);
+    }
+
+}
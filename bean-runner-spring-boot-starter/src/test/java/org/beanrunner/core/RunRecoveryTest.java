@@ -0,0 +1,212 @@
+package org.beanrunner.core;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.beanrunner.core.annotations.OnSuccess;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+ * Starts on a journal left by a previous process, without resuming the recovered runs. The flow is
+ * start -> left, start -> right -> tail.
+ */
+@SpringBootTest(classes = {FlowTestConfiguration.class, RunRecoveryTest.Steps.class}, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class RunRecoveryTest {
+
+    static class Start extends Step<Void> {
+    }
+
+    static class Left extends Step<Void> {
+        @Autowired
+        @OnSuccess
+        Start start;
+    }
+
+    static class Right extends Step<Void> {
+        @Autowired
+        @OnSuccess
+        Start start;
+    }
+
+    static class Tail extends Step<Void> {
+        @Autowired
+        @OnSuccess
+        Right right;
+    }
+
+    @Configuration
+    static class Steps {
+        @Bean
+        Start start() {
+            return new Start();
+        }
+
+        @Bean
+        Left left() {
+            return new Left();
+        }
+
+        @Bean
+        Right right() {
+            return new Right();
+        }
+
+        @Bean
+        Tail tail() {
+            return new Tail();
+        }
+    }
+
+    @TempDir
+    static Path directory;
+
+    @DynamicPropertySource
+    static void journal(DynamicPropertyRegistry registry) throws IOException {
+        List<String> lines = new ArrayList<>();
+        run(lines, "recovery-interrupted", Map.of("start", StepStatus.SUCCESS, "left", StepStatus.RUNNING, "right", StepStatus.READY));
+        run(lines, "recovery-probing", Map.of("start", StepStatus.SUCCESS, "left", StepStatus.RUNNING, "right", StepStatus.SUCCESS,
+                "tail", StepStatus.SUCCESS));
+        run(lines, "recovery-rewinding", Map.of("start", StepStatus.SUCCESS, "left", StepStatus.PENDING_REWIND, "right", StepStatus.REWINDING,
+                "tail", StepStatus.SUCCESS));
+        run(lines, "recovery-between-steps", Map.of("start", StepStatus.SUCCESS, "left", StepStatus.SUCCESS, "right", StepStatus.SUCCESS));
+        run(lines, "recovery-paused", Map.of("start", StepStatus.SUCCESS, "left", StepStatus.PAUSED_FAILURE, "right", StepStatus.SUCCESS,
+                "tail", StepStatus.SUCCESS));
+        run(lines, "recovery-stopped", Map.of("start", StepStatus.SUCCESS, "left", StepStatus.SUCCESS, "right", StepStatus.SUCCESS,
+                "tail", StepStatus.SUCCESS));
+        run(lines, "recovery-finished", Map.of("start", StepStatus.RUNNING));
+        lines.add(json(entry("FINISHED", "recovery-finished")));
+        Files.write(directory.resolve("journal-1.log"), lines);
+
+        registry.add("bean-runner.journal.enabled", () -> true);
+        registry.add("bean-runner.journal.path", directory::toString);
+        registry.add("bean-runner.journal.resume", () -> false);
+    }
+
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    private static void run(List<String> lines, String id, Map<String, StepStatus> statuses) throws JsonProcessingException {
+        RunJournal.Entry started = entry("STARTED", id);
+        started.setFlow("start");
+        started.setIdentifier(new FlowRunIdentifier(id));
+        lines.add(json(started));
+        for (Map.Entry<String, StepStatus> status : statuses.entrySet()) {
+            StepRunContext<Void> context = new StepRunContext<>();
+            context.setStatus(status.getValue());
+            // the left step of the probing run had returned from run() and was waiting for probe()
+            context.setProbing(id.equals("recovery-probing") && status.getKey().equals("left"));
+            RunJournal.Entry step = entry("STEP", id);
+            step.setStep(status.getKey());
+            step.setContext(context);
+            lines.add(json(step));
+        }
+    }
+
+    private static RunJournal.Entry entry(String type, String id) {
+        RunJournal.Entry entry = new RunJournal.Entry();
+        entry.setType(type);
+        entry.setRun(id);
+        return entry;
+    }
+
+    private static String json(RunJournal.Entry entry) throws JsonProcessingException {
+        return objectMapper.writeValueAsString(entry);
+    }
+
+    @Autowired
+    Start start;
+
+    @Autowired
+    Left left;
+
+    @Autowired
+    Right right;
+
+    @Autowired
+    Tail tail;
+
+    private static FlowRunIdentifier recovered(String id) {
+        RunState state = RunRegistry.get(id);
+        assertThat(state).as("recovered run " + id).isNotNull();
+        return state.getIdentifier();
+    }
+
+    @Test
+    void interruptedStepsArePausedAsFailed() {
+        FlowRunIdentifier identifier = recovered("recovery-interrupted");
+
+        assertThat(left.getStatus(identifier)).isEqualTo(StepStatus.PAUSED_FAILURE);
+        assertThat(right.getStatus(identifier)).isEqualTo(StepStatus.PAUSED_FAILURE);
+        assertThat(start.getStatus(identifier)).isEqualTo(StepStatus.SUCCESS);
+        assertThat(tail.getStatus(identifier)).isEqualTo(StepStatus.NOT_STARTED);
+        assertThat(identifier.isPaused()).isTrue();
+        assertThat(identifier.isRunning()).isFalse();
+    }
+
+    @Test
+    void probingStepsGoOnProbing() {
+        FlowRunIdentifier identifier = recovered("recovery-probing");
+
+        assertThat(left.getStatus(identifier)).isEqualTo(StepStatus.PAUSED_PROBING);
+        assertThat(right.getStatus(identifier)).isEqualTo(StepStatus.SUCCESS);
+    }
+
+    @Test
+    void rewindingStepsArePausedAsFailedRewinds() {
+        FlowRunIdentifier identifier = recovered("recovery-rewinding");
+
+        assertThat(left.getStatus(identifier)).isEqualTo(StepStatus.PAUSED_REWIND_FAILURE);
+        assertThat(right.getStatus(identifier)).isEqualTo(StepStatus.PAUSED_REWIND_FAILURE);
+        assertThat(tail.getStatus(identifier)).isEqualTo(StepStatus.SUCCESS);
+    }
+
+    @Test
+    void succeededStepsWithDownstreamStepsNotStartedArePausedAsSucceeded() {
+        FlowRunIdentifier identifier = recovered("recovery-between-steps");
+
+        assertThat(right.getStatus(identifier)).isEqualTo(StepStatus.PAUSED_SUCCESS);
+        assertThat(start.getStatus(identifier)).isEqualTo(StepStatus.SUCCESS);
+        assertThat(left.getStatus(identifier)).isEqualTo(StepStatus.SUCCESS);
+        assertThat(identifier.isPaused()).isTrue();
+    }
+
+    @Test
+    void pausedStepsKeepTheirStatus() {
+        FlowRunIdentifier identifier = recovered("recovery-paused");
+
+        assertThat(left.getStatus(identifier)).isEqualTo(StepStatus.PAUSED_FAILURE);
+        assertThat(identifier.isPaused()).isTrue();
+    }
+
+    @Test
+    void runsThatHadStoppedAreNotPaused() {
+        FlowRunIdentifier identifier = recovered("recovery-stopped");
+
+        assertThat(identifier.isPaused()).isFalse();
+        assertThat(identifier.getFlowStatus()).isEqualTo(StepStatus.SUCCESS);
+    }
+
+    @Test
+    void finishedRunsAreNotRecovered() {
+        assertThat(RunRegistry.get("recovery-finished")).isNull();
+    }
+
+}
@@ -0,0 +1,74 @@
+package org.beanrunner.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RunRegistryTest {
+
+    static class Start extends Step<Void> {
+    }
+
+    private final Start start = new Start();
+
+    private RunState register() {
+        start.setOrdinal(0);
+        RunLayout layout = new RunLayout(start, new Step<?>[]{start}, 1, new int[]{0}, new int[]{0, 0}, null);
+        return RunRegistry.register(new RunState(new FlowRunIdentifier(), layout));
+    }
+
+    @Test
+    void reloadingARunMakesItTheMostRecentlyLoaded() {
+        RunState first = register();
+        RunState second = register();
+        RunState third = register();
+
+        RunRegistry.loaded(first, 2);
+        RunRegistry.loaded(second, 2);
+        RunRegistry.loaded(first, 2);
+        List<RunState> unloaded = RunRegistry.loaded(third, 2);
+
+        assertThat(unloaded).contains(second).doesNotContain(first, third);
+        assertThat(RunRegistry.loaded(first, 2)).doesNotContain(first, third);
+    }
+
+    @Test
+    void runningRunsAreNeverUnloaded() {
+        RunState running = register();
+        running.getIdentifier().setRunning(true);
+        RunState other = register();
+
+        RunRegistry.loaded(running, 1);
+        List<RunState> unloaded = RunRegistry.loaded(other, 1);
+
+        assertThat(unloaded).doesNotContain(running, other);
+    }
+
+    @Test
+    void evictionDropsTheOldestFinishedRuns() {
+        RunState older = register();
+        RunState newer = register();
+        RunRegistry.finished(older, 1);
+        RunRegistry.finished(newer, 2);
+
+        assertThat(RunRegistry.evict(start, 1, 0)).containsExactly(older);
+        assertThat(RunRegistry.get(older.getIdentifier().getId())).isNull();
+        assertThat(RunRegistry.get(older.getIdentifier())).isNull();
+        assertThat(RunRegistry.get(newer.getIdentifier().getId())).isSameAs(newer);
+    }
+
+    @Test
+    void removedRunsAreNotFoundThroughTheirIdentifier() {
+        RunState state = register();
+        FlowRunIdentifier identifier = state.getIdentifier();
+        assertThat(RunRegistry.get(identifier)).isSameAs(state);
+
+        RunRegistry.remove(identifier);
+
+        assertThat(RunRegistry.get(identifier)).isNull();
+        assertThat(RunRegistry.getIdentifiers(start)).doesNotContain(identifier);
+    }
+
+}
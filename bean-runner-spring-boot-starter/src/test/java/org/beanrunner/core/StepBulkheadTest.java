@@ -0,0 +1,109 @@
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.StepConcurrency;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StepBulkheadTest {
+
+    @StepConcurrency(max = 1, queue = 2)
+    static class Single {
+    }
+
+    @StepConcurrency(max = 0)
+    static class NoSlots {
+    }
+
+    @StepConcurrency(max = 1, queue = -1)
+    static class NegativeQueue {
+    }
+
+    private final List<String> events = new ArrayList<>();
+
+    private static StepBulkhead bulkhead(Class<?> stepClass) {
+        return new StepBulkhead(stepClass.getSimpleName(), stepClass.getAnnotation(StepConcurrency.class));
+    }
+
+    private boolean acquire(StepBulkhead bulkhead, FlowRunIdentifier identifier, String name) {
+        return bulkhead.acquire(identifier, () -> events.add("granted " + name), () -> events.add("cancelled " + name));
+    }
+
+    @Test
+    void freedSlotsAreHandedToWaitersInArrivalOrder() {
+        StepBulkhead bulkhead = bulkhead(Single.class);
+
+        assertThat(acquire(bulkhead, new FlowRunIdentifier(), "first")).isTrue();
+        assertThat(acquire(bulkhead, new FlowRunIdentifier(), "second")).isFalse();
+        assertThat(acquire(bulkhead, new FlowRunIdentifier(), "third")).isFalse();
+        assertThat(events).isEmpty();
+
+        bulkhead.release();
+        assertThat(events).containsExactly("granted second");
+        assertThat(bulkhead.getActiveCount()).isEqualTo(1);
+        assertThat(bulkhead.getQueuedCount()).isEqualTo(1);
+
+        bulkhead.release();
+        bulkhead.release();
+        assertThat(events).containsExactly("granted second", "granted third");
+        assertThat(bulkhead.getActiveCount()).isZero();
+    }
+
+    @Test
+    void executionsBeyondAFullQueueAreRejected() {
+        StepBulkhead bulkhead = bulkhead(Single.class);
+        acquire(bulkhead, new FlowRunIdentifier(), "running");
+        acquire(bulkhead, new FlowRunIdentifier(), "queued");
+        acquire(bulkhead, new FlowRunIdentifier(), "queued");
+
+        assertThatThrownBy(() -> acquire(bulkhead, new FlowRunIdentifier(), "rejected"))
+                .isInstanceOf(StepRejectedException.class);
+        assertThat(bulkhead.getQueuedCount()).isEqualTo(2);
+    }
+
+    @Test
+    void cancellingARunRemovesItsWaitersAndCallsOnCancel() {
+        StepBulkhead bulkhead = bulkhead(Single.class);
+        FlowRunIdentifier cancelled = new FlowRunIdentifier();
+        acquire(bulkhead, new FlowRunIdentifier(), "running");
+        acquire(bulkhead, cancelled, "cancelled");
+        acquire(bulkhead, new FlowRunIdentifier(), "next");
+
+        bulkhead.cancel(cancelled);
+        bulkhead.release();
+
+        assertThat(events).containsExactly("cancelled cancelled", "granted next");
+        assertThat(bulkhead.getQueuedCount()).isZero();
+    }
+
+    @Test
+    void queuePositionsAreOneBased() {
+        StepBulkhead bulkhead = bulkhead(Single.class);
+        FlowRunIdentifier running = new FlowRunIdentifier();
+        FlowRunIdentifier first = new FlowRunIdentifier();
+        FlowRunIdentifier second = new FlowRunIdentifier();
+        acquire(bulkhead, running, "running");
+        acquire(bulkhead, first, "first");
+        acquire(bulkhead, second, "second");
+
+        assertThat(bulkhead.getQueuePosition(running)).isZero();
+        assertThat(bulkhead.getQueuePosition(first)).isEqualTo(1);
+        assertThat(bulkhead.getQueuePosition(second)).isEqualTo(2);
+
+        bulkhead.release();
+
+        assertThat(bulkhead.getQueuePosition(first)).isZero();
+        assertThat(bulkhead.getQueuePosition(second)).isEqualTo(1);
+    }
+
+    @Test
+    void invalidLimitsAreRejected() {
+        assertThatThrownBy(() -> bulkhead(NoSlots.class)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> bulkhead(NegativeQueue.class)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
@@ -0,0 +1,109 @@
+package org.beanrunner.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StepContextTest {
+
+    static class DataStep extends Step<String> {
+        void store(String value) {
+            setData(value);
+        }
+    }
+
+    private static RunState register(Step<?> step) {
+        step.setOrdinal(0);
+        RunLayout layout = new RunLayout(step, new Step<?>[]{step}, 1, new int[]{0}, new int[]{0, 0}, null);
+        return RunRegistry.register(new RunState(new FlowRunIdentifier(), layout));
+    }
+
+    @Test
+    void accessorsActOnTheBoundRun() {
+        DataStep step = new DataStep();
+        RunState first = register(step);
+        RunState second = register(step);
+
+        RunState previous = CurrentRun.bind(first);
+        try {
+            step.store("first");
+        } finally {
+            CurrentRun.restore(previous);
+        }
+
+        assertThat(step.getData(first.getIdentifier())).isEqualTo("first");
+        assertThat(step.getData(second.getIdentifier())).isNull();
+    }
+
+    @Test
+    void accessorsFailWithoutABoundRun() {
+        DataStep step = new DataStep();
+        register(step);
+
+        assertThatThrownBy(() -> step.store("value")).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void wrappedTasksRunBoundToTheCapturingRun() throws Exception {
+        DataStep step = new DataStep();
+        RunState run = register(step);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            RunState previous = CurrentRun.bind(run);
+            Runnable task;
+            try {
+                task = CurrentRun.wrap(() -> step.store("from another thread"));
+            } finally {
+                CurrentRun.restore(previous);
+            }
+            CompletableFuture.runAsync(task, executor).get();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(step.getData(run.getIdentifier())).isEqualTo("from another thread");
+    }
+
+    @Test
+    void wrappedCallbacksCarryAStagedContext() throws Exception {
+        DataStep step = new DataStep();
+        RunState run = register(step);
+        StepRunContext<String> staged = new StepRunContext<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            RunState previous = CurrentRun.bind(run);
+            Consumer<String> callback;
+            try {
+                CurrentRun.stage(step, staged);
+                callback = CurrentRun.wrap(step::store);
+            } finally {
+                CurrentRun.unstage();
+                CurrentRun.restore(previous);
+            }
+            CompletableFuture.completedFuture("staged").thenAcceptAsync(callback, executor).get();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(staged.getData()).isEqualTo("staged");
+        assertThat(step.getData(run.getIdentifier())).isNull();
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void identifiersListRunsWithAContextForTheStep() {
+        DataStep step = new DataStep();
+        RunState withContext = register(step);
+        RunState withoutContext = register(step);
+        withContext.getContext(step);
+
+        assertThat(step.getIdentifiers()).contains(withContext.getIdentifier()).doesNotContain(withoutContext.getIdentifier());
+    }
+
+}
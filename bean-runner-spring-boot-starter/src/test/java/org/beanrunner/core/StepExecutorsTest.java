@@ -0,0 +1,126 @@
+package org.beanrunner.core;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StepExecutorsTest {
+
+    private static StepExecutors executors(String mode, int maxThreads) {
+        return new StepExecutors(mode, maxThreads, 0, new StandardEnvironment());
+    }
+
+    @Test
+    void unknownModesAreRejected() {
+        assertThatThrownBy(() -> executors("green", 10)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void everyModeRunsTasks() throws InterruptedException {
+        for (String mode : new String[]{"platform", "virtual", "bounded"}) {
+            StepExecutors executors = executors(mode, 2);
+            CountDownLatch done = new CountDownLatch(3);
+            FlowRunIdentifier identifier = new FlowRunIdentifier();
+            for (int i = 0; i < 3; i++) {
+                executors.submit(identifier, done::countDown);
+            }
+
+            assertThat(done.await(10, TimeUnit.SECONDS)).as(mode).isTrue();
+        }
+    }
+
+    @Test
+    void boundedModeRunsAtMostMaxThreadsTasksAtOnce() throws InterruptedException {
+        StepExecutors executors = executors("bounded", 2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(6);
+        FlowRunIdentifier identifier = new FlowRunIdentifier();
+        for (int i = 0; i < 6; i++) {
+            executors.submit(identifier, () -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(peak.get()).isEqualTo(2);
+    }
+
+    @Test
+    void maxThreadsDoesNotCapTheUnboundedModes() throws InterruptedException {
+        for (String mode : new String[]{"platform", "virtual"}) {
+            StepExecutors executors = executors(mode, 2);
+            CountDownLatch started = new CountDownLatch(5);
+            CountDownLatch release = new CountDownLatch(1);
+            FlowRunIdentifier identifier = new FlowRunIdentifier();
+            for (int i = 0; i < 5; i++) {
+                executors.submit(identifier, () -> {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+
+            assertThat(started.await(10, TimeUnit.SECONDS)).as(mode).isTrue();
+            release.countDown();
+        }
+    }
+
+    @Test
+    void listenersHearWhenTheLastTaskOfARunIsDone() throws InterruptedException {
+        StepExecutors executors = executors("platform", 10);
+        FlowRunIdentifier identifier = new FlowRunIdentifier();
+        CountDownLatch complete = new CountDownLatch(1);
+        executors.addListener(id -> {
+            if (id.equals(identifier)) {
+                complete.countDown();
+            }
+        });
+        CountDownLatch release = new CountDownLatch(1);
+        executors.submit(identifier, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        assertThat(executors.getCounter(identifier)).isEqualTo(1);
+        release.countDown();
+        assertThat(complete.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(executors.getCounter(identifier)).isZero();
+    }
+
+    @Test
+    void onlyWatchActionsRunOnTheTimerThread() throws InterruptedException {
+        StepExecutors executors = executors("platform", 2);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicBoolean onTimer = new AtomicBoolean();
+        executors.watch(() -> {
+            onTimer.set(executors.isTimerThread());
+            done.countDown();
+        }, 10, TimeUnit.MILLISECONDS);
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(onTimer).isTrue();
+        assertThat(executors.isTimerThread()).isFalse();
+    }
+
+}
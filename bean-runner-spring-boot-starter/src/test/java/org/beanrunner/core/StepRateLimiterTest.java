@@ -0,0 +1,74 @@
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.StepRateLimit;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class StepRateLimiterTest {
+
+    @StepRateLimit(permitsPerSecond = 1, burst = 3)
+    static class Bursty {
+    }
+
+    @StepRateLimit(permitsPerSecond = 1, key = "tenant")
+    static class PerTenant {
+    }
+
+    @StepRateLimit(permitsPerSecond = 100)
+    static class Fast {
+    }
+
+    private static StepRateLimiter limiter(Class<?> stepClass) {
+        return new StepRateLimiter(stepClass.getAnnotation(StepRateLimit.class));
+    }
+
+    private static FlowRunIdentifier run(String tenant) {
+        FlowRunIdentifier identifier = new FlowRunIdentifier();
+        if (tenant != null) {
+            identifier.getRunProperties().put("tenant", tenant);
+        }
+        return identifier;
+    }
+
+    @Test
+    void aBurstPassesAndLaterPermitsAreSpacedByTheInterval() {
+        StepRateLimiter limiter = limiter(Bursty.class);
+        long interval = TimeUnit.SECONDS.toNanos(1);
+        long slack = TimeUnit.MILLISECONDS.toNanos(200);
+
+        assertThat(limiter.reserve(run(null))).isZero();
+        assertThat(limiter.reserve(run(null))).isZero();
+        assertThat(limiter.reserve(run(null))).isZero();
+        assertThat(limiter.reserve(run(null))).isCloseTo(interval, within(slack));
+        assertThat(limiter.reserve(run(null))).isCloseTo(2 * interval, within(slack));
+        assertThat(limiter.getThrottledCount()).isEqualTo(2);
+        assertThat(limiter.getThrottledMillis()).isBetween(2600L, 3000L);
+    }
+
+    @Test
+    void eachKeyHasItsOwnBucket() {
+        StepRateLimiter limiter = limiter(PerTenant.class);
+
+        assertThat(limiter.reserve(run("a"))).isZero();
+        assertThat(limiter.reserve(run("b"))).isZero();
+        assertThat(limiter.reserve(run("a"))).isPositive();
+        assertThat(limiter.reserve(run("b"))).isPositive();
+    }
+
+    @Test
+    void permitsAccrueWhileIdleButNotBeyondTheBurst() throws InterruptedException {
+        StepRateLimiter limiter = limiter(Fast.class);
+
+        assertThat(limiter.reserve(run(null))).isZero();
+        Thread.sleep(50);
+
+        assertThat(limiter.reserve(run(null))).isZero();
+        // a burst of 1 saves no permits for later, however long the step was idle
+        assertThat(limiter.reserve(run(null))).isPositive();
+    }
+
+}
@@ -0,0 +1,112 @@
+package org.beanrunner.core;
+
+import org.beanrunner.core.annotations.StepCache;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = {FlowTestConfiguration.class, StepResultCacheTest.Steps.class}, webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class StepResultCacheTest {
+
+    static abstract class Exclaim extends Step<String> {
+        final AtomicInteger runs = new AtomicInteger();
+
+        @Override
+        protected void run() {
+            runs.incrementAndGet();
+            setData(getData() + "!");
+        }
+    }
+
+    @StepCache(key = "lookup", maxEntries = 2, persistent = true)
+    static class Lookup extends Exclaim {
+    }
+
+    @StepCache(key = "expiring", ttl = 100, unit = TimeUnit.MILLISECONDS, persistent = true)
+    static class Expiring extends Exclaim {
+    }
+
+    @Configuration
+    static class Steps {
+        @Bean
+        Lookup lookup() {
+            return new Lookup();
+        }
+
+        @Bean
+        Expiring expiring() {
+            return new Expiring();
+        }
+    }
+
+    @Autowired
+    StepManager stepManager;
+
+    @Autowired
+    InMemoryStorageService storageService;
+
+    @Autowired
+    Lookup lookup;
+
+    @Autowired
+    Expiring expiring;
+
+    private FlowRunIdentifier run(Step<String> step, String parameter) {
+        FlowRunIdentifier identifier = stepManager.executeFlow(step, parameter, true, "Test", null);
+        FlowTestConfiguration.awaitStopped(identifier);
+        assertThat(identifier.getFlowStatus()).isEqualTo(StepStatus.SUCCESS);
+        return identifier;
+    }
+
+    private long storedEntries(String name) {
+        return storageService.getPaths().stream().filter(path -> path.startsWith("cache/" + name + "/")).count();
+    }
+
+    @Test
+    void theRunParameterIsPartOfTheKeyOfAFirstStep() {
+        int before = lookup.runs.get();
+
+        FlowRunIdentifier first = run(lookup, "key-a");
+        FlowRunIdentifier repeated = run(lookup, "key-a");
+        FlowRunIdentifier other = run(lookup, "key-b");
+
+        assertThat(lookup.getData(first)).isEqualTo("key-a!");
+        assertThat(lookup.getContext(repeated).isCached()).isTrue();
+        assertThat(lookup.getData(repeated)).isEqualTo("key-a!");
+        assertThat(lookup.getContext(other).isCached()).isFalse();
+        assertThat(lookup.getData(other)).isEqualTo("key-b!");
+        assertThat(lookup.runs.get() - before).isEqualTo(2);
+    }
+
+    @Test
+    void storedEntriesAreBoundedLikeTheInMemoryOnes() {
+        run(lookup, "bound-1");
+        run(lookup, "bound-2");
+        run(lookup, "bound-3");
+
+        assertThat(storedEntries("lookup")).isEqualTo(2);
+        FlowRunIdentifier evicted = run(lookup, "bound-1");
+        assertThat(lookup.getContext(evicted).isCached()).isFalse();
+    }
+
+    @Test
+    void expiredEntriesAreDeletedFromTheStorage() throws InterruptedException {
+        run(expiring, "ttl");
+        assertThat(storedEntries("expiring")).isEqualTo(1);
+        Thread.sleep(150);
+
+        FlowRunIdentifier expired = run(expiring, "ttl");
+
+        assertThat(expiring.getContext(expired).isCached()).isFalse();
+        assertThat(expiring.runs).hasValue(2);
+        assertThat(storedEntries("expiring")).isEqualTo(1);
+    }
+
+}
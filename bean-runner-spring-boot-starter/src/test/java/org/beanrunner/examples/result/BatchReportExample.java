@@ -20,25 +20,39 @@
 
 package org.beanrunner.examples.result;
 
-import org.beanrunner.BatchReporterStep;
+import org.beanrunner.core.BatchingStep;
+import org.beanrunner.core.Step;
+import org.beanrunner.core.annotations.OnSuccess;
+import org.beanrunner.core.annotations.StepIcon;
+import org.beanrunner.core.annotations.StepSize;
 import org.beanrunner.examples.rewind.Person;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 @Component
-public class BatchReportExample extends BatchReporterStep<Person> {
+@StepSize(25)
+@StepIcon("images/step-batch.svg")
+public class BatchReportExample extends BatchingStep<Void, Person> {
+
+    @OnSuccess
+    private final Step<Person> inputStep;
 
     public BatchReportExample(@Autowired GeneratePerson inputStep) {
-        super(inputStep, 10, 30, TimeUnit.SECONDS);
+        super(10, 30, TimeUnit.SECONDS);
+        this.inputStep = inputStep;
+    }
+
+    @Override
+    protected Person createItem() {
+        return inputStep.getData();
     }
 
     @Override
-    protected void handleBatch(List<Person> data) {
-        System.out.println("Reporting batch of " + data.size() + " persons: ");
-        data.forEach(System.out::println);
+    protected void flush(Batch<Person> batch) {
+        System.out.println("Reporting batch of " + batch.size() + " persons: ");
+        batch.getItems().forEach(System.out::println);
         System.out.println("-----------------------------------------------------");
     }
 }
@@ -4,6 +4,7 @@ import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.beanrunner.core.annotations.OnSuccess;
+import org.beanrunner.core.annotations.StepCircuitBreaker;
 import org.beanrunner.core.annotations.StepIcon;
 import org.beanrunner.core.annotations.StepSize;
 import org.beanrunner.examples.TestStep;
@@ -12,6 +13,7 @@ import org.beanrunner.examples.TestStep;
 @RequiredArgsConstructor
 @StepSize(30)
 @StepIcon("images/step-compute.svg")
+@StepCircuitBreaker(window = 10, minimumCalls = 5, openDuration = 20)
 public class CreateInstanceGroup extends TestStep<Void> {
 
     @NonNull
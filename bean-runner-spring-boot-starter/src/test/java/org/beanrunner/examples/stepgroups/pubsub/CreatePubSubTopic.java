@@ -7,11 +7,13 @@ import org.beanrunner.core.Step;
 import org.beanrunner.core.StepGroupData;
 import org.beanrunner.core.annotations.OnSuccess;
 import org.beanrunner.core.annotations.StepIcon;
+import org.beanrunner.core.annotations.StepRateLimit;
 import org.beanrunner.examples.TestStep;
 
 @Slf4j
 @RequiredArgsConstructor
 @StepIcon("images/step-pubsub.svg")
+@StepRateLimit(permitsPerSecond = 2, burst = 4)
 public class CreatePubSubTopic extends TestStep<Void> {
 
     @NonNull